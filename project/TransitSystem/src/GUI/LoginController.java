@@ -1,6 +1,7 @@
 package GUI;
 
 import TransitSystemClasses.AdminUserAccount;
+import TransitSystemClasses.EventLog;
 import TransitSystemClasses.TransitUserAccount;
 import TransitSystemExceptions.LoginFailException;
 import javafx.application.Platform;
@@ -105,19 +106,37 @@ public class LoginController {
   }
 
   /**
-   * Save all data to a serialized file and save transit route to a readable txt file.
+   * Save all data to a serialized file and save transit route to a readable txt file. The data is
+   * saved in the background, showing the progress in the title, and the program exits once it is
+   * saved.
    */
   public void saveAndExit() {
-    try {
-      Main.getDataSource().saveToFile("./serialized_data.ser");
-      Platform.exit();
-    } catch (IOException e) {
-      Alert saveError = new Alert(Alert.AlertType.ERROR, "Can't save system data to file");
-      saveError.getDialogPane().setMinHeight(Region.USE_PREF_SIZE);
-      saveError.setContentText("Unknown error has occurs, please contact developer!");
-      saveError.showAndWait();
-      e.printStackTrace();
-    }
+    Stage primary = Main.primaryStage;
+    String title = primary.getTitle();
+    Main.getDataSource()
+            .checkpointInBackground(
+                    (written, total) ->
+                            Platform.runLater(
+                                    () -> primary.setTitle(
+                                            String.format("Saving... %d of %d", written, total))))
+            .whenComplete(
+                    (ignored, e) ->
+                            Platform.runLater(
+                                    () -> {
+                                      if (e == null) {
+                                        EventLog.flush();
+                                        Platform.exit();
+                                        return;
+                                      }
+                                      primary.setTitle(title);
+                                      Alert saveError =
+                                              new Alert(Alert.AlertType.ERROR, "Can't save system data to file");
+                                      saveError.getDialogPane().setMinHeight(Region.USE_PREF_SIZE);
+                                      saveError.setContentText(
+                                              "Unknown error has occurs, please contact developer!");
+                                      saveError.showAndWait();
+                                      e.printStackTrace();
+                                    }));
   }
 
   /**
@@ -44,6 +44,25 @@ public class Main extends Application {
     } catch (Exception e) {
       e.printStackTrace();
     }
+    if (Boolean.getBoolean("transit.hierarchy")) {
+      RouteFinder.setHierarchyFile("Stations.txt");
+    }
+    // The timetable is optional, routes are only planned by time if there is one
+    if (new File("Timetable.txt").exists()) {
+      try {
+        RouteFinder.setTimetable(Timetable.read("Timetable.txt"));
+      } catch (FileReadException e) {
+        e.printStackTrace();
+      }
+    }
+    // The fare rules are optional too, without them fares are charged from the Fares table only
+    if (new File("FareRules.txt").exists()) {
+      try {
+        FarePolicy.setRules(FareRules.read("FareRules.txt"));
+      } catch (FileReadException e) {
+        e.printStackTrace();
+      }
+    }
     dataSource = DataSource.getDataSource();
     if (dataSource.getAdminUserAccount() != null) {
       AdminUserAccount.setDefaultAdmin(dataSource.getAdminUserAccount());
@@ -57,6 +76,7 @@ public class Main extends Application {
         fare.setFare(dataSource.getFareInfo().get(fare.name()));
       }
     }
+    dataSource.recover();
   }
 
   static DataSource getDataSource() {
@@ -103,9 +103,9 @@ public class RouteEditorInterfaceController {
       if (resultName.isPresent()) {
         if (resultName.get().equals("END")) {
           if (type.equals("Bus")) {
-            allBusRoutes.put(name, route.toArray(new String[0]));
+            BusSubTrip.putBusRoute(name, route.toArray(new String[0]));
           } else if (type.equals("Subway")) {
-            allSubwayRoutes.put(name, route.toArray(new String[0]));
+            SubwaySubTrip.putSubwayRoute(name, route.toArray(new String[0]));
           }
           logger.log(
                   Level.INFO,
@@ -144,11 +144,9 @@ public class RouteEditorInterfaceController {
       }
       String[] route;
       if (allBusRoutes.containsKey(name)) {
-        route = allBusRoutes.get(name);
-        allBusRoutes.remove(name);
+        route = BusSubTrip.removeBusRoute(name);
       } else {
-        route = allSubwayRoutes.get(name);
-        allSubwayRoutes.remove(name);
+        route = SubwaySubTrip.removeSubwayRoute(name);
       }
       logger.log(
               Level.INFO,
@@ -1,26 +1,35 @@
 package GUI;
 
-import TransitSystemClasses.BusSubTrip;
 import TransitSystemClasses.RouteFinder;
+import TransitSystemClasses.RoutePlan;
 import TransitSystemClasses.SubwaySubTrip;
 import TransitSystemExceptions.RouteNotFoundException;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.layout.Region;
 
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class RoutePlannerController {
   @FXML MenuButton startStationMenu;
   @FXML MenuButton endStationMenu;
+  @FXML TextField startStationSearch;
+  @FXML TextField endStationSearch;
   @FXML ToggleButton subwayFirst;
   @FXML ToggleButton notSubwayFirst;
   @FXML TextArea routeDisplay;
-  private ArrayList<CheckMenuItem> startStationOptions = new ArrayList<>();
-  private ArrayList<CheckMenuItem> endStationOptions = new ArrayList<>();
+  @FXML ChoiceBox<String> alternativeSelection;
+  // The most alternative routes to show
+  private static final int ALTERNATIVES = 5;
+  private StationMenu startStations;
+  private StationMenu endStations;
   private String startStationSelection;
   private String endStationSelection;
+  // The shortest routes between the selected stations, from the shortest
+  private List<RoutePlan> alternatives = new ArrayList<>();
 
   /** Go back to the login interface. */
   public void onBack() {
@@ -94,15 +103,48 @@ public class RoutePlannerController {
     showRoute();
   }
 
-  /** Format the route information that comes from the route planner */
+  /** Show the selected alternative route instead of the shortest one. */
+  public void onSelectAlternative() {
+    if (alternativeSelection.getSelectionModel().getSelectedIndex() >= 0) {
+      printRoute();
+    }
+  }
+
+  /** Find the alternative routes between the selected stations and show the shortest. */
   private void showRoute() {
+    RouteFinder r = new RouteFinder("All");
+    try {
+      alternatives =
+          r.findAlternativeRoutes(startStationSelection, endStationSelection, ALTERNATIVES);
+    } catch (RouteNotFoundException re) {
+      alternatives = new ArrayList<>();
+    }
+    alternativeSelection.getItems().clear();
+    for (int i = 0; i < alternatives.size(); i++) {
+      RoutePlan plan = alternatives.get(i);
+      alternativeSelection
+          .getItems()
+          .add(
+              String.format(
+                  "%d: %d stops, %d transfers", i + 1, plan.getLength(), plan.getTransfers()));
+    }
+    if (alternatives.isEmpty()) {
+      printRoute();
+    } else {
+      // Selecting the first route prints it
+      alternativeSelection.getSelectionModel().select(0);
+    }
+  }
+
+  /** Format the route information that comes from the route planner */
+  private void printRoute() {
     String result = "";
     String msg;
     if (subwayFirst.isSelected()) {
       if (isSubwayStation(startStationSelection) && isSubwayStation(endStationSelection)) {
         RouteFinder r = new RouteFinder("Subway");
         try {
-          msg = r.getRoutePlan(startStationSelection, endStationSelection);
+          msg = r.findRoute(startStationSelection, endStationSelection).toString();
           result += "Subway only: " + System.lineSeparator() + msg;
         } catch (RouteNotFoundException e) {
           result +=
@@ -115,11 +157,41 @@ public class RoutePlannerController {
     }
     RouteFinder r = new RouteFinder("All");
     try {
-      msg = r.getRoutePlan(startStationSelection, endStationSelection);
-      result += System.lineSeparator() + "Shortest Route:" + System.lineSeparator() + msg;
+      RoutePlan shortest = r.findRoute(startStationSelection, endStationSelection);
+      int selected = alternativeSelection.getSelectionModel().getSelectedIndex();
+      if (selected > 0) {
+        msg = alternatives.get(selected).toString();
+        result +=
+            System.lineSeparator() + "Alternative Route " + (selected + 1) + ":"
+                + System.lineSeparator() + msg;
+      } else {
+        msg = shortest.toString();
+        result += System.lineSeparator() + "Shortest Route:" + System.lineSeparator() + msg;
+      }
+      try {
+        // From the fewest transfers, only plans with a few transfers are looked for
+        RoutePlan fewest = r.findRouteOptions(startStationSelection, endStationSelection).get(0);
+        if (fewest.getTransfers() < shortest.getTransfers()) {
+          msg = fewest.toString();
+          result += System.lineSeparator() + "Fewest Transfers:" + System.lineSeparator() + msg;
+        }
+      } catch (RouteNotFoundException re) {
+        // Every route needs more transfers than are looked for, the shortest is shown
+      }
     } catch (RouteNotFoundException re) {
       result += "There is no continuous route between the two stations you selected. ";
     }
+    if (RouteFinder.hasTimetable()) {
+      try {
+        msg =
+            r.findEarliestArrival(startStationSelection, endStationSelection, LocalTime.now())
+                .toString();
+        result +=
+            System.lineSeparator() + "Earliest Arrival Leaving Now:" + System.lineSeparator() + msg;
+      } catch (RouteNotFoundException re) {
+        result += System.lineSeparator() + "No scheduled trips reach your end point today.";
+      }
+    }
     routeDisplay.setText(result);
   }
 
@@ -138,75 +210,21 @@ public class RoutePlannerController {
 
   /** Print all the stations to the choice box. */
   private void printStation() {
-    HashMap<String, String[]> allSubwayRoutes = SubwaySubTrip.getSubwayRoutes();
-    HashMap<String, String[]> allBusRoutes = BusSubTrip.getBusRoutes();
-    startStationMenu.getItems().clear();
-    endStationMenu.getItems().clear();
-    printStartRouteStation("Subway", allSubwayRoutes);
-    printStartRouteStation("Bus", allBusRoutes);
-    printEndRouteStation("Subway", allSubwayRoutes);
-    printEndRouteStation("Bus", allBusRoutes);
-  }
-
-  /**
-   * Helper function for PrintStation. It add all the stations to startStationMenu.
-   *
-   * @param type the type of the transportation
-   * @param routeMap the route map of the corresponding transportation
-   */
-  private void printStartRouteStation(String type, HashMap<String, String[]> routeMap) {
-    for (String route : routeMap.keySet()) {
-      Menu routeMenu = new Menu();
-      routeMenu.setText(route + "(" + type + ")");
-      for (String station : routeMap.get(route)) {
-        CheckMenuItem thisOption = new CheckMenuItem(station);
-        thisOption.setOnAction(
-            event -> {
-              thisOption.setSelected(true);
-              // Set every other option to unchecked except for this one
-              startStationOptions
-                  .stream()
-                  .filter(x -> x != thisOption)
-                  .forEach(x -> x.setSelected(false));
-              // Store the selection in the routeSelection
-              startStationSelection = station;
-              startStationMenu.setText(station);
-            });
-        routeMenu.getItems().add(thisOption);
-        startStationOptions.add(thisOption);
-      }
-      startStationMenu.getItems().add(routeMenu);
-    }
-  }
-
-  /**
-   * Helper function for PrintStation. It add all the stations to startStationMenu.
-   *
-   * @param type the type of the transportation
-   * @param routeMap the route map of the corresponding transportation
-   */
-  private void printEndRouteStation(String type, HashMap<String, String[]> routeMap) {
-    for (String route : routeMap.keySet()) {
-      Menu routeMenu = new Menu();
-      routeMenu.setText(route + "(" + type + ")");
-      for (String station : routeMap.get(route)) {
-        CheckMenuItem thisOption = new CheckMenuItem(station);
-        thisOption.setOnAction(
-            event -> {
-              thisOption.setSelected(true);
-              // Set every other option to unchecked except for this one
-              endStationOptions
-                  .stream()
-                  .filter(x -> x != thisOption)
-                  .forEach(x -> x.setSelected(false));
-              // Store the selection in the routeSelection
-              endStationSelection = station;
-              endStationMenu.setText(station);
-            });
-        routeMenu.getItems().add(thisOption);
-        endStationOptions.add(thisOption);
-      }
-      endStationMenu.getItems().add(routeMenu);
+    if (startStations == null) {
+      startStations =
+          new StationMenu(
+              startStationMenu,
+              startStationSearch,
+              false,
+              (route, station) -> startStationSelection = station);
+      endStations =
+          new StationMenu(
+              endStationMenu,
+              endStationSearch,
+              false,
+              (route, station) -> endStationSelection = station);
     }
+    startStations.refresh();
+    endStations.refresh();
   }
 }
@@ -0,0 +1,140 @@
+package GUI;
+
+import TransitSystemClasses.BusSubTrip;
+import TransitSystemClasses.RouteFinder;
+import TransitSystemClasses.StationIndex;
+import TransitSystemClasses.SubwaySubTrip;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.Menu;
+import javafx.scene.control.MenuButton;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextField;
+
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A MenuButton to select a station with, and a TextField to search the stations from. The menu
+ * lists the routes, and the stations of a route are only added when its menu is first opened.
+ * While something is typed in the search field, the menu lists the stations found instead.
+ */
+class StationMenu {
+  // The most stations found to list
+  private static final int MATCHES = 20;
+
+  private final MenuButton menu;
+  private final TextField search;
+  // Whether a station is selected on a route, or only the station is selected
+  private final boolean withRoute;
+  // Called with the route and the station selected, the route is null unless withRoute
+  private final BiConsumer<String, String> onSelect;
+  private CheckMenuItem selected;
+
+  /**
+   * Creates the menu of menu, searched from search.
+   *
+   * @param withRoute whether a station is selected on one of its routes
+   * @param onSelect  called with the route and the station selected
+   */
+  StationMenu(
+          MenuButton menu,
+          TextField search,
+          boolean withRoute,
+          BiConsumer<String, String> onSelect) {
+    this.menu = menu;
+    this.search = search;
+    this.withRoute = withRoute;
+    this.onSelect = onSelect;
+    search.textProperty().addListener((observable, oldText, newText) -> showMatches(newText));
+    // Enter selects the closest station found
+    search.setOnAction(
+            event -> {
+              if (!menu.getItems().isEmpty() && menu.getItems().get(0) instanceof CheckMenuItem) {
+                menu.getItems().get(0).fire();
+              }
+            });
+  }
+
+  /**
+   * Clears the search and lists the routes of the current network.
+   */
+  void refresh() {
+    selected = null;
+    if (search.getText().isEmpty()) {
+      printRoutes();
+    } else {
+      // Listing the routes again is left to the listener of the search field
+      search.clear();
+    }
+  }
+
+  private void printRoutes() {
+    menu.getItems().clear();
+    printRoutes("Subway", SubwaySubTrip.getSubwayRoutes());
+    printRoutes("Bus", BusSubTrip.getBusRoutes());
+  }
+
+  private void printRoutes(String type, HashMap<String, String[]> routeMap) {
+    for (String route : routeMap.keySet()) {
+      Menu routeMenu = new Menu(route + "(" + type + ")");
+      // A menu without items can't be opened, so it has one until its stations are added
+      MenuItem placeholder = new MenuItem("Loading...");
+      routeMenu.getItems().add(placeholder);
+      routeMenu.setOnShowing(
+              event -> {
+                if (routeMenu.getItems().get(0) == placeholder) {
+                  routeMenu.getItems().clear();
+                  for (String station : routeMap.get(route)) {
+                    routeMenu.getItems().add(option(route, station, station));
+                  }
+                }
+              });
+      menu.getItems().add(routeMenu);
+    }
+  }
+
+  /**
+   * Lists the stations found for text, or the routes if nothing is typed.
+   */
+  private void showMatches(String text) {
+    if (text.trim().isEmpty()) {
+      printRoutes();
+      return;
+    }
+    menu.getItems().clear();
+    StationIndex index = RouteFinder.getStationIndex();
+    for (String station : index.search(text, MATCHES)) {
+      if (withRoute) {
+        for (String route : index.getRoutes(station)) {
+          menu.getItems().add(option(route, station, station + " (" + route + ")"));
+        }
+      } else {
+        menu.getItems().add(option(null, station, station));
+      }
+    }
+    if (menu.getItems().isEmpty()) {
+      MenuItem none = new MenuItem("No station found");
+      none.setDisable(true);
+      menu.getItems().add(none);
+    }
+  }
+
+  /**
+   * Returns the item that selects station on route.
+   */
+  private CheckMenuItem option(String route, String station, String text) {
+    CheckMenuItem thisOption = new CheckMenuItem(text);
+    thisOption.setOnAction(
+            event -> {
+              // Only the option selected before has to be unchecked
+              if (selected != null && selected != thisOption) {
+                selected.setSelected(false);
+              }
+              thisOption.setSelected(true);
+              selected = thisOption;
+              menu.setText(station);
+              onSelect.accept(route, station);
+            });
+    return thisOption;
+  }
+}
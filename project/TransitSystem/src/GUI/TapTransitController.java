@@ -1,14 +1,10 @@
 package GUI;
 
-import TransitSystemClasses.BusSubTrip;
-import TransitSystemClasses.SubwaySubTrip;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.layout.Region;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.HashMap;
 
 public class TapTransitController {
 
@@ -16,7 +12,9 @@ public class TapTransitController {
   TextField cardNum;
   @FXML
   MenuButton stationMenu;
-  private ArrayList<CheckMenuItem> stationOptions = new ArrayList<>();
+  @FXML
+  TextField stationSearch;
+  private StationMenu stations;
   private String[] routeSelection; // In the form of [routeName, stationName]
 
   /**
@@ -112,41 +110,14 @@ public class TapTransitController {
    * Print stations to the route selection MenuButton
    */
   private void printStation() {
-    HashMap<String, String[]> allSubwayRoutes = SubwaySubTrip.getSubwayRoutes();
-    HashMap<String, String[]> allBusRoutes = BusSubTrip.getBusRoutes();
-    stationMenu.getItems().clear();
-    printRouteStation("Subway", allSubwayRoutes);
-    printRouteStation("Bus", allBusRoutes);
-  }
-
-  /**
-   * Helper function for PrintStation. It add all the stations to stationMenu.
-   *
-   * @param type     the type of the transportation
-   * @param routeMap the route map of the corresponding transportation
-   */
-  private void printRouteStation(String type, HashMap<String, String[]> routeMap) {
-    for (String route : routeMap.keySet()) {
-      Menu routeMenu = new Menu();
-      routeMenu.setText(route + "(" + type + ")");
-      for (String station : routeMap.get(route)) {
-        CheckMenuItem thisOption = new CheckMenuItem(station);
-        thisOption.setOnAction(
-                event -> {
-                  thisOption.setSelected(true);
-                  // Set every other option to unchecked except for this one
-                  stationOptions
-                          .stream()
-                          .filter(x -> x != thisOption)
-                          .forEach(x -> x.setSelected(false));
-                  // Store the selection in the routeSelection
-                  routeSelection = new String[]{route, station};
-                  stationMenu.setText(station);
-                });
-        routeMenu.getItems().add(thisOption);
-        stationOptions.add(thisOption);
-      }
-      stationMenu.getItems().add(routeMenu);
+    if (stations == null) {
+      stations =
+              new StationMenu(
+                      stationMenu,
+                      stationSearch,
+                      true,
+                      (route, station) -> routeSelection = new String[]{route, station});
     }
+    stations.refresh();
   }
 }
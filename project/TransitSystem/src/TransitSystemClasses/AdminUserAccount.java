@@ -11,6 +11,7 @@ import java.util.logging.*;
  * An AdminUserAccount has access to all the statistical data of the whole transit system.
  */
 public class AdminUserAccount implements Serializable {
+  private static final long serialVersionUID = -1890410448305338920L;
 
   // A default AdminUser
   private static AdminUserAccount defaultAdmin =
@@ -35,6 +36,14 @@ public class AdminUserAccount implements Serializable {
     this.accountHolder = accountHolder;
   }
 
+  static AdminUserAccount decode(BinaryCodec.Reader in) throws IOException {
+    return new AdminUserAccount(new User(in));
+  }
+
+  void encode(BinaryCodec.Writer out) throws IOException {
+    accountHolder.encode(out);
+  }
+
   /**
    * Login into a account
    *
@@ -84,7 +93,13 @@ public class AdminUserAccount implements Serializable {
    */
   public void handelChangePassword(String oldPassword, String newPassword) throws ChangePasswordException {
     if (accountHolder.verifyLogin(oldPassword)) {
-      accountHolder.setPassword(newPassword);
+      Journal.begin();
+      try {
+        accountHolder.setPassword(newPassword);
+        Journal.adminPassword(accountHolder.getPasswordHash());
+      } finally {
+        Journal.end();
+      }
       logger.log(Level.INFO, String.format("AdminUser %s change password successfully.", accountHolder.getEmail()));
       return;
     }
@@ -97,7 +112,20 @@ public class AdminUserAccount implements Serializable {
    */
   public void handleChangePrice(Fares fareToChange, double newValue){
     logger.log(Level.INFO, String.format("AdminUser change %s price from %.2f to %.2f", fareToChange.name(), fareToChange.getFare(), newValue));
-    fareToChange.setFare(newValue);
+    Journal.begin();
+    try {
+      Journal.fareChange(fareToChange.name(), newValue);
+      fareToChange.setFare(newValue);
+    } finally {
+      Journal.end();
+    }
+  }
+
+  /**
+   * Sets the SHA256 value of the password of this admin directly, used when replaying the journal.
+   */
+  void restorePasswordHash(String password) {
+    accountHolder.restorePasswordHash(password);
   }
 
   private User getAccountHolder() {
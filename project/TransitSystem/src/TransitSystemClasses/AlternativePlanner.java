@@ -0,0 +1,268 @@
+package TransitSystemClasses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the shortest paths between two stations of a TransitGraph that don't pass a station twice,
+ * in order of their number of stops (Yen's algorithm). Every path after the first leaves one of
+ * the paths before it at some station, its spur, and takes the shortest way from there to the end
+ * that avoids the stations before the spur and the ways the paths already found leave the spur.
+ *
+ * <p>The shortest way from every station to the end is found once, by a breadth-first search back
+ * from the end. It is taken as the way from a spur when it avoids what has to be avoided, and
+ * otherwise guides an A* search from the spur, since avoiding stations only makes the ways longer.
+ */
+class AlternativePlanner {
+  private static final int UNREACHABLE = -1;
+
+  private final TransitGraph graph;
+  // The number of stops from every station to the end, and the next station and the route to it
+  // on a shortest way there
+  private int[] distance;
+  private int[] next;
+  private int[] nextRoute;
+  // The stations a spur search avoids are the ones whose mark is the number of the search
+  private int[] blocked;
+  private int[] blockedFirst;
+  private int search;
+  // The work arrays of the spur searches, a station is reached in a search if its mark is the
+  // number of the search
+  private int[] reached;
+  private int[] stops;
+  private int[] parent;
+  private int[] parentRoute;
+  private IntHeap queue;
+
+  AlternativePlanner(TransitGraph graph) {
+    this.graph = graph;
+  }
+
+  /**
+   * Returns up to k of the shortest paths from the station from to the station to that don't pass
+   * a station twice, from the shortest. Returns an empty list if there is no path.
+   */
+  List<RoutePlan> shortest(int from, int to, int k) {
+    searchBack(to);
+    ArrayList<RoutePlan> plans = new ArrayList<>();
+    if (distance[from] == UNREACHABLE) {
+      return plans;
+    }
+    int size = graph.size();
+    blocked = new int[size];
+    blockedFirst = new int[size];
+    reached = new int[size];
+    stops = new int[size];
+    parent = new int[size];
+    parentRoute = new int[size];
+    queue = new IntHeap(size);
+    ArrayList<Path> found = new ArrayList<>();
+    PriorityQueue<Path> candidates = new PriorityQueue<>();
+    HashSet<Path> seen = new HashSet<>();
+    Path first = wayFrom(from);
+    found.add(first);
+    seen.add(first);
+    while (found.size() < k) {
+      Path last = found.get(found.size() - 1);
+      for (int j = 0; j < last.stations.length - 1; j++) {
+        search++;
+        for (int i = 0; i < j; i++) {
+          blocked[last.stations[i]] = search;
+        }
+        // The paths with the same stations up to the spur can't leave it the same way again
+        for (Path path : found) {
+          if (path.stations.length > j + 1 && path.sameStart(last, j)) {
+            blockedFirst[path.stations[j + 1]] = search;
+          }
+        }
+        Path spur = spurPath(last.stations[j]);
+        if (spur != null) {
+          Path candidate = last.start(j).join(spur);
+          if (seen.add(candidate)) {
+            candidates.add(candidate);
+          }
+        }
+      }
+      if (candidates.isEmpty()) {
+        break;
+      }
+      found.add(candidates.poll());
+    }
+    for (Path path : found) {
+      plans.add(path.plan());
+    }
+    return plans;
+  }
+
+  /**
+   * Finds the number of stops from every station to the station to, and the shortest way there.
+   */
+  private void searchBack(int to) {
+    int size = graph.size();
+    distance = new int[size];
+    next = new int[size];
+    nextRoute = new int[size];
+    Arrays.fill(distance, UNREACHABLE);
+    int[] queue = new int[size];
+    int head = 0;
+    int tail = 0;
+    distance[to] = 0;
+    next[to] = -1;
+    queue[tail++] = to;
+    while (head < tail) {
+      int station = queue[head++];
+      for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+        int previous = graph.target(edge);
+        if (distance[previous] == UNREACHABLE) {
+          distance[previous] = distance[station] + 1;
+          next[previous] = station;
+          nextRoute[previous] = graph.route(edge);
+          queue[tail++] = previous;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the shortest way from station spur to the end that avoids the blocked stations and
+   * doesn't go on to a station blocked first, or null if there is none.
+   */
+  private Path spurPath(int spur) {
+    // The shortest way from the spur with nothing avoided is the shortest way if it avoids them
+    boolean clear = next[spur] >= 0 && blockedFirst[next[spur]] != search;
+    for (int station = next[spur]; clear && station >= 0; station = next[station]) {
+      clear = blocked[station] != search;
+    }
+    if (clear) {
+      return wayFrom(spur);
+    }
+
+    queue.clear();
+    reached[spur] = search;
+    stops[spur] = 0;
+    parent[spur] = -1;
+    queue.offer(spur, distance[spur]);
+    while (!queue.isEmpty()) {
+      int station = queue.poll();
+      if (distance[station] == 0) {
+        ArrayList<Integer> way = new ArrayList<>();
+        ArrayList<Integer> routes = new ArrayList<>();
+        for (int s = station; s >= 0; s = parent[s]) {
+          way.add(0, s);
+          if (parent[s] >= 0) {
+            routes.add(0, parentRoute[s]);
+          }
+        }
+        return new Path(toArray(way), toArray(routes));
+      }
+      for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+        int target = graph.target(edge);
+        if (blocked[target] == search
+                || target == spur
+                || distance[target] == UNREACHABLE
+                || (station == spur && blockedFirst[target] == search)
+                || (reached[target] == search && stops[station] + 1 >= stops[target])) {
+          continue;
+        }
+        reached[target] = search;
+        stops[target] = stops[station] + 1;
+        parent[target] = station;
+        parentRoute[target] = graph.route(edge);
+        queue.offer(target, stops[target] + distance[target]);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the shortest way from a station to the end found by searchBack.
+   */
+  private Path wayFrom(int station) {
+    int[] stations = new int[distance[station] + 1];
+    int[] routes = new int[distance[station]];
+    stations[0] = station;
+    for (int i = 0; i < routes.length; i++) {
+      routes[i] = nextRoute[stations[i]];
+      stations[i + 1] = next[stations[i]];
+    }
+    return new Path(stations, routes);
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  /**
+   * A path through the graph, the stations on it and the route from every station to the next.
+   * Paths are ordered by their number of stops and are equal if they pass the same stations.
+   */
+  private class Path implements Comparable<Path> {
+    private final int[] stations;
+    private final int[] routes;
+
+    private Path(int[] stations, int[] routes) {
+      this.stations = stations;
+      this.routes = routes;
+    }
+
+    /**
+     * Returns whether this path and other pass the same stations up to index j.
+     */
+    private boolean sameStart(Path other, int j) {
+      return Arrays.equals(stations, 0, j + 1, other.stations, 0, j + 1);
+    }
+
+    /**
+     * Returns the part of this path up to the station with index j.
+     */
+    private Path start(int j) {
+      return new Path(Arrays.copyOf(stations, j + 1), Arrays.copyOf(routes, j));
+    }
+
+    /**
+     * Returns this path followed by other, which starts at the station this path ends at.
+     */
+    private Path join(Path other) {
+      int[] joinedStations = Arrays.copyOf(stations, stations.length + other.routes.length);
+      System.arraycopy(
+              other.stations, 1, joinedStations, stations.length, other.routes.length);
+      int[] joinedRoutes = Arrays.copyOf(routes, routes.length + other.routes.length);
+      System.arraycopy(other.routes, 0, joinedRoutes, routes.length, other.routes.length);
+      return new Path(joinedStations, joinedRoutes);
+    }
+
+    private RoutePlan plan() {
+      ArrayList<String> stationNames = new ArrayList<>(stations.length);
+      ArrayList<String> routeNames = new ArrayList<>(routes.length);
+      for (int station : stations) {
+        stationNames.add(graph.name(station));
+      }
+      for (int route : routes) {
+        routeNames.add(graph.routeName(route));
+      }
+      return new RoutePlan(stationNames, routeNames);
+    }
+
+    @Override
+    public int compareTo(Path other) {
+      return Integer.compare(routes.length, other.routes.length);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Path && Arrays.equals(stations, ((Path) other).stations);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(stations);
+    }
+  }
+}
@@ -0,0 +1,401 @@
+package TransitSystemClasses;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A compact binary encoding of the transit system data, used for snapshots and deltas instead of
+ * Java serialization. Integers and times are written as variable length integers, and strings that
+ * repeat across records (station names, route names, pass types) are written once into a dictionary
+ * and referred to by index.
+ *
+ * <p>An encoded file starts with a magic number and a format version, followed by the dictionary
+ * and then the records. Parts of a record can be written as blocks prefixed by their length, so a
+ * reader can skip them and read them later straight from the file.
+ */
+class BinaryCodec {
+
+  static final int MAGIC = 0x54534E50;
+  static final int VERSION = 1;
+
+  /**
+   * Returns whether the file starts with the header of this codec.
+   */
+  static boolean isEncoded(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      return in.readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Collects the records in memory so that the dictionary can be written in front of them.
+   */
+  static class Writer {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+    private DataOutputStream body = new DataOutputStream(bytes);
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final ArrayList<String> dictionary = new ArrayList<>();
+    // The last time written, times are written as the difference to it.
+    private long lastSecond;
+
+    /**
+     * Writes the header, the dictionary and the records to out.
+     */
+    void writeTo(OutputStream out) throws IOException {
+      DataOutputStream data = new DataOutputStream(out);
+      data.writeInt(MAGIC);
+      writeVarLong(data, VERSION);
+      writeVarLong(data, dictionary.size());
+      for (String word : dictionary) {
+        data.writeUTF(word);
+      }
+      bytes.writeTo(data);
+      data.flush();
+    }
+
+    void writeVarInt(int value) throws IOException {
+      writeVarLong(body, value);
+    }
+
+    void writeVarLong(long value) throws IOException {
+      writeVarLong(body, value);
+    }
+
+    /**
+     * Writes a signed value as a variable length integer, small magnitudes take a single byte.
+     */
+    void writeSignedVarLong(long value) throws IOException {
+      writeVarLong(body, (value << 1) ^ (value >> 63));
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        out.writeByte((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      out.writeByte((int) value);
+    }
+
+    void writeBoolean(boolean value) throws IOException {
+      body.writeBoolean(value);
+    }
+
+    void writeDouble(double value) throws IOException {
+      body.writeDouble(value);
+    }
+
+    /**
+     * Writes a string that is unlikely to repeat, such as a card number or an email.
+     */
+    void writeText(String value) throws IOException {
+      body.writeBoolean(value != null);
+      if (value != null) {
+        body.writeUTF(value);
+      }
+    }
+
+    /**
+     * Writes a string that is likely to repeat as an index into the dictionary.
+     */
+    void writeWord(String value) throws IOException {
+      if (value == null) {
+        writeVarInt(0);
+        return;
+      }
+      Integer id = ids.get(value);
+      if (id == null) {
+        dictionary.add(value);
+        id = dictionary.size();
+        ids.put(value, id);
+      }
+      writeVarInt(id);
+    }
+
+    /**
+     * Writes a nullable time as the seconds since the previously written time and the nanos.
+     */
+    void writeTime(LocalDateTime time) throws IOException {
+      body.writeBoolean(time != null);
+      if (time != null) {
+        long second = time.toEpochSecond(ZoneOffset.UTC);
+        writeSignedVarLong(second - lastSecond);
+        writeVarInt(time.getNano());
+        lastSecond = second;
+      }
+    }
+
+    void writeDate(LocalDate date) throws IOException {
+      writeSignedVarLong(date.toEpochDay());
+    }
+
+    /**
+     * Writes whatever content writes as a block that a Reader can skip without decoding it. Times
+     * in the block do not depend on the times written before it.
+     */
+    void writeBlock(Content content) throws IOException {
+      DataOutputStream outer = body;
+      long outerSecond = lastSecond;
+      ByteArrayOutputStream block = new ByteArrayOutputStream();
+      body = new DataOutputStream(block);
+      lastSecond = 0;
+      try {
+        content.writeTo(this);
+      } finally {
+        body = outer;
+        lastSecond = outerSecond;
+      }
+      writeVarInt(block.size());
+      block.writeTo(body);
+    }
+  }
+
+  /**
+   * The content of a block.
+   */
+  interface Content {
+    void writeTo(Writer out) throws IOException;
+  }
+
+  /**
+   * Reads the content of a block.
+   */
+  interface Decoder<T> {
+    T readFrom(Reader in) throws IOException;
+  }
+
+  /**
+   * Where the blocks skipped by a Reader are read from later. A FileChannel can be used as one.
+   */
+  interface Source {
+    /**
+     * Reads bytes from the given position into dst, and returns how many were read or -1 at the
+     * end.
+     */
+    int read(ByteBuffer dst, long position) throws IOException;
+  }
+
+  /**
+   * A block that was skipped by a Reader, it can be read later from the file it is in. The file may
+   * be renamed or replaced in the meantime, the block stays readable until the file is closed.
+   */
+  static class Block {
+    private final Source file;
+    private final String[] dictionary;
+    private final long position;
+    private final int length;
+
+    private Block(Source file, String[] dictionary, long position, int length) {
+      this.file = file;
+      this.dictionary = dictionary;
+      this.position = position;
+      this.length = length;
+    }
+
+    /**
+     * Returns a Reader of the content of this block.
+     */
+    Reader open() throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(length);
+      while (buffer.hasRemaining()) {
+        if (file.read(buffer, position + buffer.position()) < 0) {
+          throw new EOFException("The block is past the end of the file.");
+        }
+      }
+      return new Reader(new ByteArrayInputStream(buffer.array()), dictionary);
+    }
+  }
+
+  /**
+   * Reads records written by a Writer.
+   */
+  static class Reader {
+    private final DataInputStream body;
+    private final String[] dictionary;
+    // The file being read, null if blocks can not be skipped
+    private final Source file;
+    // The number of bytes read from the start of the file
+    private long position;
+    private long lastSecond;
+
+    /**
+     * Reads the header and the dictionary from in, leaving in at the first record.
+     *
+     * @throws IOException if in was not written by this codec or by a newer version of it
+     */
+    Reader(InputStream in) throws IOException {
+      this(in, (Source) null);
+    }
+
+    /**
+     * Reads the header and the dictionary from in, leaving in at the first record. Blocks can be
+     * skipped and read later from file, which must be the file in reads from its start.
+     *
+     * @throws IOException if in was not written by this codec or by a newer version of it
+     */
+    Reader(InputStream in, Source file) throws IOException {
+      this(in, file, 0);
+    }
+
+    /**
+     * Reads the header and the dictionary from in, leaving in at the first record. Blocks can be
+     * skipped and read later from file, which must be the file in reads from the given position.
+     *
+     * @throws IOException if in was not written by this codec or by a newer version of it
+     */
+    Reader(InputStream in, Source file, long start) throws IOException {
+      this.file = file;
+      this.position = start;
+      body = new DataInputStream(new Counter(in));
+      if (body.readInt() != MAGIC) {
+        throw new IOException("Not a transit system snapshot.");
+      }
+      long version = readVarLong(body);
+      if (version > VERSION) {
+        throw new IOException("Unsupported snapshot version " + version);
+      }
+      dictionary = new String[(int) readVarLong(body) + 1];
+      for (int i = 1; i < dictionary.length; i++) {
+        dictionary[i] = body.readUTF();
+      }
+    }
+
+    private Reader(InputStream in, String[] dictionary) {
+      this.file = null;
+      this.body = new DataInputStream(in);
+      this.dictionary = dictionary;
+    }
+
+    /**
+     * Returns whether blocks can be skipped and read later.
+     */
+    boolean canSkipBlocks() {
+      return file != null;
+    }
+
+    /**
+     * Skips the next block and returns it.
+     */
+    Block skipBlock() throws IOException {
+      int length = readVarInt();
+      Block block = new Block(file, dictionary, position, length);
+      body.skipNBytes(length);
+      return block;
+    }
+
+    /**
+     * Reads the content of the next block in place.
+     */
+    <T> T readBlock(Decoder<T> content) throws IOException {
+      readVarInt();
+      long outerSecond = lastSecond;
+      lastSecond = 0;
+      try {
+        return content.readFrom(this);
+      } finally {
+        lastSecond = outerSecond;
+      }
+    }
+
+    int readVarInt() throws IOException {
+      return (int) readVarLong(body);
+    }
+
+    long readVarLong() throws IOException {
+      return readVarLong(body);
+    }
+
+    long readSignedVarLong() throws IOException {
+      long value = readVarLong(body);
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+      long value = 0;
+      int shift = 0;
+      int b;
+      do {
+        if (shift > 63) {
+          throw new IOException("Malformed variable length integer.");
+        }
+        b = in.readUnsignedByte();
+        value |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return value;
+    }
+
+    boolean readBoolean() throws IOException {
+      return body.readBoolean();
+    }
+
+    double readDouble() throws IOException {
+      return body.readDouble();
+    }
+
+    String readText() throws IOException {
+      return body.readBoolean() ? body.readUTF() : null;
+    }
+
+    String readWord() throws IOException {
+      int id = readVarInt();
+      if (id < 0 || id >= dictionary.length) {
+        throw new IOException("Malformed dictionary reference.");
+      }
+      return dictionary[id];
+    }
+
+    LocalDateTime readTime() throws IOException {
+      if (!body.readBoolean()) {
+        return null;
+      }
+      long second = lastSecond + readSignedVarLong();
+      lastSecond = second;
+      return LocalDateTime.ofEpochSecond(second, readVarInt(), ZoneOffset.UTC);
+    }
+
+    LocalDate readDate() throws IOException {
+      return LocalDate.ofEpochDay(readSignedVarLong());
+    }
+
+    /**
+     * Counts the bytes read so the position of a skipped block is known.
+     */
+    private class Counter extends FilterInputStream {
+      Counter(InputStream in) {
+        super(in);
+      }
+
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+          position++;
+        }
+        return b;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+          position += n;
+        }
+        return n;
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        position += skipped;
+        return skipped;
+      }
+    }
+  }
+}
@@ -7,8 +7,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 
 public class BusSubTrip extends SubTrip {
+  private static final long serialVersionUID = -2350194562739136472L;
 
-  private static final float FARE_PER_TRIP = (float) Fares.busFare.getFare();
   private static HashMap<String, String[]> busRoutes = new HashMap<>();
 
   BusSubTrip(LocalDateTime timeStart, String startPoint, String route) {
@@ -21,11 +21,42 @@ public class BusSubTrip extends SubTrip {
 
   public static void setBusRoutes(HashMap<String, String[]> busRoutes) {
     BusSubTrip.busRoutes = busRoutes;
+    RouteFinder.routesChanged();
+  }
+
+  /**
+   * Adds the bus route name with the given stations, replacing the route with that name if there
+   * is one. Routes are changed between checkpoints, which save them to Stations.txt.
+   */
+  public static void putBusRoute(String name, String[] stations) {
+    Journal.begin();
+    try {
+      busRoutes.put(name, stations);
+    } finally {
+      Journal.end();
+    }
+    RouteFinder.routesChanged();
+  }
+
+  /**
+   * Removes the bus route name and returns its stations, or null if there is no such route.
+   */
+  public static String[] removeBusRoute(String name) {
+    String[] stations;
+    Journal.begin();
+    try {
+      stations = busRoutes.remove(name);
+    } finally {
+      Journal.end();
+    }
+    RouteFinder.routesChanged();
+    return stations;
   }
 
   @Override
   float calculateFare() {
-    return FARE_PER_TRIP;
+    // A bus trip is paid when it starts, so it doesn't depend on the stops passed
+    return FarePolicy.current().baseFare(this, 0);
   }
 
   @Override
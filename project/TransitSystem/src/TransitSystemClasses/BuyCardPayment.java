@@ -1,15 +1,25 @@
 package TransitSystemClasses;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
-import java.util.logging.Level;
 
 public class BuyCardPayment extends Payment {
+  private static final long serialVersionUID = -6060746462396302621L;
+  // Written with Java serialization with the account itself, as earlier versions did
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("account", TransitUserAccount.class),
+    new ObjectStreamField("cardNumber", String.class)
+  };
 
   // All buy card records.
   private static ArrayList<BuyCardPayment> acceptedBuyCardPayment;
   private String cardNumber;
-  // The account that is buying card.
-  private TransitUserAccount account;
+  // The account that is buying card, looked up again by email after loading.
+  private transient TransitUserAccount account;
+  private String email;
 
   /**
    * Creates a new BuyCardPayment for the given TransitUserAccount account with the given credit
@@ -23,8 +33,36 @@ public class BuyCardPayment extends Payment {
             cvv,
             creditCardNumber);
     this.account = account;
-    logger.log(
-            Level.INFO, "The following payment is created" + System.lineSeparator() + this.toString());
+    this.email = account.getAccountHolder().getEmail();
+    journalCreation(email, null);
+    EventLog.message(
+            logger, "The following payment is created" + System.lineSeparator() + this.toString());
+  }
+
+  BuyCardPayment(BinaryCodec.Reader in) throws IOException {
+    super(in);
+    this.email = in.readText();
+    this.cardNumber = in.readText();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    account = (TransitUserAccount) fields.get("account", null);
+    cardNumber = (String) fields.get("cardNumber", null);
+    email = account.getAccountHolder().getEmail();
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("account", account);
+    fields.put("cardNumber", cardNumber);
+    out.writeFields();
+  }
+
+  @Override
+  void encodeDetails(BinaryCodec.Writer out) throws IOException {
+    out.writeText(email);
+    out.writeText(cardNumber);
   }
 
   public static void setAcceptedBuyCardPayment(ArrayList<BuyCardPayment> payment) {
@@ -37,6 +75,22 @@ public class BuyCardPayment extends Payment {
     acceptedBuyCardPayment.add(this);
   }
 
+  @Override
+  void restoreConfirm(String cardNumber) {
+    this.cardNumber = cardNumber;
+    acceptedBuyCardPayment.add(this);
+  }
+
+  @Override
+  String getCardNumber() {
+    return cardNumber;
+  }
+
+  @Override
+  void relink(StoredData data) {
+    this.account = data.accounts.get(email);
+  }
+
   // No additional operation is needed when rejecting a payment.
   @Override
   public void reject() {
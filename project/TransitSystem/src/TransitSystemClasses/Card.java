@@ -3,9 +3,16 @@ package TransitSystemClasses;
 import TransitSystemExceptions.*;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.*;
 import java.util.logging.*;
 import java.util.stream.Collectors;
@@ -15,21 +22,28 @@ import java.util.stream.Collectors;
  */
 public class Card implements Serializable {
 
+  private static final long serialVersionUID = -7987190134355560185L;
+  // Cards are written with Java serialization as they were before their history was kept apart,
+  // so that the snapshots of earlier versions can still be read
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("cardHolderEmail", String.class),
+    new ObjectStreamField("cardNumber", String.class),
+    new ObjectStreamField("balance", double.class),
+    new ObjectStreamField("activated", boolean.class),
+    new ObjectStreamField("currentTrip", Trip.class),
+    new ObjectStreamField("FINE", double.class),
+    new ObjectStreamField("transactions", Map.class),
+    new ObjectStreamField("passTransactions", Map.class),
+    new ObjectStreamField("trips", ArrayList.class),
+    new ObjectStreamField("transitPasses", ArrayList.class)
+  };
   private static final Logger logger = Logger.getLogger(Card.class.getName());
   // All cards in this transit system
   private static HashMap<String, Card> allCard;
 
   // Initializes the logger for card activities
   static {
-    logger.setUseParentHandlers(false);
-    try {
-      Handler fileHandler = new FileHandler("log.txt", true);
-      logger.addHandler(fileHandler);
-      SimpleFormatter formatter = new SimpleFormatter();
-      fileHandler.setFormatter(formatter);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    EventLog.open(logger, "log.txt");
   }
 
   private final String cardHolderEmail;
@@ -37,17 +51,95 @@ public class Card implements Serializable {
   private double balance;
   private boolean activated;
 
-  private Trip currentTrip = null;
-  // The fine for abnormal use of this card.
-  private final double FINE = Fares.FINE.getFare();
-  // All the transactions when tap in/out
-  private final Map<LocalDateTime, Double> transactions = new TreeMap<>();
-  // The transactions when loading transit pass to this card
-  private final Map<LocalDateTime, Double> passTransactions = new TreeMap<>();
-  // All trips recorded on this card
-  private ArrayList<Trip> trips = new ArrayList<>();
-  // All transit passes on this card
-  private ArrayList<TransitPass> transitPasses = new ArrayList<>();
+  // The history of this card while it is held in memory, null while it may be paged out
+  private History history = new History();
+  // Where the history can be paged in from, null if it only exists in memory
+  private transient BinaryCodec.Block historyBlock;
+  // The history after it was paged in, cleared by the garbage collector under memory pressure
+  private transient SoftReference<History> pagedHistory;
+  // The modification version of the last change to this card, see Journal.touch
+  private transient long version;
+  // The amounts paid with this card on spentDay and in its week, for the daily and weekly caps.
+  // spentDay is null until a cap needs them.
+  private transient LocalDate spentDay;
+  private transient double spentToday;
+  private transient double spentThisWeek;
+  // The card read by readObject, which replaces this one
+  private transient Card resolved;
+  // The amounts charged by the tap being made, recorded in the journal with it. While a tap is
+  // replayed, the amounts it charged when it was made, which payFare charges again.
+  private transient ArrayList<Double> tapCharges;
+  private transient ArrayDeque<Double> recordedCharges;
+
+  /**
+   * The trips, transactions and passes of a card. Only the number, the owner, the balance and the
+   * status of a card are loaded at startup, its history is paged in when it is first used.
+   */
+  private static class History implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Trip currentTrip = null;
+    // All the transactions when tap in/out
+    private final Ledger transactions = new Ledger();
+    // The transactions when loading transit pass to this card
+    private final Ledger passTransactions = new Ledger();
+    // All trips recorded on this card
+    private final ArrayList<Trip> trips = new ArrayList<>();
+    // All transit passes on this card
+    private final PassSchedule transitPasses = new PassSchedule();
+
+    private History() {
+    }
+
+    private History(BinaryCodec.Reader in) throws IOException {
+      decodeTransactions(in, transactions);
+      decodeTransactions(in, passTransactions);
+      int passCount = in.readVarInt();
+      for (int i = 0; i < passCount; i++) {
+        transitPasses.add(TransitPass.decode(in));
+      }
+      int tripCount = in.readVarInt();
+      trips.ensureCapacity(tripCount);
+      for (int i = 0; i < tripCount; i++) {
+        trips.add(Trip.decode(in));
+      }
+      int current = in.readVarInt();
+      this.currentTrip = current == 0 ? null : trips.get(current - 1);
+      removeBefore(retentionStart());
+    }
+
+    /**
+     * Removes the transactions of the months before the given month, and the trips that started
+     * before it. Returns the number of transactions and trips removed.
+     */
+    private int removeBefore(YearMonth month) {
+      int removed = transactions.dropBefore(month) + passTransactions.dropBefore(month);
+      // Trips are in the order they started, so the expired ones are at the front
+      int expiredTrips = 0;
+      while (expiredTrips < trips.size()
+              && trips.get(expiredTrips) != currentTrip
+              && YearMonth.from(trips.get(expiredTrips).getStart().getTimeStart()).isBefore(month)) {
+        expiredTrips++;
+      }
+      trips.subList(0, expiredTrips).clear();
+      return removed + expiredTrips;
+    }
+
+    private void encode(BinaryCodec.Writer out) throws IOException {
+      encodeTransactions(out, transactions);
+      encodeTransactions(out, passTransactions);
+      out.writeVarInt(transitPasses.size());
+      for (TransitPass pass : transitPasses) {
+        pass.encode(out);
+      }
+      out.writeVarInt(trips.size());
+      for (Trip trip : trips) {
+        trip.encode(out);
+      }
+      // The current trip is always one of the trips, usually the last one
+      out.writeVarInt(currentTrip == null ? 0 : trips.lastIndexOf(currentTrip) + 1);
+    }
+  }
 
   /**
    * Constructs a new Card that has an owner of this Card called cardHolder and a unique ID called
@@ -61,9 +153,44 @@ public class Card implements Serializable {
     this.cardNumber = cardNumber;
     this.balance = 19;
     this.activated = true;
+    this.version = Journal.nextVersion();
     allCard.put(this.cardNumber, this);
   }
 
+  /**
+   * Reads a card written by encode. The history of the card is skipped if in can read it later.
+   *
+   * @param in the reader positioned at the card
+   */
+  private Card(BinaryCodec.Reader in) throws IOException {
+    this.cardNumber = in.readText();
+    this.cardHolderEmail = in.readText();
+    this.balance = in.readDouble();
+    this.activated = in.readBoolean();
+    if (in.canSkipBlocks()) {
+      this.history = null;
+      this.historyBlock = in.skipBlock();
+    } else {
+      this.history = in.readBlock(History::new);
+    }
+  }
+
+  /**
+   * Constructs a card with the given fields and history, without registering it in the system.
+   */
+  private Card(
+          String cardHolderEmail,
+          String cardNumber,
+          double balance,
+          boolean activated,
+          History history) {
+    this.cardHolderEmail = cardHolderEmail;
+    this.cardNumber = cardNumber;
+    this.balance = balance;
+    this.activated = activated;
+    this.history = history;
+  }
+
   /**
    * Returns a new card for the transit user with cardHolderEmail
    *
@@ -72,10 +199,22 @@ public class Card implements Serializable {
    */
   static Card makeCard(String cardHolderEmail) {
     Card newCard = new Card(cardHolderEmail, generateCardNumber());
-    logger.log(Level.INFO, String.format("New card %s is made.", newCard.getCardNumber()));
+    EventLog.log(logger, EventLog.Event.CARD_MADE, null, newCard.getCardNumber(), null, 0);
     return newCard;
   }
 
+  /**
+   * Returns the card cardNumber of the transit user with cardHolderEmail as it was when it was made.
+   * Used when the journal is replayed so the card keeps its original number.
+   *
+   * @param cardHolderEmail email of the owner of this card
+   * @param cardNumber      the number the card was given when it was first made
+   * @return the restored card
+   */
+  static Card restoreCard(String cardHolderEmail, String cardNumber) {
+    return new Card(cardHolderEmail, cardNumber);
+  }
+
   /**
    * Returns a random 12 digit string of integers. Note: the probability of two people ever having
    * the same 12 digit card number is 10^12.
@@ -102,10 +241,93 @@ public class Card implements Serializable {
    * @param value the value to add.
    */
   void addBalance(double value) {
-    this.balance += value;
-    String msg =
-            LocalDateTime.now().toString() + ": Card " + cardNumber + " add" + value + " to balance.";
-    logger.log(Level.INFO, msg);
+    Journal.begin();
+    try {
+      Journal.balanceLoad(cardNumber, value);
+      this.balance += value;
+    } finally {
+      Journal.end();
+    }
+    EventLog.log(logger, EventLog.Event.BALANCE_ADDED, null, cardNumber, null, value);
+  }
+
+  /**
+   * Returns the history of this card, paging it in if it is not in memory. The history may be paged
+   * out again once it is no longer used, so it must not be changed.
+   *
+   * @throws UncheckedIOException if the history can't be paged in. The operation that needs it
+   *                              fails rather than going on with an empty history, which would be
+   *                              saved over the real one.
+   */
+  private History history() {
+    History result = history;
+    if (result == null && pagedHistory != null) {
+      result = pagedHistory.get();
+    }
+    if (result == null) {
+      try {
+        result = new History(historyBlock.open());
+      } catch (IOException e) {
+        throw new UncheckedIOException(
+                String.format("The history of card %s could not be read.", cardNumber), e);
+      }
+      pagedHistory = new SoftReference<>(result);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the history of this card and keeps it in memory, so that it can be changed.
+   */
+  private History changeHistory() {
+    if (history == null) {
+      history = history();
+      pagedHistory = null;
+    }
+    return history;
+  }
+
+  /**
+   * Returns the first month of the history that is kept, information from three years ago is out
+   * of date.
+   */
+  static YearMonth retentionStart() {
+    return YearMonth.now().minusYears(3);
+  }
+
+  /**
+   * Removes the out-of-date history of this card if it is in memory. A history that is paged in
+   * later is trimmed as it is paged in. Returns the number of transactions and trips removed.
+   */
+  int removeOutdatedHistory() {
+    History inMemory = history;
+    if (inMemory == null && pagedHistory != null) {
+      inMemory = pagedHistory.get();
+    }
+    return inMemory == null ? 0 : inMemory.removeBefore(retentionStart());
+  }
+
+  /**
+   * Keeps the history of this card in memory until it is released again. Called when this card is
+   * about to change while a snapshot is written, its history is then not released to that snapshot
+   * and the one it is paged in from may be closed.
+   */
+  void pinHistory() {
+    changeHistory();
+  }
+
+  /**
+   * Lets the history of this card be paged out, once a snapshot holding its current history is on
+   * disk. The history is paged in from that snapshot from then on.
+   *
+   * @param stored this card as read back from the snapshot
+   */
+  void releaseHistory(Card stored) {
+    if (history != null) {
+      pagedHistory = new SoftReference<>(history);
+      history = null;
+    }
+    historyBlock = stored.historyBlock;
   }
 
   /**
@@ -116,13 +338,19 @@ public class Card implements Serializable {
    */
   Trip[] getLastThreeTrips() {
     Trip[] result = new Trip[3];
-    int num = this.trips.size();
-    if (num > 3) {
-      num = 3;
-    }
-    for (int i = 0; i < num; i++) {
-      // The latest trip is at the back of the stack.
-      result[i] = this.trips.get(this.trips.size() - i - 1);
+    Journal.begin();
+    try {
+      ArrayList<Trip> trips = history().trips;
+      int num = trips.size();
+      if (num > 3) {
+        num = 3;
+      }
+      for (int i = 0; i < num; i++) {
+        // The latest trip is at the back of the stack.
+        result[i] = trips.get(trips.size() - i - 1);
+      }
+    } finally {
+      Journal.end();
     }
     return result;
   }
@@ -135,61 +363,88 @@ public class Card implements Serializable {
    * @throws LowBalanceException if the balance on this card is not enough to buy a pass
    */
   void addTransitPass(LocalDateTime time, TransitPass newTransitPass) throws LowBalanceException {
-    if (newTransitPass.getPrice() > balance) {
-      throw new LowBalanceException("Your balance is not enough to pay for this transit pass.");
-    }
     double price = newTransitPass.getPrice();
-    balance -= price;
-    passTransactions.put(time, price);
-    transitPasses.add(newTransitPass);
-    String msg =
-            LocalDateTime.now().toString()
-                    + ": Card "
-                    + cardNumber
-                    + " pay "
-                    + price
-                    + " for a "
-                    + newTransitPass.getType();
-    logger.log(Level.INFO, msg);
-  }
-
-  /**
-   * Pay for fare, if this card has a valid transit pass, adjust the fare to 0.
+    Journal.begin();
+    try {
+      // Paged in before the purchase is journaled, it is not made if the history can't be read
+      History history = changeHistory();
+      Journal.passPurchase(
+              cardNumber, time, newTransitPass.getStartTime(), newTransitPass.getDuration());
+      if (price > balance) {
+        throw new LowBalanceException("Your balance is not enough to pay for this transit pass.");
+      }
+      balance -= price;
+      history.passTransactions.put(time, price);
+      history.transitPasses.add(newTransitPass);
+    } finally {
+      Journal.end();
+    }
+    EventLog.log(
+            logger, EventLog.Event.PASS_PAID, null, cardNumber, newTransitPass.getType(), price);
+  }
+
+  /**
+   * Pay for fare, if this card has a valid transit pass, adjust the fare to 0. A replayed tap pays
+   * what it paid when it was made instead, the fare rules and routes may have changed since.
    *
    * @param fare the amount of money to pay.
    * @param time the time of payment.
+   * @return the amount charged, 0 if a pass is valid
    */
   private double payFare(double fare, LocalDateTime time) {
     double realFare = fare;
-    if (this.hasValidPass(time)) {
+    if (recordedCharges != null && !recordedCharges.isEmpty()) {
+      realFare = recordedCharges.poll();
+    } else if (this.hasValidPass(time)) {
       realFare = 0;
     }
+    if (tapCharges != null) {
+      tapCharges.add(realFare);
+    }
     balance -= realFare;
-    transactions.put(time, realFare);
+    history.transactions.put(time, realFare);
+    if (time.toLocalDate().equals(spentDay)) {
+      spentToday += realFare;
+      spentThisWeek += realFare;
+    }
 
-    String msg = LocalDateTime.now().toString() + ": Card " + cardNumber + " pay fare" + realFare;
-    logger.log(Level.INFO, msg);
+    EventLog.log(logger, EventLog.Event.FARE_PAID, null, cardNumber, null, realFare);
     return realFare;
   }
 
   /**
-   * Checks whether this card has a transit pass in effect at the given time. Removes invalid pass
-   * automatically.
+   * Returns what is charged at time for the last sub trip of the current trip, which costs baseFare
+   * before the transfer discount and the caps of the fare policy.
+   *
+   * @param transfer whether the sub trip continues the trip
+   */
+  private float charge(float baseFare, boolean transfer, LocalDateTime time) {
+    FarePolicy policy = FarePolicy.current();
+    if (policy.hasPeriodCaps()) {
+      LocalDate date = time.toLocalDate();
+      if (!date.equals(spentDay)) {
+        spentToday = history.transactions.sumBetween(date, date);
+        spentThisWeek = history.transactions.sumBetween(date.with(DayOfWeek.MONDAY), date);
+        spentDay = date;
+      }
+    }
+    return policy.charge(
+            baseFare,
+            transfer,
+            history.currentTrip.getCurrentTotalFare(),
+            spentToday,
+            spentThisWeek);
+  }
+
+  /**
+   * Checks whether this card has a transit pass in effect at the given time. Passes expired by then
+   * are removed automatically.
    *
    * @param time the time to check valid pass
    * @return whether this card has a valid transit pass at the given time
    */
   boolean hasValidPass(LocalDateTime time) {
-    LocalDate date = time.toLocalDate();
-    for (int i = 0; i < transitPasses.size(); i++) {
-      if (transitPasses.get(i).isValid(date)) {
-        return true;
-      } else {
-        transitPasses.remove(i);
-        i--;
-      }
-    }
-    return false;
+    return history().transitPasses.isValid(time.toLocalDate());
   }
 
   /**
@@ -198,15 +453,15 @@ public class Card implements Serializable {
    * @param newSubTrip the Trip to be added.
    */
   private void finishTrip(SubTrip newSubTrip) {
-    this.currentTrip = new Trip(newSubTrip);
-    this.trips.add(currentTrip);
+    history.currentTrip = new Trip(newSubTrip);
+    history.trips.add(history.currentTrip);
   }
 
   /**
    * Finishes a trip without starting the next trip
    */
   private void finishTrip() {
-    this.currentTrip = null;
+    history.currentTrip = null;
   }
 
   /**
@@ -216,33 +471,76 @@ public class Card implements Serializable {
    * @param station the station / stop of tapping
    * @param route   the route of the station / stop
    * @param in      whether this card tapIn or tapOut
+   * @return the amount charged to this card by the tap, fares and fines together
    * @throws LowBalanceException when card's balance is less than zero.
    */
-  public void tapCard(LocalDateTime time, String station, String route, boolean in) // TODO
+  public double tapCard(LocalDateTime time, String station, String route, boolean in) // TODO
+          throws LowBalanceException, CardSuspendedException, TripEnRouteException {
+    Journal.begin();
+    try {
+      // The helpers below work on the history directly. It is paged in before the card is marked
+      // as changing, the tap is not made if the history can't be read. The tap is journaled once
+      // it is made, with what it charged.
+      changeHistory();
+      Journal.tapping(cardNumber);
+      ArrayList<Double> charges = new ArrayList<>();
+      tapCharges = charges;
+      try {
+        return tap(time, station, route, in);
+      } finally {
+        tapCharges = null;
+        Journal.tap(cardNumber, time, station, route, in, charges);
+      }
+    } finally {
+      Journal.end();
+    }
+  }
+
+  /**
+   * Replays a tap read from the journal, charging the amounts it charged when it was made. Charges
+   * past those are worked out as tapCard does.
+   *
+   * @param charges the amounts charged by the tap, in the order they were charged
+   */
+  void replayTap(
+          LocalDateTime time, String station, String route, boolean in, ArrayDeque<Double> charges)
+          throws LowBalanceException, CardSuspendedException, TripEnRouteException {
+    recordedCharges = charges;
+    try {
+      tapCard(time, station, route, in);
+    } finally {
+      recordedCharges = null;
+    }
+  }
+
+  /**
+   * Helper method for tapCard, makes the tap once the history is in memory.
+   *
+   * @return the amount charged
+   */
+  private double tap(LocalDateTime time, String station, String route, boolean in)
           throws LowBalanceException, CardSuspendedException, TripEnRouteException {
     if (balance < 0) {
-      String msg =
-              time + ": Card " + cardNumber + " taps at station " + station + " with low balance.";
-      logger.log(Level.INFO, msg);
+      EventLog.log(logger, EventLog.Event.LOW_BALANCE, time, cardNumber, station, 0);
       throw new LowBalanceException("Low balance! Please load money onto this card.");
     } else if (!isActivated()) {
-      String msg = time + ": The suspended card " + cardNumber + " taps at station " + station;
-      logger.log(Level.INFO, msg);
+      EventLog.log(logger, EventLog.Event.SUSPENDED, time, cardNumber, station, 0);
       throw new CardSuspendedException("This Card has been suspended. Please call 555-555-5555");
     }
     if (BusSubTrip.getBusRoutes().containsKey(route)) {
       if (in) {
-        tapIntoBus(time, station, route);
+        return tapIntoBus(time, station, route);
       } else {
-        tapOutOfBus(time, station, route);
+        return tapOutOfBus(time, station, route);
       }
     } else if (SubwaySubTrip.getSubwayRoutes().containsKey(route)) {
       if (in) {
-        tapIntoSubway(time, station, route);
+        return tapIntoSubway(time, station, route);
       } else {
-        tapOutOfSubway(time, station, route);
+        return tapOutOfSubway(time, station, route);
       }
     }
+    return 0;
   }
 
   /**
@@ -251,42 +549,36 @@ public class Card implements Serializable {
    * @param time    the LocalDateTime of tap-in
    * @param station the departure stop
    * @param route   the route of travel
+   * @return the amount charged
    */
-  private void tapIntoBus(LocalDateTime time, String station, String route) {
+  private double tapIntoBus(LocalDateTime time, String station, String route) {
     BusSubTrip nextSubTrip = new BusSubTrip(time, station, route);
-    float nextFare = nextSubTrip.calculateFare();
-    if (this.currentTrip == null) {
-      this.currentTrip = new Trip(nextSubTrip);
-      this.trips.add(currentTrip);
-      String msg = time + ": Card " + cardNumber + " successfully taps into bus stop " + station;
-      logger.log(Level.INFO, msg);
+    boolean transfer = false;
+    double fine = 0;
+    if (history.currentTrip == null) {
+      history.currentTrip = new Trip(nextSubTrip);
+      history.trips.add(history.currentTrip);
+      EventLog.log(logger, EventLog.Event.BUS_IN, time, cardNumber, station, 0);
     } else {
       try {
-        this.currentTrip.appendTrip(nextSubTrip);
-        String msg = time + ": Card " + cardNumber + " successfully taps into bus stop " + station;
-        logger.log(Level.INFO, msg);
-        float currFare = this.currentTrip.getCurrentTotalFare();
-        // deducts up to cappedFare for continuous trip
-        if (currFare + nextFare > Fares.MAX_FARE.getFare()) {
-          nextFare = (float) Fares.MAX_FARE.getFare() - currFare;
-        }
+        history.currentTrip.appendTrip(nextSubTrip);
+        EventLog.log(logger, EventLog.Event.BUS_IN, time, cardNumber, station, 0);
+        transfer = true;
       } catch (TripEnRouteException en) {
         // deducts fine since illegally exit subway without paying fare previously
-        String msg =
-                time + ": Card " + cardNumber + " taps into bus stop " + station + " without exit.";
-        logger.log(Level.INFO, msg);
-        double realFare = payFare(FINE, time);
-        this.currentTrip.getEnd().setFare(realFare);
+        EventLog.log(logger, EventLog.Event.BUS_IN_WITHOUT_EXIT, time, cardNumber, station, 0);
+        fine = payFare(FarePolicy.current().getFine(), time);
+        history.currentTrip.getEnd().setFare(fine);
         this.finishTrip(nextSubTrip);
       } catch (TripCanNotContinueException nc) {
         this.finishTrip(nextSubTrip);
-        String msg = time + ": Card " + cardNumber + " successfully taps into bus stop " + station;
-        logger.log(Level.INFO, msg);
+        EventLog.log(logger, EventLog.Event.BUS_IN, time, cardNumber, station, 0);
       }
     }
 
-    double realFare = payFare(nextFare, time);
+    double realFare = payFare(charge(nextSubTrip.calculateFare(), transfer, time), time);
     nextSubTrip.setFare(realFare);
+    return fine + realFare;
   }
 
   /**
@@ -294,39 +586,29 @@ public class Card implements Serializable {
    *
    * @param time    the LocalDateTime of tap out
    * @param station the arrival station /stop
+   * @return the amount charged
    */
-  private void tapOutOfBus(LocalDateTime time, String station, String route) {
-    if (this.currentTrip == null) {
-      String msg =
-              time + ": Card " + cardNumber + " taps out of bus stop " + station + " without entry.";
-      logger.log(Level.INFO, msg);
-      payFare(FINE, time);
+  private double tapOutOfBus(LocalDateTime time, String station, String route) {
+    if (history.currentTrip == null) {
+      EventLog.log(logger, EventLog.Event.BUS_OUT_WITHOUT_ENTRY, time, cardNumber, station, 0);
+      return payFare(FarePolicy.current().getFine(), time);
 
     } else {
-      SubTrip endingTrip = this.currentTrip.getEnd();
+      SubTrip endingTrip = history.currentTrip.getEnd();
       try {
         endingTrip.finishTrip(time, station, route);
-        String msg =
-                time + ": Card " + cardNumber + " successfully taps out of bus stop " + station;
-        logger.log(Level.INFO, msg);
+        EventLog.log(logger, EventLog.Event.BUS_OUT, time, cardNumber, station, 0);
+        return 0;
       } catch (TripNotEnRouteException | NullPointerException a) {
-        String msg =
-                time + ": Card " + cardNumber + " taps out of bus stop " + station + " without entry.";
-        logger.log(Level.INFO, msg);
-        payFare(FINE, time);
+        EventLog.log(logger, EventLog.Event.BUS_OUT_WITHOUT_ENTRY, time, cardNumber, station, 0);
+        return payFare(FarePolicy.current().getFine(), time);
       } catch (ExitNotSameRouteException b) {
-        String msg =
-                time
-                        + ": Card "
-                        + cardNumber
-                        + " taps out of stop "
-                        + station
-                        + " at a different route.";
-        logger.log(Level.INFO, msg);
-        double realFare = payFare(FINE, time);
+        EventLog.log(logger, EventLog.Event.BUS_OUT_OTHER_ROUTE, time, cardNumber, station, 0);
+        double realFare = payFare(FarePolicy.current().getFine(), time);
         endingTrip.setFare(realFare); // setting the fare for this sub trip
         // finish this trip to avoid recalculating fine upon the next entry
         this.finishTrip();
+        return realFare;
       }
     }
   }
@@ -336,62 +618,33 @@ public class Card implements Serializable {
    *
    * @param time    the LocalDateTime of tap out
    * @param station the arrival station / stop
+   * @return the amount charged
    */
-  private void tapOutOfSubway(LocalDateTime time, String station, String route)
+  private double tapOutOfSubway(LocalDateTime time, String station, String route)
           throws TripEnRouteException {
-    if (this.currentTrip == null) {
-      String msg =
-              time
-                      + ": Card "
-                      + cardNumber
-                      + " taps out of subway station "
-                      + station
-                      + " without entry.";
-      logger.log(Level.INFO, msg);
-      payFare(FINE, time);
+    if (history.currentTrip == null) {
+      EventLog.log(logger, EventLog.Event.SUBWAY_OUT_WITHOUT_ENTRY, time, cardNumber, station, 0);
+      return payFare(FarePolicy.current().getFine(), time);
     } else {
-      SubTrip endingTrip = this.currentTrip.getEnd();
+      SubTrip endingTrip = history.currentTrip.getEnd();
       try {
         endingTrip.finishTrip(time, station, route);
-        String msg =
-                time
-                        + ": Card "
-                        + cardNumber
-                        + " taps out subway station "
-                        + station
-                        + " successfully.";
-        logger.log(Level.INFO, msg);
+        EventLog.log(logger, EventLog.Event.SUBWAY_OUT, time, cardNumber, station, 0);
         // set the fare for subway trip when exiting a station
-        float nextFare = endingTrip.calculateFare();
-        float currTotal = this.currentTrip.getCurrentTotalFare();
-        if (currTotal + nextFare > Fares.MAX_FARE.getFare()) {
-          nextFare = (float) Fares.MAX_FARE.getFare() - currTotal;
-        }
-        double realFare = payFare(nextFare, time);
+        boolean transfer = history.currentTrip.getStart() != endingTrip;
+        double realFare = payFare(charge(endingTrip.calculateFare(), transfer, time), time);
         endingTrip.setFare(realFare);
+        return realFare;
       } catch (TripNotEnRouteException | NullPointerException a) {
-        String msg =
-                time
-                        + ": Card "
-                        + cardNumber
-                        + " taps out of subway station "
-                        + station
-                        + " without entry.";
-        logger.log(Level.INFO, msg);
-        payFare(FINE, time);
+        EventLog.log(logger, EventLog.Event.SUBWAY_OUT_WITHOUT_ENTRY, time, cardNumber, station, 0);
+        return payFare(FarePolicy.current().getFine(), time);
       } catch (ExitNotSameRouteException b) {
-        String msg =
-                time
-                        + ": Card "
-                        + cardNumber
-                        + " taps out of station "
-                        + station
-                        + " which is not a bus stop. ";
-        logger.log(Level.INFO, msg);
-        double realFare = payFare(FINE, time);
+        EventLog.log(logger, EventLog.Event.SUBWAY_OUT_AT_BUS_STOP, time, cardNumber, station, 0);
+        double realFare = payFare(FarePolicy.current().getFine(), time);
         endingTrip.setFare(realFare); // setting the fare for this sub trip
         // avoid recalculating fine upon the next entry
         this.finishTrip();
+        return realFare;
       }
     }
   }
@@ -402,51 +655,31 @@ public class Card implements Serializable {
    * @param time    the time this TransitUser enters subway.
    * @param station the name of the departure station.
    * @param route   the route of the subway trip.
+   * @return the amount charged, a fine if the last trip was not exited
    */
-  private void tapIntoSubway(LocalDateTime time, String station, String route) {
+  private double tapIntoSubway(LocalDateTime time, String station, String route) {
     SubwaySubTrip nextSubTrip = new SubwaySubTrip(time, station, route);
-    if (this.currentTrip == null) {
-      this.currentTrip = new Trip(nextSubTrip);
-      this.trips.add(currentTrip);
-      String msg =
-              time + ": Card " + cardNumber + " taps into subway station " + station + " successfully";
-      logger.log(Level.INFO, msg);
+    double fine = 0;
+    if (history.currentTrip == null) {
+      history.currentTrip = new Trip(nextSubTrip);
+      history.trips.add(history.currentTrip);
+      EventLog.log(logger, EventLog.Event.SUBWAY_IN, time, cardNumber, station, 0);
     } else {
       try {
-        this.currentTrip.appendTrip(nextSubTrip);
-        String msg =
-                time
-                        + ": Card "
-                        + cardNumber
-                        + " taps into subway station "
-                        + station
-                        + " successfully";
-        logger.log(Level.INFO, msg);
+        history.currentTrip.appendTrip(nextSubTrip);
+        EventLog.log(logger, EventLog.Event.SUBWAY_IN, time, cardNumber, station, 0);
       } catch (TripEnRouteException en) {
         // deducts fine since illegally exit subway without paying fare previously
-        String msg =
-                time
-                        + ": Card "
-                        + cardNumber
-                        + " taps into subway station "
-                        + station
-                        + " without exit";
-        logger.log(Level.INFO, msg);
-        double realFare = payFare(FINE, time);
-        this.currentTrip.getEnd().setFare(realFare);
+        EventLog.log(logger, EventLog.Event.SUBWAY_IN_WITHOUT_EXIT, time, cardNumber, station, 0);
+        fine = payFare(FarePolicy.current().getFine(), time);
+        history.currentTrip.getEnd().setFare(fine);
         this.finishTrip(nextSubTrip);
       } catch (TripCanNotContinueException nc) {
         this.finishTrip(nextSubTrip);
-        String msg =
-                time
-                        + ": Card "
-                        + cardNumber
-                        + " taps into subway station "
-                        + station
-                        + " successfully";
-        logger.log(Level.INFO, msg);
+        EventLog.log(logger, EventLog.Event.SUBWAY_IN, time, cardNumber, station, 0);
       }
     }
+    return fine;
   }
 
   /**
@@ -462,31 +695,112 @@ public class Card implements Serializable {
     LocalDate end =
             LocalDate.of(
                     endDate.getYear(), endDate.getMonth(), endDate.getMonth().length(endDate.isLeapYear()));
-    double sum =
-            transactions
-                    .entrySet()
-                    .stream()
-                    .filter(
-                            x ->
-                                    (x.getKey().toLocalDate().isAfter(start)
-                                            || x.getKey().toLocalDate().equals(start))
-                                            && (x.getKey().toLocalDate().isBefore(end)
-                                            || x.getKey().toLocalDate().equals(end)))
-                    .mapToDouble(Map.Entry::getValue)
-                    .sum();
-    sum +=
-            passTransactions
-                    .entrySet()
-                    .stream()
-                    .filter(
-                            x ->
-                                    (x.getKey().toLocalDate().isAfter(start)
-                                            || x.getKey().toLocalDate().equals(start))
-                                            && (x.getKey().toLocalDate().isBefore(end)
-                                            || x.getKey().toLocalDate().equals(end)))
-                    .mapToDouble(Map.Entry::getValue)
-                    .sum();
-    return sum;
+    Journal.begin();
+    try {
+      History history = history();
+      double sum = history.transactions.sumBetween(start, end);
+      sum += history.passTransactions.sumBetween(start, end);
+      return sum;
+    } finally {
+      Journal.end();
+    }
+  }
+
+  /**
+   * Writes this card to out, followed by its history as a block that can be paged in later.
+   *
+   * @param out the writer of a snapshot or delta
+   */
+  void encode(BinaryCodec.Writer out) throws IOException {
+    out.writeText(cardNumber);
+    out.writeText(cardHolderEmail);
+    out.writeDouble(balance);
+    out.writeBoolean(activated);
+    out.writeBlock(history()::encode);
+  }
+
+  static Card decode(BinaryCodec.Reader in) throws IOException {
+    return new Card(in);
+  }
+
+  /**
+   * Reads a card written with Java serialization, with its history in it. The card is replaced by
+   * one made from the fields read, since the number and the owner of a card can't be set here.
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    History read = new History();
+    Map<LocalDateTime, Double> transactions =
+            (Map<LocalDateTime, Double>) fields.get("transactions", null);
+    if (transactions != null) {
+      read.transactions.putAll(transactions);
+    }
+    Map<LocalDateTime, Double> passTransactions =
+            (Map<LocalDateTime, Double>) fields.get("passTransactions", null);
+    if (passTransactions != null) {
+      read.passTransactions.putAll(passTransactions);
+    }
+    ArrayList<TransitPass> transitPasses =
+            (ArrayList<TransitPass>) fields.get("transitPasses", null);
+    if (transitPasses != null) {
+      transitPasses.forEach(read.transitPasses::add);
+    }
+    ArrayList<Trip> trips = (ArrayList<Trip>) fields.get("trips", null);
+    if (trips != null) {
+      read.trips.addAll(trips);
+    }
+    read.currentTrip = (Trip) fields.get("currentTrip", null);
+    resolved =
+            new Card(
+                    (String) fields.get("cardHolderEmail", null),
+                    (String) fields.get("cardNumber", null),
+                    fields.get("balance", 0.0),
+                    fields.get("activated", true),
+                    read);
+  }
+
+  private Object readResolve() {
+    return resolved;
+  }
+
+  /**
+   * Writes this card with Java serialization, with its history in it as readObject reads it. The
+   * fine is no longer kept by the card and is written as it is now.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    History history = history();
+    ArrayList<TransitPass> transitPasses = new ArrayList<>();
+    history.transitPasses.forEach(transitPasses::add);
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("cardHolderEmail", cardHolderEmail);
+    fields.put("cardNumber", cardNumber);
+    fields.put("balance", balance);
+    fields.put("activated", activated);
+    fields.put("currentTrip", history.currentTrip);
+    fields.put("FINE", FarePolicy.current().getFine());
+    fields.put("transactions", new TreeMap<>(history.transactions));
+    fields.put("passTransactions", new TreeMap<>(history.passTransactions));
+    fields.put("trips", history.trips);
+    fields.put("transitPasses", transitPasses);
+    out.writeFields();
+  }
+
+  private static void encodeTransactions(BinaryCodec.Writer out, Ledger map)
+          throws IOException {
+    out.writeVarInt(map.size());
+    for (Map.Entry<LocalDateTime, Double> entry : map.entrySet()) {
+      out.writeTime(entry.getKey());
+      out.writeDouble(entry.getValue());
+    }
+  }
+
+  private static void decodeTransactions(BinaryCodec.Reader in, Ledger map)
+          throws IOException {
+    int count = in.readVarInt();
+    for (int i = 0; i < count; i++) {
+      map.put(in.readTime(), in.readDouble());
+    }
   }
 
   @Override
@@ -501,16 +815,14 @@ public class Card implements Serializable {
                       "Card Number: %s%n Balance: %s%n Status: deactivated", cardNumber, balance));
     }
     result.append(System.lineSeparator());
+    PassSchedule transitPasses = history().transitPasses;
     if (transitPasses.size() == 0) {
       result.append("There is no transit pass associated with this Card");
       return result.toString();
     }
-    LocalDate current = LocalDate.now();
-    for (TransitPass pass : transitPasses) {
-      if (pass.isValid(current)) {
-        result.append(pass.toString());
-        result.append(System.lineSeparator());
-      }
+    for (TransitPass pass : transitPasses.validAt(LocalDate.now())) {
+      result.append(pass.toString());
+      result.append(System.lineSeparator());
     }
     result.append(System.lineSeparator());
     return result.toString();
@@ -529,8 +841,12 @@ public class Card implements Serializable {
     return cardNumber;
   }
 
+  /**
+   * Returns the trips on this card. Outdated trips are removed from the list, so it must be read
+   * between Journal.begin and Journal.end, like the ledgers of this card.
+   */
   ArrayList<Trip> getTrips() {
-    return trips;
+    return history().trips;
   }
 
   public boolean isActivated() {
@@ -538,19 +854,46 @@ public class Card implements Serializable {
   }
 
   void setActivated(boolean b) {
-    this.activated = b;
+    Journal.begin();
+    try {
+      Journal.cardStatus(cardNumber, b);
+      this.activated = b;
+    } finally {
+      Journal.end();
+    }
   }
 
-  Map<LocalDateTime, Double> getTransactions() {
-    return transactions;
+  Ledger getTransactions() {
+    return history().transactions;
   }
 
-  Map<LocalDateTime, Double> getPassTransactions() {
-    return passTransactions;
+  Ledger getPassTransactions() {
+    return history().passTransactions;
   }
 
-  ArrayList<TransitPass> getTransitPasses() {
-    return transitPasses;
+  /**
+   * Returns the transit passes on this card valid at the given date, in the order they start.
+   */
+  List<TransitPass> getValidPasses(LocalDate date) {
+    return history().transitPasses.validAt(date);
+  }
+
+  /**
+   * Records that the card with cardNumber is about to change, at the given modification version.
+   */
+  static void markChanged(String cardNumber, long version) {
+    Card card = allCard == null ? null : allCard.get(cardNumber);
+    if (card != null) {
+      card.version = version;
+    }
+  }
+
+  /**
+   * Returns the modification version of the last change to this card, 0 if it did not change since
+   * it was loaded.
+   */
+  long getVersion() {
+    return version;
   }
 
   public static void setAllCard(HashMap<String, Card> allCard) {
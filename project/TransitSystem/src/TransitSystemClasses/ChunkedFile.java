@@ -0,0 +1,218 @@
+package TransitSystemClasses;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A file whose content is split into chunks that are compressed independently of each other. The
+ * chunks are compressed in parallel, and a table of where every chunk starts lets a part of the
+ * content be read by inflating only the chunks it is in.
+ *
+ * <p>The file starts with a magic number, the chunk size, the length of the content and the chunk
+ * table, followed by the compressed chunks.
+ */
+class ChunkedFile implements BinaryCodec.Source {
+  static final int MAGIC = 0x54535A43;
+  // The length of the content of every chunk but the last
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  private final FileChannel file;
+  private final int chunkSize;
+  // The length of the content
+  private final long length;
+  // Where every chunk starts in the file, followed by the end of the last chunk
+  private final long[] offsets;
+  // The last chunk that was inflated, a Reader mostly reads the same chunk many times in a row
+  private int cachedChunk = -1;
+  private byte[] cached;
+
+  private ChunkedFile(FileChannel file, int chunkSize, long length, long[] offsets) {
+    this.file = file;
+    this.chunkSize = chunkSize;
+    this.length = length;
+    this.offsets = offsets;
+  }
+
+  /**
+   * Compresses content into chunks and writes them to path, then syncs the file to disk.
+   */
+  static void write(Path path, byte[] content) throws IOException {
+    int chunkCount = (content.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    List<byte[]> chunks =
+            IntStream.range(0, chunkCount)
+                    .parallel()
+                    .mapToObj(
+                            chunk -> {
+                              int start = chunk * CHUNK_SIZE;
+                              return deflate(content, start, Math.min(CHUNK_SIZE, content.length - start));
+                            })
+                    .collect(Collectors.toList());
+    try (FileOutputStream file = new FileOutputStream(path.toFile())) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+      out.writeInt(MAGIC);
+      out.writeInt(CHUNK_SIZE);
+      out.writeLong(content.length);
+      out.writeInt(chunkCount);
+      long offset = headerLength(chunkCount);
+      for (byte[] chunk : chunks) {
+        out.writeLong(offset);
+        offset += chunk.length;
+      }
+      out.writeLong(offset);
+      for (byte[] chunk : chunks) {
+        out.write(chunk);
+      }
+      out.flush();
+      file.getFD().sync();
+    }
+  }
+
+  /**
+   * Returns the chunked content of file, or null if file is not a ChunkedFile. The content stays
+   * readable until file is closed.
+   */
+  static ChunkedFile open(FileChannel file) throws IOException {
+    ByteBuffer header = readFully(file, 0, Integer.BYTES * 3 + Long.BYTES, false);
+    if (header == null || header.getInt() != MAGIC) {
+      return null;
+    }
+    int chunkSize = header.getInt();
+    long length = header.getLong();
+    int chunkCount = header.getInt();
+    ByteBuffer table =
+            readFully(file, header.limit(), Long.BYTES * (chunkCount + 1), true);
+    long[] offsets = new long[chunkCount + 1];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = table.getLong();
+    }
+    return new ChunkedFile(file, chunkSize, length, offsets);
+  }
+
+  /**
+   * Reads the content from the given position, inflating the chunk it is in.
+   */
+  @Override
+  public int read(ByteBuffer dst, long position) throws IOException {
+    if (position >= length) {
+      return -1;
+    }
+    byte[] chunk = chunk((int) (position / chunkSize));
+    int offset = (int) (position % chunkSize);
+    int count = Math.min(dst.remaining(), chunk.length - offset);
+    dst.put(chunk, offset, count);
+    return count;
+  }
+
+  /**
+   * Returns a stream of the content from its start. Skipping over whole chunks does not inflate
+   * them.
+   */
+  InputStream stream() {
+    return new InputStream() {
+      private long position;
+
+      @Override
+      public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        int count = ChunkedFile.this.read(ByteBuffer.wrap(b, off, len), position);
+        if (count > 0) {
+          position += count;
+        }
+        return count;
+      }
+
+      @Override
+      public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+      }
+    };
+  }
+
+  /**
+   * Returns the content of a chunk.
+   */
+  private synchronized byte[] chunk(int chunk) throws IOException {
+    if (chunk != cachedChunk) {
+      int compressedLength = (int) (offsets[chunk + 1] - offsets[chunk]);
+      ByteBuffer compressed = readFully(file, offsets[chunk], compressedLength, true);
+      byte[] content = new byte[(int) Math.min(chunkSize, length - (long) chunk * chunkSize)];
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(compressed.array());
+        int inflated = 0;
+        while (inflated < content.length && !inflater.finished()) {
+          inflated += inflater.inflate(content, inflated, content.length - inflated);
+          if (inflater.needsInput() && !inflater.finished()) {
+            break;
+          }
+        }
+        if (inflated < content.length) {
+          throw new EOFException("A chunk of the file is cut off.");
+        }
+      } catch (DataFormatException e) {
+        throw new IOException("A chunk of the file is corrupted.", e);
+      } finally {
+        inflater.end();
+      }
+      cached = content;
+      cachedChunk = chunk;
+    }
+    return cached;
+  }
+
+  private static byte[] deflate(byte[] content, int start, int count) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(content, start, count);
+      deflater.finish();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(count / 4 + 64);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        compressed.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return compressed.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static long headerLength(int chunkCount) {
+    return Integer.BYTES * 3 + Long.BYTES + (long) Long.BYTES * (chunkCount + 1);
+  }
+
+  /**
+   * Reads count bytes at the given position of file. Returns null at the end of file, or throws if
+   * required.
+   */
+  private static ByteBuffer readFully(FileChannel file, long position, int count, boolean required)
+          throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(count);
+    while (buffer.hasRemaining()) {
+      if (file.read(buffer, position + buffer.position()) < 0) {
+        if (required) {
+          throw new EOFException("The file is cut off.");
+        }
+        return null;
+      }
+    }
+    return buffer.flip();
+  }
+}
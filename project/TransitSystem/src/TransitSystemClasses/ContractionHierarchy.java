@@ -0,0 +1,509 @@
+package TransitSystemClasses;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A contraction hierarchy of a TransitGraph, for finding shortest paths on large networks. The
+ * stations are contracted one at a time, least important first: a contracted station is taken out
+ * of the graph, and a shortcut is added between two of its neighbours wherever the way through it
+ * is the only shortest way between them. Every station is given the order it was contracted in as
+ * its rank.
+ *
+ * <p>A shortest path then only ever goes up in rank and then down again, so a search runs up from
+ * both ends at once and only touches the few stations above them. The edges up from every station
+ * are kept in compressed sparse row form, and a shortcut knows the station it skips so the path can
+ * be unpacked into the stations of the graph.
+ */
+class ContractionHierarchy {
+  static final int MAGIC = 0x54534348;
+  // Smaller graphs are searched directly, a hierarchy only pays off on large networks
+  static final int MIN_STATIONS = 10000;
+  // A hierarchy is only built if the breadth-first searches between SAMPLES pairs of stations reach
+  // this many stations on average, it is slower than them on networks with few stops between any
+  // two stations
+  static final int MIN_REACHED = 5000;
+  static final int SAMPLES = 32;
+  // The most stations a witness search settles before it gives up and adds the shortcut
+  private static final int WITNESS_LIMIT = 200;
+
+  // The work arrays of the two sides of a search, reused by the searches on the same thread
+  private static final ThreadLocal<Side[]> SIDES =
+          ThreadLocal.withInitial(() -> new Side[] {new Side(), new Side()});
+
+  private final TransitGraph graph;
+  // The edges up from station s are upTargets[upOffsets[s]] to upTargets[upOffsets[s + 1] - 1],
+  // edge e is upLengths[e] stops long and upMiddles[e] is the station a shortcut skips, or -1 minus
+  // the route of an edge of the graph
+  private final int[] upOffsets;
+  private final int[] upTargets;
+  private final int[] upLengths;
+  private final int[] upMiddles;
+
+  private ContractionHierarchy(
+          TransitGraph graph, int[] upOffsets, int[] upTargets, int[] upLengths, int[] upMiddles) {
+    this.graph = graph;
+    this.upOffsets = upOffsets;
+    this.upTargets = upTargets;
+    this.upLengths = upLengths;
+    this.upMiddles = upMiddles;
+  }
+
+  /**
+   * Contracts the stations of graph, the one adding the fewest edges first.
+   */
+  static ContractionHierarchy build(TransitGraph graph) {
+    return new Builder(graph).build();
+  }
+
+  /**
+   * Returns the shortest path from the station from to the station to, or null if there is none.
+   */
+  RoutePlan search(int from, int to) {
+    Side[] sides = SIDES.get();
+    Side forward = sides[0];
+    Side backward = sides[1];
+    forward.start(from, graph.size());
+    backward.start(to, graph.size());
+    int best = Integer.MAX_VALUE;
+    int meet = -1;
+    boolean isForward = true;
+    while (!forward.queue.isEmpty() || !backward.queue.isEmpty()) {
+      isForward = backward.queue.isEmpty() || (!isForward && !forward.queue.isEmpty());
+      Side side = isForward ? forward : backward;
+      Side other = isForward ? backward : forward;
+      int station = side.queue.poll();
+      // Nothing this side reaches from here on can be on a shorter path
+      if (side.distance[station] >= best) {
+        side.queue.clear();
+        continue;
+      }
+      if (other.reached(station) && side.distance[station] + other.distance[station] < best) {
+        best = side.distance[station] + other.distance[station];
+        meet = station;
+      }
+      if (stalled(side, station)) {
+        continue;
+      }
+      for (int edge = upOffsets[station]; edge < upOffsets[station + 1]; edge++) {
+        int next = upTargets[edge];
+        int distance = side.distance[station] + upLengths[edge];
+        if (!side.reached(next) || distance < side.distance[next]) {
+          side.reach(next, station, edge, distance);
+        }
+      }
+    }
+    if (meet < 0) {
+      return null;
+    }
+
+    ArrayList<String> stations = new ArrayList<>(best + 1);
+    ArrayList<String> routes = new ArrayList<>(best);
+    // The stations up from from to the meeting station, then down to to
+    ArrayList<Integer> up = new ArrayList<>();
+    for (int station = meet; station != from; station = forward.parent[station]) {
+      up.add(station);
+    }
+    stations.add(graph.name(from));
+    int station = from;
+    for (int i = up.size() - 1; i >= 0; i--) {
+      unpack(station, up.get(i), forward.edge[up.get(i)], stations, routes);
+      station = up.get(i);
+    }
+    for (; station != to; station = backward.parent[station]) {
+      unpack(station, backward.parent[station], backward.edge[station], stations, routes);
+    }
+    return new RoutePlan(stations, routes);
+  }
+
+  /**
+   * Returns whether a side reached a station above the given one that is a shorter way to it, so
+   * the station is not on a shortest path up and its edges need not be followed.
+   */
+  private boolean stalled(Side side, int station) {
+    for (int edge = upOffsets[station]; edge < upOffsets[station + 1]; edge++) {
+      int above = upTargets[edge];
+      if (side.reached(above) && side.distance[above] + upLengths[edge] < side.distance[station]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds the stations of the edge from from to to but from, and the routes between them, to the
+   * path.
+   */
+  private void unpack(int from, int to, int edge, List<String> stations, List<String> routes) {
+    int middle = upMiddles[edge];
+    if (middle < 0) {
+      stations.add(graph.name(to));
+      routes.add(graph.routeName(-1 - middle));
+      return;
+    }
+    // The station a shortcut skips is below both ends, so both halves are edges up from it
+    unpack(from, middle, upEdge(middle, from), stations, routes);
+    unpack(middle, to, upEdge(middle, to), stations, routes);
+  }
+
+  private int upEdge(int from, int to) {
+    for (int edge = upOffsets[from]; edge < upOffsets[from + 1]; edge++) {
+      if (upTargets[edge] == to) {
+        return edge;
+      }
+    }
+    throw new IllegalStateException("Shortcut without edge from " + from + " to " + to);
+  }
+
+  /**
+   * Reads the hierarchy of graph from file. Returns null if the file is missing, unreadable or
+   * was written for another graph.
+   */
+  static ContractionHierarchy read(File file, TransitGraph graph) {
+    if (!file.exists()) {
+      return null;
+    }
+    try (DataInputStream in =
+                 new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC
+              || in.readLong() != checksum(graph)
+              || in.readInt() != graph.size()) {
+        return null;
+      }
+      int[] upOffsets = readInts(in, graph.size() + 1);
+      int edges = upOffsets[graph.size()];
+      return new ContractionHierarchy(
+              graph, upOffsets, readInts(in, edges), readInts(in, edges), readInts(in, edges));
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Writes this hierarchy to file, with a checksum of its graph.
+   */
+  void write(File file) throws IOException {
+    try (DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeLong(checksum(graph));
+      out.writeInt(graph.size());
+      for (int[] array : new int[][] {upOffsets, upTargets, upLengths, upMiddles}) {
+        for (int value : array) {
+          out.writeInt(value);
+        }
+      }
+    }
+  }
+
+  private static int[] readInts(DataInputStream in, int length) throws IOException {
+    int[] array = new int[length];
+    for (int i = 0; i < length; i++) {
+      array[i] = in.readInt();
+    }
+    return array;
+  }
+
+  /**
+   * Returns a checksum of the stations, routes and edges of graph, which changes with its IDs.
+   */
+  private static long checksum(TransitGraph graph) {
+    CRC32 crc = new CRC32();
+    for (int station = 0; station < graph.size(); station++) {
+      crc.update(graph.name(station).getBytes(StandardCharsets.UTF_8));
+      for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+        update(crc, graph.target(edge));
+        update(crc, graph.route(edge));
+      }
+      // Separates the stations, so the same edges under other stations give another checksum
+      update(crc, -1);
+    }
+    for (int route = 0; route < graph.routeCount(); route++) {
+      crc.update(graph.routeName(route).getBytes(StandardCharsets.UTF_8));
+    }
+    return crc.getValue();
+  }
+
+  private static void update(CRC32 crc, int value) {
+    for (int shift = 24; shift >= 0; shift -= 8) {
+      crc.update(value >>> shift);
+    }
+  }
+
+  /**
+   * Contracts the stations of a graph. The graph left while contracting is kept as a list of edges
+   * for every station, with their lengths and the stations shortcuts skip, and still has the edges
+   * to contracted stations, which are skipped.
+   */
+  private static class Builder {
+    private final TransitGraph graph;
+    private final int[][] targets;
+    private final int[][] lengths;
+    private final int[][] middles;
+    private final int[] degrees;
+    private final boolean[] contracted;
+    private final int[] contractedNeighbours;
+    // One more than the highest level of the contracted neighbours of every station
+    private final int[] levels;
+    // The edges up from every contracted station, in the layout of the arrays of a hierarchy
+    private final int[][] upEdges;
+    // The work arrays of the witness searches, a station is reached if its mark is the number of
+    // the search
+    private final IntHeap queue;
+    private final int[] mark;
+    private final int[] distance;
+    private int search;
+
+    private Builder(TransitGraph graph) {
+      this.graph = graph;
+      int size = graph.size();
+      targets = new int[size][];
+      lengths = new int[size][];
+      middles = new int[size][];
+      degrees = new int[size];
+      contracted = new boolean[size];
+      contractedNeighbours = new int[size];
+      levels = new int[size];
+      upEdges = new int[size][];
+      queue = new IntHeap(size);
+      mark = new int[size];
+      distance = new int[size];
+      for (int station = 0; station < size; station++) {
+        int degree = graph.endEdge(station) - graph.firstEdge(station);
+        targets[station] = new int[Math.max(degree, 1)];
+        lengths[station] = new int[targets[station].length];
+        middles[station] = new int[targets[station].length];
+        for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+          targets[station][degrees[station]] = graph.target(edge);
+          lengths[station][degrees[station]] = 1;
+          middles[station][degrees[station]++] = -1 - graph.route(edge);
+        }
+      }
+    }
+
+    private ContractionHierarchy build() {
+      int size = graph.size();
+      IntHeap order = new IntHeap(size);
+      int[] priorities = new int[size];
+      for (int station = 0; station < size; station++) {
+        priorities[station] = priority(station);
+        order.offer(station, priorities[station]);
+      }
+      // The priorities change as stations are contracted and are only updated when polled, a
+      // station is contracted once its updated priority is still no higher than the next one
+      while (!order.isEmpty()) {
+        int station = order.poll();
+        priorities[station] = priority(station);
+        if (!order.isEmpty() && priorities[station] > priorities[order.peek()]) {
+          order.offer(station, priorities[station]);
+          continue;
+        }
+        contract(station);
+      }
+
+      int[] upOffsets = new int[size + 1];
+      for (int station = 0; station < size; station++) {
+        upOffsets[station + 1] = upOffsets[station] + upEdges[station].length / 3;
+      }
+      int edges = upOffsets[size];
+      int[] upTargets = new int[edges];
+      int[] upLengths = new int[edges];
+      int[] upMiddles = new int[edges];
+      for (int station = 0; station < size; station++) {
+        int[] up = upEdges[station];
+        for (int i = 0; i < up.length / 3; i++) {
+          upTargets[upOffsets[station] + i] = up[3 * i];
+          upLengths[upOffsets[station] + i] = up[3 * i + 1];
+          upMiddles[upOffsets[station] + i] = up[3 * i + 2];
+        }
+      }
+      return new ContractionHierarchy(graph, upOffsets, upTargets, upLengths, upMiddles);
+    }
+
+    /**
+     * Returns how important a station is: twice the shortcuts contracting it adds less the edges it
+     * takes out, plus its neighbours already contracted and its level so the contracted stations
+     * spread out evenly.
+     */
+    private int priority(int station) {
+      int neighbours = 0;
+      for (int i = 0; i < degrees[station]; i++) {
+        if (!contracted[targets[station][i]]) {
+          neighbours++;
+        }
+      }
+      int difference = shortcuts(station, false) - neighbours;
+      return 2 * difference + contractedNeighbours[station] + levels[station];
+    }
+
+    /**
+     * Takes a station out of the graph, keeping its edges to the stations left as its edges up and
+     * adding the shortcuts through it.
+     */
+    private void contract(int station) {
+      int[] up = new int[3 * degrees[station]];
+      int count = 0;
+      for (int i = 0; i < degrees[station]; i++) {
+        int neighbour = targets[station][i];
+        if (!contracted[neighbour]) {
+          up[count++] = neighbour;
+          up[count++] = lengths[station][i];
+          up[count++] = middles[station][i];
+          contractedNeighbours[neighbour]++;
+          levels[neighbour] = Math.max(levels[neighbour], levels[station] + 1);
+        }
+      }
+      upEdges[station] = Arrays.copyOf(up, count);
+      shortcuts(station, true);
+      contracted[station] = true;
+    }
+
+    /**
+     * Returns the number of shortcuts contracting a station needs, and adds them if add is true. A
+     * shortcut is needed between two neighbours unless a witness search finds a way between them
+     * that avoids the station and is no longer.
+     */
+    private int shortcuts(int station, boolean add) {
+      int count = 0;
+      for (int i = 0; i < degrees[station]; i++) {
+        int from = targets[station][i];
+        if (contracted[from]) {
+          continue;
+        }
+        int longest = 0;
+        for (int j = i + 1; j < degrees[station]; j++) {
+          if (!contracted[targets[station][j]]) {
+            longest = Math.max(longest, lengths[station][j]);
+          }
+        }
+        if (longest == 0) {
+          continue;
+        }
+        witnessSearch(from, station, lengths[station][i] + longest);
+        for (int j = i + 1; j < degrees[station]; j++) {
+          int to = targets[station][j];
+          int length = lengths[station][i] + lengths[station][j];
+          if (contracted[to] || (mark[to] == search && distance[to] <= length)) {
+            continue;
+          }
+          count++;
+          if (add) {
+            addEdge(from, to, length, station);
+            addEdge(to, from, length, station);
+          }
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Finds the shortest ways from a station that avoid the station contracted, up to the given
+     * length or until WITNESS_LIMIT stations are settled.
+     */
+    private void witnessSearch(int from, int avoided, int limit) {
+      search++;
+      queue.clear();
+      mark[from] = search;
+      distance[from] = 0;
+      queue.offer(from, 0);
+      int settled = 0;
+      while (!queue.isEmpty() && settled++ < WITNESS_LIMIT) {
+        int station = queue.poll();
+        if (distance[station] >= limit) {
+          break;
+        }
+        for (int i = 0; i < degrees[station]; i++) {
+          int next = targets[station][i];
+          int length = distance[station] + lengths[station][i];
+          if (next != avoided
+                  && !contracted[next]
+                  && (mark[next] != search || length < distance[next])) {
+            mark[next] = search;
+            distance[next] = length;
+            queue.offer(next, length);
+          }
+        }
+      }
+    }
+
+    /**
+     * Adds an edge from from to to skipping middle, or shortens the edge between them.
+     */
+    private void addEdge(int from, int to, int length, int middle) {
+      for (int i = 0; i < degrees[from]; i++) {
+        if (targets[from][i] == to) {
+          if (length < lengths[from][i]) {
+            lengths[from][i] = length;
+            middles[from][i] = middle;
+          }
+          return;
+        }
+      }
+      if (degrees[from] == targets[from].length) {
+        targets[from] = Arrays.copyOf(targets[from], 2 * degrees[from]);
+        lengths[from] = Arrays.copyOf(lengths[from], 2 * degrees[from]);
+        middles[from] = Arrays.copyOf(middles[from], 2 * degrees[from]);
+      }
+      targets[from][degrees[from]] = to;
+      lengths[from][degrees[from]] = length;
+      middles[from][degrees[from]++] = middle;
+    }
+  }
+
+  /**
+   * One side of a search. A station is reached in the current search if its mark is the number of
+   * the search, so the arrays are only cleared when the numbers run out.
+   */
+  private static class Side {
+    private int search;
+    private int[] mark = new int[0];
+    // The number of stops from the station the side starts at
+    private int[] distance = new int[0];
+    // The station every station is reached from, and the edge up from it
+    private int[] parent = new int[0];
+    private int[] edge = new int[0];
+    private IntHeap queue = new IntHeap(0);
+
+    private void start(int station, int size) {
+      if (mark.length < size) {
+        mark = new int[size];
+        distance = new int[size];
+        parent = new int[size];
+        edge = new int[size];
+        queue = new IntHeap(size);
+        search = 0;
+      }
+      if (search == Integer.MAX_VALUE) {
+        Arrays.fill(mark, 0);
+        search = 0;
+      }
+      search++;
+      queue.clear();
+      reach(station, -1, -1, 0);
+    }
+
+    private boolean reached(int station) {
+      return mark[station] == search;
+    }
+
+    private void reach(int station, int from, int fromEdge, int stops) {
+      mark[station] = search;
+      parent[station] = from;
+      edge[station] = fromEdge;
+      distance[station] = stops;
+      queue.offer(station, stops);
+    }
+  }
+}
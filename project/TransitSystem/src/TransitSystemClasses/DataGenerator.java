@@ -4,7 +4,6 @@ import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
 
 /**
  * A DataGenerator to generate all statistical information for AdminUser.
@@ -27,16 +26,21 @@ public class DataGenerator implements Serializable {
    * @return the total number of bus stops reached on the given date, otherwise return 0.
    */
   public int getDailyBusStopsReached(LocalDate date) {
-    int result = 0;
-    for (Card card : allCards.values()) {
-      result +=
-              card.getTrips()
-                      .stream()
-                      .filter(trip -> trip.getStart().getTimeStart().toLocalDate().equals(date))
-                      .mapToInt(Trip::totalBusStop)
-                      .sum();
+    Journal.begin();
+    try {
+      int result = 0;
+      for (Card card : allCards.values()) {
+        result +=
+                card.getTrips()
+                        .stream()
+                        .filter(trip -> trip.getStart().getTimeStart().toLocalDate().equals(date))
+                        .mapToInt(Trip::totalBusStop)
+                        .sum();
+      }
+      return result;
+    } finally {
+      Journal.end();
     }
-    return result;
   }
 
   /**
@@ -46,16 +50,21 @@ public class DataGenerator implements Serializable {
    * @return the total number of subway stations reached on the given date, otherwise return 0.
    */
   public int getDailySubwayStationsReached(LocalDate date) {
-    int result = 0;
-    for (Card card : allCards.values()) {
-      result +=
-              card.getTrips()
-                      .stream()
-                      .filter(trip -> trip.getStart().getTimeStart().toLocalDate().equals(date))
-                      .mapToInt(Trip::totalSubwayStation)
-                      .sum();
+    Journal.begin();
+    try {
+      int result = 0;
+      for (Card card : allCards.values()) {
+        result +=
+                card.getTrips()
+                        .stream()
+                        .filter(trip -> trip.getStart().getTimeStart().toLocalDate().equals(date))
+                        .mapToInt(Trip::totalSubwayStation)
+                        .sum();
+      }
+      return result;
+    } finally {
+      Journal.end();
     }
-    return result;
   }
 
   /**
@@ -65,17 +74,16 @@ public class DataGenerator implements Serializable {
    * @return the revenue generated on the given date.
    */
   public double getDailyPassRevenue(LocalDate date) {
-    int result = 0;
-    for (Card card : allCards.values()) {
-      result +=
-              card.getPassTransactions()
-                      .entrySet()
-                      .stream()
-                      .filter(x -> x.getKey().toLocalDate().equals(date))
-                      .mapToDouble(Map.Entry::getValue)
-                      .sum();
+    Journal.begin();
+    try {
+      int result = 0;
+      for (Card card : allCards.values()) {
+        result += card.getPassTransactions().sumBetween(date, date);
+      }
+      return result;
+    } finally {
+      Journal.end();
     }
-    return result;
   }
 
   /**
@@ -85,17 +93,16 @@ public class DataGenerator implements Serializable {
    * @return the revenue generated on the given date.
    */
   public double getDailyFareRevenue(LocalDate date) {
-    int result = 0;
-    for (Card card : allCards.values()) {
-      result +=
-              card.getTransactions()
-                      .entrySet()
-                      .stream()
-                      .filter(x -> x.getKey().toLocalDate().equals(date))
-                      .mapToDouble(Map.Entry::getValue)
-                      .sum();
+    Journal.begin();
+    try {
+      int result = 0;
+      for (Card card : allCards.values()) {
+        result += card.getTransactions().sumBetween(date, date);
+      }
+      return result;
+    } finally {
+      Journal.end();
     }
-    return result;
   }
 
   /**
@@ -105,11 +112,16 @@ public class DataGenerator implements Serializable {
    * @return the revenue generated on the given date.
    */
   public double getDailyCardRevenue(LocalDate date) {
-    return acceptedBuyCardPayment
-            .stream()
-            .filter(x -> x.getTime().toLocalDate().equals(date))
-            .count()
-            * Fares.newCard.getFare();
+    Journal.begin();
+    try {
+      return acceptedBuyCardPayment
+              .stream()
+              .filter(x -> x.getTime().toLocalDate().equals(date))
+              .count()
+              * Fares.newCard.getFare();
+    } finally {
+      Journal.end();
+    }
   }
 
   /**
@@ -120,20 +132,18 @@ public class DataGenerator implements Serializable {
    * @return the monthly transit pass revenue of the given month.
    */
   public double getMonthlyPassRevenue(int year, int month) {
-    int result = 0;
-    for (Card card : allCards.values()) {
-      result +=
-              card.getPassTransactions()
-                      .entrySet()
-                      .stream()
-                      .filter(
-                              x ->
-                                      x.getKey().toLocalDate().getMonth().getValue() == month
-                                              && x.getKey().toLocalDate().getYear() == year)
-                      .mapToDouble(Map.Entry::getValue)
-                      .sum();
+    Journal.begin();
+    try {
+      LocalDate first = LocalDate.of(year, month, 1);
+      LocalDate last = first.plusMonths(1).minusDays(1);
+      int result = 0;
+      for (Card card : allCards.values()) {
+        result += card.getPassTransactions().sumBetween(first, last);
+      }
+      return result;
+    } finally {
+      Journal.end();
     }
-    return result;
   }
 
   /**
@@ -144,20 +154,18 @@ public class DataGenerator implements Serializable {
    * @return the monthly revenue of the given month.
    */
   public double getMonthlyFareRevenue(int year, int month) {
-    int result = 0;
-    for (Card card : allCards.values()) {
-      result +=
-              card.getTransactions()
-                      .entrySet()
-                      .stream()
-                      .filter(
-                              x ->
-                                      x.getKey().toLocalDate().getMonth().getValue() == month
-                                              && x.getKey().toLocalDate().getYear() == year)
-                      .mapToDouble(Map.Entry::getValue)
-                      .sum();
+    Journal.begin();
+    try {
+      LocalDate first = LocalDate.of(year, month, 1);
+      LocalDate last = first.plusMonths(1).minusDays(1);
+      int result = 0;
+      for (Card card : allCards.values()) {
+        result += card.getTransactions().sumBetween(first, last);
+      }
+      return result;
+    } finally {
+      Journal.end();
     }
-    return result;
   }
 
   /**
@@ -168,11 +176,16 @@ public class DataGenerator implements Serializable {
    * @return the monthly revenue of the given month.
    */
   public double getMonthlyCardRevenue(int year, int month) {
-    return acceptedBuyCardPayment
-            .stream()
-            .filter(x -> x.getTime().getMonthValue() == month && x.getTime().getYear() == year)
-            .count()
-            * Fares.newCard.getFare();
+    Journal.begin();
+    try {
+      return acceptedBuyCardPayment
+              .stream()
+              .filter(x -> x.getTime().getMonthValue() == month && x.getTime().getYear() == year)
+              .count()
+              * Fares.newCard.getFare();
+    } finally {
+      Journal.end();
+    }
   }
 
   /**
@@ -183,19 +196,24 @@ public class DataGenerator implements Serializable {
    * @return the total number of bus stops reached on the given month, otherwise return 0.
    */
   public int getMonthlyBusStopsReached(int year, int month) {
-    int result = 0;
-    for (Card card : allCards.values()) {
-      result +=
-              card.getTrips()
-                      .stream()
-                      .filter(
-                              trip ->
-                                      trip.getStart().getTimeStart().getMonth().getValue() == month
-                                              && trip.getStart().getTimeStart().getYear() == year)
-                      .mapToInt(Trip::totalBusStop)
-                      .sum();
+    Journal.begin();
+    try {
+      int result = 0;
+      for (Card card : allCards.values()) {
+        result +=
+                card.getTrips()
+                        .stream()
+                        .filter(
+                                trip ->
+                                        trip.getStart().getTimeStart().getMonthValue() == month
+                                                && trip.getStart().getTimeStart().getYear() == year)
+                        .mapToInt(Trip::totalBusStop)
+                        .sum();
+      }
+      return result;
+    } finally {
+      Journal.end();
     }
-    return result;
   }
 
   /**
@@ -206,18 +224,23 @@ public class DataGenerator implements Serializable {
    * @return the total number of subway stations reached on the given month, otherwise return 0.
    */
   public int getMonthlySubwayStationsReached(int year, int month) {
-    int result = 0;
-    for (Card card : allCards.values()) {
-      result +=
-              card.getTrips()
-                      .stream()
-                      .filter(
-                              t ->
-                                      t.getStart().getTimeStart().getMonth().getValue() == month
-                                              && t.getStart().getTimeStart().getYear() == year)
-                      .mapToInt(Trip::totalSubwayStation)
-                      .sum();
+    Journal.begin();
+    try {
+      int result = 0;
+      for (Card card : allCards.values()) {
+        result +=
+                card.getTrips()
+                        .stream()
+                        .filter(
+                                t ->
+                                        t.getStart().getTimeStart().getMonth().getValue() == month
+                                                && t.getStart().getTimeStart().getYear() == year)
+                        .mapToInt(Trip::totalSubwayStation)
+                        .sum();
+      }
+      return result;
+    } finally {
+      Journal.end();
     }
-    return result;
   }
 }
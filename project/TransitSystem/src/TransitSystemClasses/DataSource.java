@@ -1,38 +1,124 @@
 package TransitSystemClasses;
 
 import java.io.*;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-
-import static java.time.temporal.ChronoUnit.YEARS;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class that manages the data of the transit system.
+ *
+ * <p>All data is kept in memory, and every mutation is recorded in a journal. Checkpoints of the
+ * data are saved by a StorageBackend, after which the journal starts over. By default the data is
+ * stored as a snapshot followed by deltas; running with -Dtransit.storage=kv stores it in a single
+ * file of records keyed by card number and email instead.
+ *
+ * <p>Checkpoints are saved on a background thread, every few minutes if anything changed and
+ * whenever the journal grows too large. The data is captured while mutations wait, and written
+ * while they go on.
  */
 public class DataSource {
-  // Singleton pattern
-  private static DataSource dataSource = new DataSource("./serialized_data.ser");
+  // Singleton pattern. Created on first use rather than in the static initializer, since the
+  // shards are read on other threads that would wait for this class to be initialized.
+  private static DataSource dataSource;
   private HashMap<String, Card> allCards;
   private HashMap<String, TransitUserAccount> allTransitUserAccounts;
   private AdminUserAccount adminUserAccount;
   private ArrayList<BuyCardPayment> acceptedBuyCardPayment;
   private ArrayList<Payment> pendingPayment;
   private HashMap<String, Double> fareInfo;
+  // Where the checkpoints are saved
+  private final StorageBackend backend;
+  // Mutations made since the last checkpoint
+  private final Journal journal;
+  // The number of accepted buy card payments already captured by a checkpoint
+  private int acceptedCheckpointed;
+  // The modification version saved by the last checkpoint, cards and accounts with a later version
+  // have changed since
+  private long savedVersion;
+  // Saves checkpoints and removes out-of-date history, one task at a time and off the UI thread
+  private final ScheduledExecutorService background =
+          Executors.newSingleThreadScheduledExecutor(
+                  task -> {
+                    Thread thread = new Thread(task, "data-background");
+                    thread.setDaemon(true);
+                    return thread;
+                  });
+  // The number of transactions, trips and payments removed as out of date
+  private final AtomicLong reclaimedHistory = new AtomicLong();
+  // The number of background saves submitted and not yet finished
+  private final AtomicInteger savesInProgress = new AtomicInteger();
+  // How often changes are saved if there are any
+  private static final long AUTOSAVE_MINUTES = 5;
 
-  private DataSource(String filePath) {
-    // populate ArrayLists from stored serialized data on file.
-    File file = new File(filePath);
-    if (file.exists()) {
-      readFromFile(filePath);
-    } else {
+  private DataSource(StorageBackend backend) {
+    this.backend = backend;
+    String journalPath = backend.getPath() + ".journal";
+    this.journal = new Journal(journalPath, this::checkpointQuietly);
+    StoredData data;
+    try {
+      data = backend.load();
+    } catch (IOException | ClassCastException e) {
+      e.printStackTrace();
+      data = moveUnreadableAside(Paths.get(journalPath));
+    }
+    if (data == null) {
       initNew();
+    } else {
+      allCards = data.cards;
+      allTransitUserAccounts = data.accounts;
+      adminUserAccount = data.admin;
+      acceptedBuyCardPayment = data.accepted;
+      pendingPayment = data.pending;
+      fareInfo = data.fares;
+    }
+  }
+
+  /**
+   * Moves the data that could not be read and its journal aside, so that they are kept for manual
+   * recovery and the next checkpoint can't replace them, and loads what is left. Refuses to start
+   * if they can't be moved.
+   *
+   * @param journalPath the path of the journal
+   */
+  private StoredData moveUnreadableAside(Path journalPath) {
+    try {
+      backend.close();
+      List<Path> files = new ArrayList<>(backend.listFiles());
+      if (Files.exists(journalPath)) {
+        files.add(journalPath);
+      }
+      Path aside = StorageBackend.moveAside(backend.getPath(), files);
+      System.err.println(
+              "The data could not be read and was moved to " + aside + ", starting with empty data.");
+      return backend.load();
+    } catch (IOException e) {
+      throw new UncheckedIOException("The data could not be read nor moved aside.", e);
     }
   }
 
-  public static DataSource getDataSource() {
+  public static synchronized DataSource getDataSource() {
+    if (dataSource == null) {
+      if ("kv".equals(System.getProperty("transit.storage"))) {
+        dataSource = new DataSource(new KeyValueStorage("./serialized_data.kv"));
+      } else {
+        dataSource = new DataSource(new SnapshotStorage("./serialized_data.ser"));
+      }
+    }
     return dataSource;
   }
 
@@ -44,106 +130,272 @@ public class DataSource {
     allTransitUserAccounts = new HashMap<>();
     acceptedBuyCardPayment = new ArrayList<>();
     pendingPayment = new ArrayList<>();
+    adminUserAccount = null;
+    fareInfo = null;
   }
 
-  @SuppressWarnings("unchecked")
-  private void readFromFile(String filePath) {
+  /**
+   * Removes out-of-date information (info from three years ago). Card histories are kept in
+   * monthly partitions, so only whole expired months are dropped, and only from the histories in
+   * memory; the others are trimmed when they are paged in. Readers of the histories and the
+   * accepted payments hold Journal.begin, so nothing is removed while they iterate.
+   */
+  private void removeOutdated() {
+    Journal.exclusive().lock();
     try {
-      InputStream file = new FileInputStream(filePath);
-      InputStream buffer = new BufferedInputStream(file);
-      ObjectInput input = new ObjectInputStream(buffer);
-
-      // Deserialize to the ArrayLists or HashMaps
-      allCards = (HashMap<String, Card>) input.readObject();
-      allTransitUserAccounts = (HashMap<String, TransitUserAccount>) input.readObject();
-      adminUserAccount = (AdminUserAccount) input.readObject();
-      acceptedBuyCardPayment = (ArrayList<BuyCardPayment>) input.readObject();
-      pendingPayment = (ArrayList<Payment>) input.readObject();
-      fareInfo = (HashMap<String, Double>) input.readObject();
-      // Remove out-of-date information (info from three years ago)
-      allCards
-              .values()
-              .forEach(
-                      x -> {
-                        Map<LocalDateTime, Double> transactions = x.getTransactions();
-                        transactions
-                                .keySet()
-                                .forEach(
-                                        y -> {
-                                          if (YEARS.between(y.toLocalDate(), LocalDate.now()) > 3) {
-                                            transactions.remove(y);
-                                          }
-                                        });
-                      });
-      allCards
-              .values()
-              .forEach(
-                      x -> {
-                        Map<LocalDateTime, Double> transactions = x.getPassTransactions();
-                        transactions
-                                .keySet()
-                                .forEach(
-                                        y -> {
-                                          if (YEARS.between(y.toLocalDate(), LocalDate.now()) > 3) {
-                                            transactions.remove(y);
-                                          }
-                                        });
-                      });
-      allCards
-              .values()
-              .forEach(
-                      x -> {
-                        ArrayList<Trip> trips = x.getTrips();
-                        trips.removeIf(
-                                y ->
-                                        YEARS.between(y.getEnd().getTimeStart().toLocalDate(), LocalDate.now())
-                                                > 3);
-                      });
-
-      acceptedBuyCardPayment.removeIf(
-              x -> YEARS.between(x.getTime().toLocalDate(), LocalDate.now()) > 3);
+      YearMonth start = Card.retentionStart();
+      long reclaimed = 0;
+      for (Card card : allCards.values()) {
+        reclaimed += card.removeOutdatedHistory();
+      }
+      // Accepted payments are in the order they were accepted, so the expired ones are at the front
+      int expired = 0;
+      while (expired < acceptedBuyCardPayment.size()
+              && YearMonth.from(acceptedBuyCardPayment.get(expired).getTime()).isBefore(start)) {
+        expired++;
+      }
+      acceptedBuyCardPayment.subList(0, expired).clear();
+      acceptedCheckpointed -= Math.min(expired, acceptedCheckpointed);
+      reclaimedHistory.addAndGet(reclaimed + expired);
+    } catch (RuntimeException e) {
+      // Keep the next runs scheduled
+      e.printStackTrace();
+    } finally {
+      Journal.exclusive().unlock();
+    }
+  }
 
-      input.close();
-    } catch (IOException | ClassNotFoundException e) {
+  /**
+   * Replays the journal on top of the loaded checkpoint, then starts journaling new mutations. Must
+   * be called once the loaded data has been distributed to the classes that use it.
+   */
+  public void recover() {
+    acceptedCheckpointed = acceptedBuyCardPayment.size();
+    try {
+      journal.replayAndOpen(this, backend.getGeneration(), backend.getSequence());
+    } catch (IOException e) {
       e.printStackTrace();
-      initNew();
+    }
+    // Remove the outdated information before the data is first used, then once a day
+    removeOutdated();
+    background.scheduleWithFixedDelay(this::removeOutdated, 1, 1, TimeUnit.DAYS);
+    background.scheduleWithFixedDelay(
+            this::autosave, AUTOSAVE_MINUTES, AUTOSAVE_MINUTES, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Saves a checkpoint of the data changed since the last checkpoint and saves the station
+   * information, and waits until both are on disk.
+   */
+  public void checkpoint() throws IOException {
+    await(checkpointInBackground(null));
+  }
+
+  /**
+   * Saves a checkpoint of the data changed since the last checkpoint and saves the station
+   * information on a background thread. Mutations only wait while the data is captured, not while
+   * it is written; the cards and accounts they change are copied first.
+   *
+   * @param progress told how many cards and accounts have been written, may be null
+   * @return a future completed once the checkpoint is on disk
+   */
+  public CompletableFuture<Void> checkpointInBackground(SaveProgress progress) {
+    savesInProgress.incrementAndGet();
+    return CompletableFuture.runAsync(
+            () -> {
+              try {
+                checkpointData(progress);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              } finally {
+                savesInProgress.decrementAndGet();
+              }
+            },
+            background);
+  }
+
+  private void checkpointData(SaveProgress progress) throws IOException {
+    long generation = backend.nextGeneration();
+    int sequence = backend.nextSequence();
+    StoredData capture;
+    long version;
+    Set<String> changedCards = new HashSet<>();
+    Set<String> changedAccounts = new HashSet<>();
+    List<BuyCardPayment> newAccepted;
+    HashMap<String, String[]> subwayRoutes;
+    HashMap<String, String[]> busRoutes;
+    // No mutation may happen between capturing the data and marking the journal
+    Journal.exclusive().lock();
+    try {
+      saveFares();
+      // The routes are written after the lock is released, so they are copied like the data
+      subwayRoutes = new HashMap<>(SubwaySubTrip.getSubwayRoutes());
+      busRoutes = new HashMap<>(BusSubTrip.getBusRoutes());
+      adminUserAccount = AdminUserAccount.getDefaultAdmin();
+      capture =
+              StoredData.capture(
+                      allCards,
+                      allTransitUserAccounts,
+                      adminUserAccount,
+                      acceptedBuyCardPayment,
+                      pendingPayment,
+                      fareInfo,
+                      progress);
+      version = Journal.currentVersion();
+      for (Card card : allCards.values()) {
+        if (card.getVersion() > savedVersion) {
+          changedCards.add(card.getCardNumber());
+        }
+      }
+      for (Map.Entry<String, TransitUserAccount> account : allTransitUserAccounts.entrySet()) {
+        if (account.getValue().getVersion() > savedVersion) {
+          changedAccounts.add(account.getKey());
+        }
+      }
+      newAccepted =
+              new ArrayList<>(
+                      acceptedBuyCardPayment.subList(
+                              acceptedCheckpointed, acceptedBuyCardPayment.size()));
+      journal.beginCheckpoint(generation, sequence, capture);
+      acceptedCheckpointed = acceptedBuyCardPayment.size();
+    } finally {
+      Journal.exclusive().unlock();
+    }
+    try {
+      backend.save(capture, changedCards, changedAccounts, newAccepted);
+      journal.finishCheckpoint(backend.getGeneration(), backend.getSequence());
+      savedVersion = version;
+    } catch (IOException | RuntimeException e) {
+      Journal.exclusive().lock();
+      try {
+        journal.abortCheckpoint();
+        acceptedCheckpointed -= Math.min(newAccepted.size(), acceptedCheckpointed);
+      } finally {
+        Journal.exclusive().unlock();
+      }
+      throw e;
+    }
+    saveStations("Stations.txt", subwayRoutes, busRoutes);
+  }
+
+  /**
+   * Starts a background checkpoint unless one is already under way.
+   */
+  private void checkpointQuietly() {
+    if (savesInProgress.get() == 0) {
+      checkpointInBackground(null)
+              .exceptionally(
+                      e -> {
+                        e.printStackTrace();
+                        return null;
+                      });
+    }
+  }
+
+  /**
+   * Saves a checkpoint if anything changed since the last one.
+   */
+  private void autosave() {
+    if (journal.isDirty()) {
+      checkpointQuietly();
     }
   }
 
+  /**
+   * Saves a full snapshot of all data to filePath and saves the station information. Mutations
+   * wait until the snapshot is written.
+   *
+   * @param filePath the path of the snapshot
+   */
   public void saveToFile(String filePath) throws IOException {
-    OutputStream file = new FileOutputStream(filePath);
-    OutputStream buffer = new BufferedOutputStream(file);
-    ObjectOutput output = new ObjectOutputStream(buffer);
-    adminUserAccount = AdminUserAccount.getDefaultAdmin();
-    // Serialize the ArrayLists
-    output.writeObject(allCards);
-    output.writeObject(allTransitUserAccounts);
-    output.writeObject(adminUserAccount);
-    output.writeObject(acceptedBuyCardPayment);
-    output.writeObject(pendingPayment);
+    // Run after any background save, the backend saves one checkpoint at a time
+    await(
+            CompletableFuture.runAsync(
+                    () -> {
+                      try {
+                        saveFull(filePath);
+                      } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                      }
+                    },
+                    background));
+  }
+
+  private void saveFull(String filePath) throws IOException {
+    HashMap<String, String[]> subwayRoutes;
+    HashMap<String, String[]> busRoutes;
+    Journal.exclusive().lock();
+    try {
+      subwayRoutes = new HashMap<>(SubwaySubTrip.getSubwayRoutes());
+      busRoutes = new HashMap<>(BusSubTrip.getBusRoutes());
+      if (filePath.equals(backend.getPath())) {
+        backend.saveFull(currentData());
+        acceptedCheckpointed = acceptedBuyCardPayment.size();
+        savedVersion = Journal.currentVersion();
+        journal.reset(backend.getGeneration(), backend.getSequence());
+      } else {
+        SnapshotStorage.export(filePath, currentData());
+      }
+    } finally {
+      Journal.exclusive().unlock();
+    }
+    saveStations("Stations.txt", subwayRoutes, busRoutes);
+  }
+
+  /**
+   * Waits for a save and throws what it failed with.
+   */
+  private static void await(CompletableFuture<Void> save) throws IOException {
+    try {
+      save.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the data to be saved.
+   */
+  private StoredData currentData() {
     saveFares();
-    output.writeObject(fareInfo);
-    output.close();
-    saveStations("Stations.txt");
+    adminUserAccount = AdminUserAccount.getDefaultAdmin();
+    StoredData data = new StoredData();
+    data.cards = allCards;
+    data.accounts = allTransitUserAccounts;
+    data.admin = adminUserAccount;
+    data.accepted = acceptedBuyCardPayment;
+    data.pending = pendingPayment;
+    data.fares = fareInfo;
+    return data;
   }
 
   /**
-   * Saves the station information into a readable txt file.
+   * Saves the station information into a readable txt file. The routes are copies taken while no
+   * route was being changed, they are written on a background thread.
    *
    * @param filePath the path of the Station.txt path.
+   * @param subwayRoutes the subway routes to save.
+   * @param busRoutes the bus routes to save.
    */
-  private void saveStations(String filePath) throws IOException {
+  private void saveStations(
+          String filePath,
+          HashMap<String, String[]> subwayRoutes,
+          HashMap<String, String[]> busRoutes)
+          throws IOException {
     FileWriter fileWriter = new FileWriter(filePath);
     BufferedWriter writer = new BufferedWriter(fileWriter);
-    for (String route : SubwaySubTrip.getSubwayRoutes().keySet()) {
-      String[] thisRoute = SubwaySubTrip.getSubwayRoutes().get(route);
+    for (String route : subwayRoutes.keySet()) {
+      String[] thisRoute = subwayRoutes.get(route);
       writer.write(route + "(Subway)" + ": ");
       writer.write(String.join(" - ", thisRoute));
       writer.write(";");
       writer.write(System.lineSeparator());
     }
-    for (String route : BusSubTrip.getBusRoutes().keySet()) {
-      String[] thisRoute = BusSubTrip.getBusRoutes().get(route);
+    for (String route : busRoutes.keySet()) {
+      String[] thisRoute = busRoutes.get(route);
       writer.write(route + "(Bus)" + ": ");
       writer.write(String.join(" - ", thisRoute));
       writer.write(";");
@@ -183,4 +435,24 @@ public class DataSource {
   public HashMap<String, Double> getFareInfo() {
     return fareInfo;
   }
+
+  /**
+   * Returns the number of transactions, trips and payments removed as out of date so far.
+   */
+  public long getReclaimedHistory() {
+    return reclaimedHistory.get();
+  }
+
+  /**
+   * Is told the progress of a background save.
+   */
+  public interface SaveProgress {
+    /**
+     * Called on the saving thread as the cards and accounts are written.
+     *
+     * @param written the number of cards and accounts written so far
+     * @param total the number of cards and accounts to write
+     */
+    void update(int written, int total);
+  }
 }
@@ -0,0 +1,68 @@
+package TransitSystemClasses;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The number of stops on a shortest path between every two stations of a network. The distances
+ * are kept in one array indexed by the IDs of the two stations in the TransitGraph. The table is
+ * built with one breadth-first search from every station, run in parallel.
+ */
+class DistanceTable {
+  // The most stations a table is built for, the table of this many takes 32 MiB
+  static final int MAX_STATIONS = 4096;
+  // The distance between stations with no path between them
+  private static final short UNREACHABLE = -1;
+
+  private final TransitGraph graph;
+  private final int size;
+  // distances[from * size + to] is the distance from the station with ID from to the one with ID to
+  private final short[] distances;
+
+  /**
+   * Builds the table of the stations of graph. There must be at most MAX_STATIONS of them.
+   */
+  DistanceTable(TransitGraph graph) {
+    this.graph = graph;
+    size = graph.size();
+    distances = new short[size * size];
+    IntStream.range(0, size).parallel().forEach(this::search);
+  }
+
+  /**
+   * Fills in the distances from the station with ID from to every other station.
+   */
+  private void search(int from) {
+    int row = from * size;
+    Arrays.fill(distances, row, row + size, UNREACHABLE);
+    distances[row + from] = 0;
+    int[] queue = new int[size];
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = from;
+    while (head < tail) {
+      int station = queue[head++];
+      short next = (short) (distances[row + station] + 1);
+      for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+        int neighbour = graph.target(edge);
+        if (distances[row + neighbour] == UNREACHABLE) {
+          distances[row + neighbour] = next;
+          queue[tail++] = neighbour;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of stops on a shortest path from start to end, or -1 if there is no path
+   * between them or either is not a station of this table.
+   */
+  int distance(String start, String end) {
+    int from = graph.id(start);
+    int to = graph.id(end);
+    if (from < 0 || to < 0) {
+      return -1;
+    }
+    return distances[from * size + to];
+  }
+}
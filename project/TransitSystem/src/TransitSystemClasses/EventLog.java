@@ -0,0 +1,242 @@
+package TransitSystemClasses;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
+
+/**
+ * Writes the events of the transit system to the log files in the background. An event is only an
+ * event code and the fields of its message, which are put in a slot of a ring of slots made in
+ * advance. A background thread takes the events from the ring in order, formats their messages
+ * and passes them to the logger they were logged with, so logging never waits for a log file. The
+ * log files opened here are only flushed once there are no more events to write, then the
+ * background thread parks until the next event is logged.
+ *
+ * <p>Events below the level of the property transit.log.level (INFO by default) are dropped before
+ * anything is stored. When the ring is full, logging waits for the background thread to catch up
+ * rather than dropping events.
+ */
+public class EventLog {
+  private static final int CAPACITY = 8192;
+  private static final int MASK = CAPACITY - 1;
+  // How long logging sleeps when the ring is full
+  private static final long FULL_NANOS = 10_000;
+  private static final int FILE_BUFFER = 64 * 1024;
+
+  private static final Slot[] slots = new Slot[CAPACITY];
+  // The number of events ever started and ever written
+  private static final AtomicLong claimed = new AtomicLong();
+  private static final AtomicLong written = new AtomicLong();
+  private static volatile int threshold = Level.INFO.intValue();
+  // The handlers of the log files opened, flushed by the background thread
+  private static final CopyOnWriteArrayList<Handler> files = new CopyOnWriteArrayList<>();
+  // The background thread, and whether it is parked or about to park with nothing to write
+  private static final Thread writer = new Thread(EventLog::write, "event-log");
+  private static volatile boolean idle;
+
+  static {
+    for (int i = 0; i < CAPACITY; i++) {
+      slots[i] = new Slot();
+    }
+    String level = System.getProperty("transit.log.level");
+    if (level != null) {
+      try {
+        threshold = Level.parse(level).intValue();
+      } catch (IllegalArgumentException e) {
+        e.printStackTrace();
+      }
+    }
+    writer.setDaemon(true);
+    writer.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(EventLog::flush));
+  }
+
+  private EventLog() {
+  }
+
+  /**
+   * The events that can be logged, and their messages. In a message %1$s is the time of the event,
+   * %2$s the card, %3$s the text and %4$s the amount it was logged with.
+   */
+  enum Event {
+    MESSAGE(Level.INFO, "%3$s"),
+    CARD_MADE(Level.INFO, "New card %2$s is made."),
+    BALANCE_ADDED(Level.INFO, "%1$s: Card %2$s add%4$s to balance."),
+    PASS_PAID(Level.INFO, "%1$s: Card %2$s pay %4$s for a %3$s"),
+    FARE_PAID(Level.INFO, "%1$s: Card %2$s pay fare%4$s"),
+    LOW_BALANCE(Level.INFO, "%1$s: Card %2$s taps at station %3$s with low balance."),
+    SUSPENDED(Level.INFO, "%1$s: The suspended card %2$s taps at station %3$s"),
+    BUS_IN(Level.INFO, "%1$s: Card %2$s successfully taps into bus stop %3$s"),
+    BUS_IN_WITHOUT_EXIT(Level.INFO, "%1$s: Card %2$s taps into bus stop %3$s without exit."),
+    BUS_OUT(Level.INFO, "%1$s: Card %2$s successfully taps out of bus stop %3$s"),
+    BUS_OUT_WITHOUT_ENTRY(Level.INFO, "%1$s: Card %2$s taps out of bus stop %3$s without entry."),
+    BUS_OUT_OTHER_ROUTE(
+            Level.INFO, "%1$s: Card %2$s taps out of stop %3$s at a different route."),
+    SUBWAY_IN(Level.INFO, "%1$s: Card %2$s taps into subway station %3$s successfully"),
+    SUBWAY_IN_WITHOUT_EXIT(
+            Level.INFO, "%1$s: Card %2$s taps into subway station %3$s without exit"),
+    SUBWAY_OUT(Level.INFO, "%1$s: Card %2$s taps out subway station %3$s successfully."),
+    SUBWAY_OUT_WITHOUT_ENTRY(
+            Level.INFO, "%1$s: Card %2$s taps out of subway station %3$s without entry."),
+    SUBWAY_OUT_AT_BUS_STOP(
+            Level.INFO, "%1$s: Card %2$s taps out of station %3$s which is not a bus stop. ");
+
+    private final Level level;
+    private final String format;
+
+    Event(Level level, String format) {
+      this.level = level;
+      this.format = format;
+    }
+  }
+
+  /**
+   * Makes logger write to the end of the file with the given name, and only there.
+   */
+  static void open(Logger logger, String fileName) {
+    logger.setUseParentHandlers(false);
+    try {
+      Handler handler =
+              new StreamHandler(
+                      new BufferedOutputStream(new FileOutputStream(fileName, true), FILE_BUFFER),
+                      new SimpleFormatter());
+      logger.addHandler(handler);
+      files.add(handler);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Logs a message that is already formatted.
+   */
+  static void message(Logger logger, String message) {
+    log(logger, Event.MESSAGE, null, null, message, 0);
+  }
+
+  /**
+   * Logs an event of a card to logger.
+   *
+   * @param time   the time of the event, or null if it happens now
+   * @param card   the number of the card
+   * @param text   the station, stop or other text of the message, if any
+   * @param amount the amount of the message, if any
+   */
+  static void log(
+          Logger logger, Event event, LocalDateTime time, String card, String text, double amount) {
+    if (event.level.intValue() < threshold) {
+      return;
+    }
+    long sequence = claimed.getAndIncrement();
+    while (sequence - written.get() >= CAPACITY) {
+      LockSupport.parkNanos(FULL_NANOS);
+    }
+    Slot slot = slots[(int) sequence & MASK];
+    slot.logger = logger;
+    slot.event = event;
+    slot.clock = System.currentTimeMillis();
+    slot.time = time;
+    slot.card = card;
+    slot.text = text;
+    slot.amount = amount;
+    // Publishing the slot last lets the background thread see all of its fields
+    slot.sequence = sequence;
+    if (idle) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * Waits until every event logged before is written to its log file.
+   */
+  public static void flush() {
+    long last = claimed.get();
+    while (written.get() < last) {
+      LockSupport.parkNanos(FULL_NANOS);
+    }
+    flushFiles();
+  }
+
+  private static void flushFiles() {
+    for (Handler handler : files) {
+      handler.flush();
+    }
+  }
+
+  /**
+   * Writes the events of the ring in order, forever.
+   */
+  private static void write() {
+    long next = 0;
+    boolean unflushed = false;
+    while (true) {
+      Slot slot = slots[(int) next & MASK];
+      if (slot.sequence != next) {
+        if (unflushed) {
+          flushFiles();
+          unflushed = false;
+        }
+        // Logging reads idle after publishing its slot, so either it unparks this thread or the
+        // slot is seen here
+        idle = true;
+        if (slot.sequence != next) {
+          LockSupport.park();
+        }
+        idle = false;
+        continue;
+      }
+      try {
+        Instant instant = Instant.ofEpochMilli(slot.clock);
+        LocalDateTime time = slot.time;
+        if (time == null) {
+          time = LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+        }
+        LogRecord record =
+                new LogRecord(
+                        slot.event.level,
+                        String.format(slot.event.format, time, slot.card, slot.text, slot.amount));
+        record.setInstant(instant);
+        record.setLoggerName(slot.logger.getName());
+        // The class the event was logged from is the one named by its logger
+        record.setSourceClassName(slot.logger.getName());
+        slot.logger.log(record);
+      } catch (RuntimeException e) {
+        // An event that can't be written is skipped, the events after it are still written
+        e.printStackTrace();
+      }
+      slot.logger = null;
+      slot.time = null;
+      slot.card = null;
+      slot.text = null;
+      // The slot may be reused as soon as it is counted as written
+      written.set(++next);
+      unflushed = true;
+    }
+  }
+
+  /**
+   * An event in the ring. sequence is the number of the event in it, written last.
+   */
+  private static class Slot {
+    private volatile long sequence = -1;
+    private Logger logger;
+    private Event event;
+    private long clock;
+    private LocalDateTime time;
+    private String card;
+    private String text;
+    private double amount;
+  }
+}
@@ -0,0 +1,174 @@
+package TransitSystemClasses;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The fares charged for trips, made from the Fares table and the FareRules in effect. The rules
+ * are turned into tables once, a fare for every route, an extra fare for every station and a
+ * multiplier for every minute of the week, so charging a sub trip only looks up and adds numbers.
+ * A FarePolicy is made again whenever a fare or the rules change.
+ */
+public class FarePolicy {
+  private static final int MINUTES_PER_DAY = 24 * 60;
+  // The rows of the route table used for the routes without a rule
+  private static final int BUS = 0;
+  private static final int SUBWAY = 1;
+
+  private static FareRules rules = new FareRules();
+  private static volatile FarePolicy current = new FarePolicy(rules);
+
+  // The row of every route with a rule, and the fare of every row, paid once and for every station
+  private final HashMap<String, Integer> routeRows = new HashMap<>();
+  private final float[] routeFares;
+  // The extra fare of every station with a rule
+  private final HashMap<String, Float> stations;
+  // The multiplier of every minute of the week from Monday, null if there are no peaks
+  private final float[] multipliers;
+  private final float transferDiscount;
+  private final float tripCap;
+  private final float dailyCap;
+  private final float weeklyCap;
+  private final double fine;
+
+  private FarePolicy(FareRules rules) {
+    routeFares = new float[2 * (rules.routes.size() + 2)];
+    routeFares[2 * BUS] = (float) Fares.busFare.getFare();
+    routeFares[2 * SUBWAY + 1] = (float) Fares.subwayFare.getFare();
+    int row = 2;
+    for (Map.Entry<String, float[]> route : rules.routes.entrySet()) {
+      routeRows.put(route.getKey(), row);
+      routeFares[2 * row] = route.getValue()[0];
+      routeFares[2 * row + 1] = route.getValue()[1];
+      row++;
+    }
+    stations = rules.stations;
+    if (rules.peaks.isEmpty()) {
+      multipliers = null;
+    } else {
+      multipliers = new float[7 * MINUTES_PER_DAY];
+      Arrays.fill(multipliers, 1);
+      for (FareRules.Peak peak : rules.peaks) {
+        for (int day = 0; day < 7; day++) {
+          if (peak.days[day]) {
+            Arrays.fill(
+                    multipliers,
+                    day * MINUTES_PER_DAY + peak.start,
+                    day * MINUTES_PER_DAY + peak.end,
+                    peak.multiplier);
+          }
+        }
+      }
+    }
+    transferDiscount = rules.transferDiscount == null ? 0 : rules.transferDiscount;
+    tripCap = rules.tripCap == null ? (float) Fares.MAX_FARE.getFare() : rules.tripCap;
+    dailyCap = rules.dailyCap == null ? Float.POSITIVE_INFINITY : rules.dailyCap;
+    weeklyCap = rules.weeklyCap == null ? Float.POSITIVE_INFINITY : rules.weeklyCap;
+    fine = Fares.FINE.getFare();
+  }
+
+  /**
+   * Returns the fare policy in effect.
+   */
+  static FarePolicy current() {
+    return current;
+  }
+
+  /**
+   * Puts rules into effect on top of the Fares table.
+   */
+  public static synchronized void setRules(FareRules rules) {
+    FarePolicy.rules = rules;
+    current = new FarePolicy(rules);
+  }
+
+  /**
+   * Makes the policy again after a fare of the Fares table changed.
+   */
+  static synchronized void faresChanged() {
+    current = new FarePolicy(rules);
+  }
+
+  /**
+   * Returns the fare of a sub trip before transfers and caps: the fare of its route, paid once and
+   * for every station passed, and the extra fares of the stations it starts and ends at, all
+   * multiplied by the multiplier of the time it starts.
+   *
+   * @param subTrip  the sub trip
+   * @param stations the number of stations passed, 0 if the sub trip is paid when it starts
+   */
+  float baseFare(SubTrip subTrip, int stations) {
+    Integer row = routeRows.get(subTrip.getRouteName());
+    int index = 2 * (row != null ? row : subTrip instanceof SubwaySubTrip ? SUBWAY : BUS);
+    float fare = routeFares[index] + routeFares[index + 1] * stations;
+    if (!this.stations.isEmpty()) {
+      fare += stationFare(subTrip.getStartPoint());
+      if (!subTrip.isEnRoute()) {
+        fare += stationFare(subTrip.getEndPoint());
+      }
+    }
+    if (multipliers != null) {
+      LocalDateTime time = subTrip.getTimeStart();
+      int minute =
+              (time.getDayOfWeek().getValue() - 1) * MINUTES_PER_DAY
+                      + time.getHour() * 60
+                      + time.getMinute();
+      fare *= multipliers[minute];
+    }
+    return fare;
+  }
+
+  private float stationFare(String station) {
+    Float fare = stations.get(station);
+    return fare == null ? 0 : fare;
+  }
+
+  /**
+   * Returns what is charged for a sub trip with the given base fare, after the transfer discount
+   * and the caps of the trip, the day and the week.
+   *
+   * @param baseFare      the fare of the sub trip, see baseFare
+   * @param transfer      whether the sub trip continues a trip
+   * @param tripTotal     the amount paid for the trip so far
+   * @param spentToday    the amount paid with the card on the day so far
+   * @param spentThisWeek the amount paid with the card in the week so far
+   */
+  float charge(
+          float baseFare,
+          boolean transfer,
+          float tripTotal,
+          double spentToday,
+          double spentThisWeek) {
+    float fare = baseFare;
+    if (transfer) {
+      fare = Math.max(0, fare - transferDiscount);
+    }
+    if (tripTotal + fare > tripCap) {
+      fare = tripCap - tripTotal;
+    }
+    if (spentToday + fare > dailyCap) {
+      fare = (float) (dailyCap - spentToday);
+    }
+    if (spentThisWeek + fare > weeklyCap) {
+      fare = (float) (weeklyCap - spentThisWeek);
+    }
+    return Math.max(0, fare);
+  }
+
+  /**
+   * Returns whether there is a daily or weekly cap, that needs the amounts paid on a day and in a
+   * week.
+   */
+  boolean hasPeriodCaps() {
+    return dailyCap != Float.POSITIVE_INFINITY || weeklyCap != Float.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Returns the fine for abnormal use of a card.
+   */
+  double getFine() {
+    return fine;
+  }
+}
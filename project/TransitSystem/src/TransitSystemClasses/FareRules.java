@@ -0,0 +1,186 @@
+package TransitSystemClasses;
+
+import TransitSystemExceptions.FileReadException;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Scanner;
+
+/**
+ * Rules that change the fares of the Fares table: fares of single routes, extra fares at stations,
+ * times of day when fares are higher or lower, a discount for every transfer of a trip and caps on
+ * what is paid in a trip, a day and a week. FareRules are never changed once read.
+ */
+public class FareRules {
+  // The fare of a route, paid once and for every station, by the name of the route
+  final HashMap<String, float[]> routes = new HashMap<>();
+  // The fare added when a trip starts or ends at a station, by the name of the station
+  final HashMap<String, Float> stations = new HashMap<>();
+  // The times fares are multiplied, in the order they are read
+  final ArrayList<Peak> peaks = new ArrayList<>();
+  // The rules that are not given are null
+  Float transferDiscount;
+  Float tripCap;
+  Float dailyCap;
+  Float weeklyCap;
+
+  FareRules() {
+  }
+
+  /**
+   * Reads fare rules from filePath. Every line is one rule:
+   *
+   * <pre>
+   * Route Line 1: 0 + 0.5           a route costs 0 to enter and 0.5 for every station
+   * Station Union: 1                trips starting or ending at Union cost 1 more
+   * Peak Mon-Fri 07:00-09:30: 1.5   fares of trips starting then are multiplied by 1.5
+   * Transfer: 0.5                   every transfer of a trip costs 0.5 less
+   * Trip Cap: 6                     a trip costs at most 6, Daily Cap and Weekly Cap likewise
+   * </pre>
+   *
+   * Lines that are empty or start with # are skipped.
+   *
+   * @param filePath the path of the file that stores the rules
+   * @return the rules in the file
+   * @throws FileReadException if the file can't be read or a line is not a rule
+   */
+  public static FareRules read(String filePath) throws FileReadException {
+    FareRules rules = new FareRules();
+    Scanner content;
+    try {
+      content = new Scanner(new File(filePath));
+    } catch (IOException e) {
+      throw new FileReadException("Fare rules file missing.");
+    }
+    while (content.hasNextLine()) {
+      String thisLine = content.nextLine().trim();
+      if (thisLine.isEmpty() || thisLine.startsWith("#")) {
+        continue;
+      }
+      int columnIndex = thisLine.lastIndexOf(":");
+      if (columnIndex < 0) {
+        throw new FileReadException(String.format("%s: Not a fare rule!", thisLine));
+      }
+      String rule = thisLine.substring(0, columnIndex).trim();
+      String value = thisLine.substring(columnIndex + 1).trim();
+      String kind = rule.split("\\s+")[0].toLowerCase();
+      String name = rule.substring(kind.length()).trim();
+      if (kind.equals("route") && !name.isEmpty()) {
+        String[] parts = value.split("\\+");
+        if (parts.length != 2) {
+          throw new FileReadException(String.format("%s: Not a route fare!", thisLine));
+        }
+        rules.routes.put(name, new float[] {amount(parts[0]), amount(parts[1])});
+      } else if (kind.equals("station") && !name.isEmpty()) {
+        rules.stations.put(name, amount(value));
+      } else if (kind.equals("peak")) {
+        rules.peaks.add(peak(thisLine, name, amount(value)));
+      } else if (rule.equalsIgnoreCase("transfer")) {
+        rules.transferDiscount = amount(value);
+      } else if (rule.equalsIgnoreCase("trip cap")) {
+        rules.tripCap = amount(value);
+      } else if (rule.equalsIgnoreCase("daily cap")) {
+        rules.dailyCap = amount(value);
+      } else if (rule.equalsIgnoreCase("weekly cap")) {
+        rules.weeklyCap = amount(value);
+      } else {
+        throw new FileReadException(String.format("%s: Not a fare rule!", thisLine));
+      }
+    }
+    content.close();
+    return rules;
+  }
+
+  private static float amount(String text) throws FileReadException {
+    try {
+      float amount = Float.parseFloat(text.trim());
+      if (amount < 0 || Float.isNaN(amount) || Float.isInfinite(amount)) {
+        throw new NumberFormatException();
+      }
+      return amount;
+    } catch (NumberFormatException e) {
+      throw new FileReadException(String.format("%s: Not an amount!", text));
+    }
+  }
+
+  /**
+   * Reads the days and times of a peak, written as "Mon-Fri 07:00-09:30" or "Sat,Sun 10:00-18:00".
+   */
+  private static Peak peak(String line, String when, float multiplier) throws FileReadException {
+    String[] parts = when.split("\\s+");
+    if (parts.length != 2) {
+      throw new FileReadException(String.format("%s: Not a peak!", line));
+    }
+    boolean[] days = new boolean[7];
+    for (String range : parts[0].split(",")) {
+      String[] ends = range.split("-");
+      if (ends.length > 2) {
+        throw new FileReadException(String.format("%s: Not a peak!", line));
+      }
+      int first = day(ends[0]);
+      int last = day(ends[ends.length - 1]);
+      for (int day = first; ; day = (day + 1) % 7) {
+        days[day] = true;
+        if (day == last) {
+          break;
+        }
+      }
+    }
+    String[] times = parts[1].split("-");
+    if (times.length != 2) {
+      throw new FileReadException(String.format("%s: Not a peak!", line));
+    }
+    int start = minutes(times[0]);
+    int end = minutes(times[1]);
+    if (start >= end) {
+      throw new FileReadException(String.format("%s: A peak must end after it starts!", line));
+    }
+    return new Peak(days, start, end, multiplier);
+  }
+
+  /**
+   * Returns the index of a day written by its first three letters, 0 for Monday.
+   */
+  private static int day(String text) throws FileReadException {
+    for (DayOfWeek day : DayOfWeek.values()) {
+      if (text.length() >= 3 && day.name().startsWith(text.toUpperCase())) {
+        return day.ordinal();
+      }
+    }
+    throw new FileReadException(String.format("%s: Not a day!", text));
+  }
+
+  private static int minutes(String time) throws FileReadException {
+    String[] parts = time.split(":");
+    try {
+      int hours = Integer.parseInt(parts[0]);
+      int minutes = Integer.parseInt(parts[1]);
+      if (parts.length != 2 || hours < 0 || hours > 24 || minutes < 0 || minutes >= 60) {
+        throw new NumberFormatException();
+      }
+      return Math.min(hours * 60 + minutes, 24 * 60);
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      throw new FileReadException(String.format("%s: Not a time!", time));
+    }
+  }
+
+  /**
+   * The days and the minutes of the day, from start up to end, in which fares are multiplied.
+   */
+  static class Peak {
+    final boolean[] days;
+    final int start;
+    final int end;
+    final float multiplier;
+
+    private Peak(boolean[] days, int start, int end, float multiplier) {
+      this.days = days;
+      this.start = start;
+      this.end = end;
+      this.multiplier = multiplier;
+    }
+  }
+}
@@ -55,5 +55,6 @@ public enum Fares {
 
   public void setFare(double fare) {
     this.fare = fare;
+    FarePolicy.faresChanged();
   }
 }
@@ -0,0 +1,110 @@
+package TransitSystemClasses;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of the ints from 0 to a fixed capacity, each with an int priority. The heap
+ * and the priorities are kept in arrays, so nothing is boxed, and the priority of an int already in
+ * the heap can be lowered in place.
+ */
+class IntHeap {
+  private final int[] heap;
+  private final int[] priorities;
+  // Where every int is in the heap, -1 if it is not in it
+  private final int[] indices;
+  private int size;
+
+  IntHeap(int capacity) {
+    heap = new int[capacity];
+    priorities = new int[capacity];
+    indices = new int[capacity];
+    Arrays.fill(indices, -1);
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Adds item with the given priority, or lowers its priority if it is in the heap with a higher
+   * one.
+   */
+  void offer(int item, int priority) {
+    int index = indices[item];
+    if (index < 0) {
+      index = size++;
+      heap[index] = item;
+      indices[item] = index;
+    } else if (priorities[item] <= priority) {
+      return;
+    }
+    priorities[item] = priority;
+    siftUp(index);
+  }
+
+  /**
+   * Returns the item with the lowest priority without removing it.
+   */
+  int peek() {
+    return heap[0];
+  }
+
+  /**
+   * Removes every item.
+   */
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      indices[heap[i]] = -1;
+    }
+    size = 0;
+  }
+
+  /**
+   * Removes and returns the item with the lowest priority.
+   */
+  int poll() {
+    int item = heap[0];
+    indices[item] = -1;
+    size--;
+    if (size > 0) {
+      heap[0] = heap[size];
+      indices[heap[0]] = 0;
+      siftDown(0);
+    }
+    return item;
+  }
+
+  private void siftUp(int index) {
+    int item = heap[index];
+    while (index > 0) {
+      int parent = (index - 1) / 2;
+      if (priorities[heap[parent]] <= priorities[item]) {
+        break;
+      }
+      move(heap[parent], index);
+      index = parent;
+    }
+    move(item, index);
+  }
+
+  private void siftDown(int index) {
+    int item = heap[index];
+    while (2 * index + 1 < size) {
+      int child = 2 * index + 1;
+      if (child + 1 < size && priorities[heap[child + 1]] < priorities[heap[child]]) {
+        child++;
+      }
+      if (priorities[item] <= priorities[heap[child]]) {
+        break;
+      }
+      move(heap[child], index);
+      index = child;
+    }
+    move(item, index);
+  }
+
+  private void move(int item, int index) {
+    heap[index] = item;
+    indices[item] = index;
+  }
+}
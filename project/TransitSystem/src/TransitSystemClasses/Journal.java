@@ -0,0 +1,848 @@
+package TransitSystemClasses;
+
+import TransitSystemExceptions.CardNotFoundException;
+import TransitSystemExceptions.CardSuspendedException;
+import TransitSystemExceptions.LowBalanceException;
+import TransitSystemExceptions.TripEnRouteException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only write-ahead journal of every mutation made to the transit system since the last
+ * checkpoint written by DataSource. Each record is framed by its length and a CRC32 checksum so that
+ * a record torn by a crash is detected and dropped on replay.
+ *
+ * <p>The journal starts with a header naming the checkpoint (snapshot generation and delta
+ * sequence) its records apply on top of, so a journal that a newer checkpoint already covers is
+ * never replayed twice.
+ *
+ * <p>A checkpoint saved in the background starts with a CHECKPOINT record naming it. The records
+ * before it are dropped once the checkpoint is saved; if the program stops before the journal is
+ * rewritten, only the records after it are replayed on top of the new checkpoint.
+ */
+class Journal {
+
+  private static final int MAGIC = 0x4A524E4C;
+  private static final int HEADER_LENGTH = 16;
+
+  // fsync after this many records even if the sync timer has not fired yet
+  private static final int SYNC_BATCH = 64;
+  // the longest time an appended record waits before being forced to disk
+  private static final long SYNC_INTERVAL_MS = 50;
+  // compact the journal into a new checkpoint once it grows past this many bytes
+  private static final long COMPACT_THRESHOLD = 8 * 1024 * 1024;
+
+  // Mutations hold the read side so they may run together, checkpoints hold the write side so
+  // that a snapshot and the truncation of the journal see the same state.
+  private static final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+  // The journal that records are appended to, null until the DataSource has been recovered.
+  private static Journal active;
+  // Counts the changes to cards and accounts, a card or an account carries the count of its last
+  // change as its modification version
+  private static final AtomicLong versions = new AtomicLong();
+
+  /**
+   * The kinds of mutation recorded in the journal. The ordinal is written to disk, so new types
+   * must only be appended to the end.
+   */
+  enum RecordType {
+    ACCOUNT_CREATED,
+    ACCOUNT_RENAMED,
+    CARD_CREATED,
+    CARD_STATUS,
+    CARD_REMOVED,
+    TAP,
+    BALANCE_LOAD,
+    PASS_PURCHASE,
+    PAYMENT_FINALIZED,
+    FARE_CHANGE,
+    ADMIN_PASSWORD,
+    PAYMENT_CREATED,
+    CHECKPOINT,
+    // A tap with the amounts it charged, TAP records are only read from older journals
+    TAP_CHARGED
+  }
+
+  private final Path path;
+  private final Runnable compactor;
+  private final ScheduledExecutorService executor;
+  private FileChannel channel;
+  private DataOutputStream out;
+  // number of records written since the last fsync
+  private int unsynced;
+  private boolean compacting;
+  private boolean replaying;
+  // Whether anything was recorded since the last checkpoint
+  private boolean dirty;
+  // The data being saved in the background, null if there is none
+  private StoredData capture;
+  // Where the records that follow the capture start
+  private long captureEnd;
+
+  /**
+   * Creates a journal stored at filePath.
+   *
+   * @param filePath  the path of the journal file
+   * @param compactor the task that writes a new checkpoint and resets this journal
+   */
+  Journal(String filePath, Runnable compactor) {
+    this.path = Paths.get(filePath);
+    this.compactor = compactor;
+    this.executor =
+            Executors.newSingleThreadScheduledExecutor(
+                    r -> {
+                      Thread thread = new Thread(r, "journal-sync");
+                      thread.setDaemon(true);
+                      return thread;
+                    });
+  }
+
+  /**
+   * Replays all intact records of this journal on top of the data already recovered into source,
+   * then opens this journal for appending and makes it the active journal. The records are only
+   * replayed if they were written on top of the given checkpoint.
+   *
+   * @param source     the data source the records are applied to
+   * @param generation the generation of the snapshot that source was recovered from
+   * @param sequence   the sequence number of the last delta applied to source
+   * @return the number of records replayed
+   */
+  int replayAndOpen(DataSource source, long generation, int sequence) throws IOException {
+    int count = 0;
+    long validLength = 0;
+    File file = path.toFile();
+    active = this;
+    boolean stale = false;
+    // Where the records to keep start, after the header or after a CHECKPOINT record
+    long replayFrom = 0;
+    if (file.exists()) {
+      replaying = true;
+      try (DataInputStream in =
+                   new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+        int header = readHeader(in, generation, sequence);
+        ArrayList<byte[]> records = new ArrayList<>();
+        long position = HEADER_LENGTH;
+        if (header == FOLLOWS) {
+          replayFrom = position;
+        }
+        if (header != INVALID) {
+          byte[] payload;
+          while ((payload = readFrame(in)) != null) {
+            position += 8 + payload.length;
+            if (payload[0] != RecordType.CHECKPOINT.ordinal()) {
+              records.add(payload);
+            } else if (names(payload, generation, sequence)) {
+              // A checkpoint saved in the background, the records before it are in it
+              records.clear();
+              replayFrom = position;
+            }
+          }
+        }
+        if (replayFrom > 0) {
+          for (byte[] record : records) {
+            apply(record, source);
+            count++;
+          }
+          validLength = position;
+        } else {
+          stale = file.length() > HEADER_LENGTH;
+        }
+      } finally {
+        replaying = false;
+      }
+    }
+    if (stale) {
+      // Keep the records for manual recovery rather than throwing them away
+      Path aside = Paths.get(path + ".stale");
+      System.err.println("The journal does not follow the recovered checkpoint, moved to " + aside);
+      Files.move(path, aside, StandardCopyOption.REPLACE_EXISTING);
+    }
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    if (validLength == 0) {
+      writeHeader(generation, sequence);
+    } else if (replayFrom > HEADER_LENGTH) {
+      rewrite(replayFrom, validLength, generation, sequence);
+    } else {
+      // drop a torn record at the tail so new records follow the last intact one
+      channel.truncate(validLength);
+      channel.position(validLength);
+    }
+    executor.scheduleWithFixedDelay(
+            this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    return count;
+  }
+
+  // What readHeader found
+  private static final int INVALID = 0;
+  private static final int FOLLOWS = 1;
+  private static final int OTHER = 2;
+
+  /**
+   * Returns FOLLOWS if the journal header read from in names the given checkpoint, OTHER if it
+   * names another one, or INVALID if there is no header.
+   */
+  private static int readHeader(DataInputStream in, long generation, int sequence)
+          throws IOException {
+    try {
+      if (in.readInt() != MAGIC) {
+        return INVALID;
+      }
+      boolean follows = in.readLong() == generation;
+      return in.readInt() == sequence && follows ? FOLLOWS : OTHER;
+    } catch (EOFException e) {
+      return INVALID;
+    }
+  }
+
+  /**
+   * Returns whether a CHECKPOINT record names the given checkpoint.
+   */
+  private static boolean names(byte[] payload, long generation, int sequence) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 1, payload.length));
+    return in.readLong() == generation && in.readInt() == sequence;
+  }
+
+  /**
+   * Empties the journal and writes a header naming the checkpoint that new records follow.
+   */
+  private void writeHeader(long generation, int sequence) throws IOException {
+    out.flush();
+    channel.truncate(0);
+    channel.position(0);
+    out.writeInt(MAGIC);
+    out.writeLong(generation);
+    out.writeInt(sequence);
+    out.flush();
+    channel.force(true);
+    unsynced = 0;
+  }
+
+  /**
+   * Replaces the journal with a header naming the given checkpoint followed by the records between
+   * from and to, and leaves it open for appending.
+   */
+  private void rewrite(long from, long to, long generation, int sequence) throws IOException {
+    Path temp = Paths.get(path + ".tmp");
+    try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+         FileChannel target =
+                 FileChannel.open(
+                         temp,
+                         StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING,
+                         StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+      header.putInt(MAGIC).putLong(generation).putInt(sequence).flip();
+      while (header.hasRemaining()) {
+        target.write(header);
+      }
+      long position = from;
+      while (position < to) {
+        position += source.transferTo(position, to - position, target);
+      }
+      target.force(true);
+    }
+    if (channel != null) {
+      channel.close();
+    }
+    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    channel = FileChannel.open(path, StandardOpenOption.WRITE);
+    channel.position(channel.size());
+    out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    unsynced = 0;
+  }
+
+  /**
+   * Reads one framed record, returns null at the end of the journal or at the first record that is
+   * incomplete or fails its checksum.
+   */
+  private static byte[] readFrame(DataInputStream in) throws IOException {
+    int length;
+    int checksum;
+    try {
+      length = in.readInt();
+      checksum = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    if (length <= 0 || length > COMPACT_THRESHOLD) {
+      return null;
+    }
+    byte[] payload = new byte[length];
+    try {
+      in.readFully(payload);
+    } catch (EOFException e) {
+      return null;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    return (int) crc.getValue() == checksum ? payload : null;
+  }
+
+  /**
+   * Appends a framed record to the end of this journal. The record reaches the disk at the next
+   * batched fsync.
+   */
+  private synchronized void append(byte[] payload) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    out.writeInt(payload.length);
+    out.writeInt((int) crc.getValue());
+    out.write(payload);
+    unsynced++;
+    dirty = true;
+    if (unsynced >= SYNC_BATCH) {
+      sync();
+    }
+  }
+
+  /**
+   * Forces all appended records to disk and starts a compaction if the journal has grown too large.
+   */
+  synchronized void sync() throws IOException {
+    if (unsynced == 0) {
+      return;
+    }
+    out.flush();
+    channel.force(false);
+    unsynced = 0;
+    if (!compacting && channel.size() > COMPACT_THRESHOLD) {
+      compacting = true;
+      executor.execute(
+              () -> {
+                try {
+                  compactor.run();
+                } finally {
+                  synchronized (this) {
+                    compacting = false;
+                  }
+                }
+              });
+    }
+  }
+
+  private void syncQuietly() {
+    try {
+      sync();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Empties this journal after everything in it has been captured by a checkpoint. Must be called
+   * while holding the exclusive state lock.
+   *
+   * @param generation the generation of the latest snapshot
+   * @param sequence   the sequence number of the latest delta, 0 if there is none
+   */
+  synchronized void reset(long generation, int sequence) throws IOException {
+    dirty = false;
+    if (channel != null) {
+      writeHeader(generation, sequence);
+    }
+  }
+
+  /**
+   * Marks the start of a checkpoint of capture that is saved in the background. Until it is
+   * finished or aborted, cards and accounts are preserved in capture before they are changed. Must
+   * be called while holding the exclusive state lock.
+   *
+   * @param generation the generation of the checkpoint
+   * @param sequence   the sequence number of the checkpoint
+   */
+  synchronized void beginCheckpoint(long generation, int sequence, StoredData capture)
+          throws IOException {
+    if (channel != null) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream record = new DataOutputStream(bytes);
+      record.writeByte(RecordType.CHECKPOINT.ordinal());
+      record.writeLong(generation);
+      record.writeInt(sequence);
+      append(bytes.toByteArray());
+      sync();
+      captureEnd = channel.position();
+    }
+    dirty = false;
+    this.capture = capture;
+  }
+
+  /**
+   * Drops the records before the CHECKPOINT record once the checkpoint has been saved.
+   */
+  synchronized void finishCheckpoint(long generation, int sequence) throws IOException {
+    capture = null;
+    if (channel != null) {
+      out.flush();
+      rewrite(captureEnd, channel.position(), generation, sequence);
+    }
+  }
+
+  /**
+   * Keeps the records of a checkpoint that could not be saved.
+   */
+  synchronized void abortCheckpoint() {
+    capture = null;
+    dirty = true;
+  }
+
+  /**
+   * Returns whether anything was recorded since the last checkpoint.
+   */
+  synchronized boolean isDirty() {
+    return dirty;
+  }
+
+  /**
+   * Returns a new modification version, greater than all the versions before it.
+   */
+  static long nextVersion() {
+    return versions.incrementAndGet();
+  }
+
+  /**
+   * Returns the latest modification version.
+   */
+  static long currentVersion() {
+    return versions.get();
+  }
+
+  /**
+   * Notes that the card with cardNumber and the account with email are about to change, either may
+   * be null.
+   */
+  private static void touch(String cardNumber, String email) {
+    long version = nextVersion();
+    if (cardNumber != null) {
+      Card.markChanged(cardNumber, version);
+    }
+    if (email != null) {
+      TransitUserAccount.markChanged(email, version);
+    }
+    Journal journal = active;
+    if (journal == null) {
+      return;
+    }
+    StoredData capture;
+    synchronized (journal) {
+      capture = journal.capture;
+    }
+    if (capture != null) {
+      capture.preserve(cardNumber, email);
+    }
+  }
+
+  /**
+   * Starts a mutation of the transit system data. Mutations may run concurrently with each other
+   * but never with a checkpoint or with removing outdated information. Reads of card histories and
+   * accepted payments start the same way, so that outdated information is never removed while they
+   * iterate. Every call must be followed by a call to end once the mutation is done, in a finally
+   * block.
+   */
+  static void begin() {
+    stateLock.readLock().lock();
+  }
+
+  /**
+   * Ends a mutation or read started by begin, allowing checkpoints to proceed.
+   */
+  static void end() {
+    stateLock.readLock().unlock();
+  }
+
+  /**
+   * Returns the lock that is held while a snapshot is written and the journal is reset.
+   */
+  static ReentrantReadWriteLock.WriteLock exclusive() {
+    return stateLock.writeLock();
+  }
+
+  // Record writers, one per RecordType. They do nothing when there is no active journal or while
+  // the journal is being replayed.
+
+  static void accountCreated(String email, String firstName, String lastName, String hash) {
+    touch(null, email);
+    Record record = Record.start(RecordType.ACCOUNT_CREATED);
+    if (record != null) {
+      record.string(email).string(firstName).string(lastName).string(hash).commit();
+    }
+  }
+
+  static void accountRenamed(String email, String firstName, String lastName) {
+    touch(null, email);
+    Record record = Record.start(RecordType.ACCOUNT_RENAMED);
+    if (record != null) {
+      record.string(email).string(firstName).string(lastName).commit();
+    }
+  }
+
+  static void cardCreated(String email, String cardNumber) {
+    touch(cardNumber, email);
+    Record record = Record.start(RecordType.CARD_CREATED);
+    if (record != null) {
+      record.string(email).string(cardNumber).commit();
+    }
+  }
+
+  static void cardStatus(String cardNumber, boolean activated) {
+    touch(cardNumber, null);
+    Record record = Record.start(RecordType.CARD_STATUS);
+    if (record != null) {
+      record.string(cardNumber).bool(activated).commit();
+    }
+  }
+
+  static void cardRemoved(String email, String cardNumber) {
+    touch(cardNumber, email);
+    Record record = Record.start(RecordType.CARD_REMOVED);
+    if (record != null) {
+      record.string(email).string(cardNumber).commit();
+    }
+  }
+
+  /**
+   * Notes that the card with cardNumber is about to be tapped. The tap is recorded by tap once it
+   * is made, so that the amounts it charged are recorded with it.
+   */
+  static void tapping(String cardNumber) {
+    touch(cardNumber, null);
+  }
+
+  static void tap(
+          String cardNumber,
+          LocalDateTime time,
+          String station,
+          String route,
+          boolean in,
+          List<Double> charges) {
+    Record record = Record.start(RecordType.TAP_CHARGED);
+    if (record != null) {
+      record.string(cardNumber).time(time).string(station).string(route).bool(in);
+      record.integer(charges.size());
+      for (double charge : charges) {
+        record.number(charge);
+      }
+      record.commit();
+    }
+  }
+
+  static void balanceLoad(String cardNumber, double value) {
+    touch(cardNumber, null);
+    Record record = Record.start(RecordType.BALANCE_LOAD);
+    if (record != null) {
+      record.string(cardNumber).number(value).commit();
+    }
+  }
+
+  static void passPurchase(String cardNumber, LocalDateTime time, LocalDate start, int duration) {
+    touch(cardNumber, null);
+    Record record = Record.start(RecordType.PASS_PURCHASE);
+    if (record != null) {
+      record.string(cardNumber).time(time).date(start).integer(duration).commit();
+    }
+  }
+
+  static void paymentCreated(
+          String transactionId,
+          double value,
+          String creditCardHolder,
+          String cvv,
+          String creditCardNumber,
+          String email,
+          String cardNumber) {
+    Record record = Record.start(RecordType.PAYMENT_CREATED);
+    if (record != null) {
+      record
+              .string(transactionId)
+              .number(value)
+              .string(creditCardHolder)
+              .string(cvv)
+              .string(creditCardNumber)
+              .string(email)
+              .string(cardNumber)
+              .commit();
+    }
+  }
+
+  static void paymentFinalized(
+          String transactionId, boolean accepted, LocalDateTime time, String cardNumber) {
+    Record record = Record.start(RecordType.PAYMENT_FINALIZED);
+    if (record != null) {
+      record.string(transactionId).bool(accepted).time(time).string(cardNumber).commit();
+    }
+  }
+
+  static void fareChange(String fareName, double value) {
+    Record record = Record.start(RecordType.FARE_CHANGE);
+    if (record != null) {
+      record.string(fareName).number(value).commit();
+    }
+  }
+
+  static void adminPassword(String hash) {
+    Record record = Record.start(RecordType.ADMIN_PASSWORD);
+    if (record != null) {
+      record.string(hash).commit();
+    }
+  }
+
+  /**
+   * Applies a single journal record to source.
+   */
+  private static void apply(byte[] payload, DataSource source) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    RecordType type = RecordType.values()[in.readUnsignedByte()];
+    switch (type) {
+      case ACCOUNT_CREATED: {
+        String email = in.readUTF();
+        TransitUser user = new TransitUser(in.readUTF(), in.readUTF(), email, "");
+        user.restorePasswordHash(in.readUTF());
+        new TransitUserAccount(user);
+        touch(null, email);
+        break;
+      }
+      case ACCOUNT_RENAMED: {
+        TransitUserAccount account = source.getAllTransitUserAccounts().get(in.readUTF());
+        String firstName = in.readUTF();
+        String lastName = in.readUTF();
+        if (account != null) {
+          account.getAccountHolder().setName(firstName, lastName);
+          touch(null, account.getAccountHolder().getEmail());
+        }
+        break;
+      }
+      case CARD_CREATED: {
+        TransitUserAccount account = source.getAllTransitUserAccounts().get(in.readUTF());
+        String cardNumber = in.readUTF();
+        if (account != null) {
+          TransitUser holder = account.getAccountHolder();
+          holder.addCard(Card.restoreCard(holder.getEmail(), cardNumber));
+          touch(cardNumber, holder.getEmail());
+        }
+        break;
+      }
+      case CARD_STATUS: {
+        Card card = source.getAllCards().get(in.readUTF());
+        boolean activated = in.readBoolean();
+        if (card != null) {
+          card.setActivated(activated);
+        }
+        break;
+      }
+      case CARD_REMOVED: {
+        TransitUserAccount account = source.getAllTransitUserAccounts().get(in.readUTF());
+        Card card = source.getAllCards().get(in.readUTF());
+        if (account != null && card != null) {
+          try {
+            account.getAccountHolder().removeCard(card);
+          } catch (CardNotFoundException e) {
+            // already removed before the snapshot was taken
+          }
+        }
+        break;
+      }
+      case TAP:
+      case TAP_CHARGED: {
+        Card card = source.getAllCards().get(in.readUTF());
+        LocalDateTime time = readTime(in);
+        String station = in.readUTF();
+        String route = in.readUTF();
+        boolean tapIn = in.readBoolean();
+        // A TAP record doesn't have its charges, they are worked out again with the current fares
+        ArrayDeque<Double> charges = new ArrayDeque<>();
+        if (type == RecordType.TAP_CHARGED) {
+          for (int count = in.readInt(); count > 0; count--) {
+            charges.add(in.readDouble());
+          }
+        }
+        if (card != null) {
+          try {
+            card.replayTap(time, station, route, tapIn, charges);
+          } catch (LowBalanceException | CardSuspendedException | TripEnRouteException e) {
+            // the tap was rejected the same way when it was first recorded
+          }
+        }
+        break;
+      }
+      case BALANCE_LOAD: {
+        Card card = source.getAllCards().get(in.readUTF());
+        double value = in.readDouble();
+        if (card != null) {
+          card.addBalance(value);
+        }
+        break;
+      }
+      case PASS_PURCHASE: {
+        Card card = source.getAllCards().get(in.readUTF());
+        LocalDateTime time = readTime(in);
+        LocalDate start = LocalDate.ofEpochDay(in.readLong());
+        int duration = in.readInt();
+        if (card != null) {
+          try {
+            card.addTransitPass(time, TransitPass.makeTransitPass(start, duration));
+          } catch (LowBalanceException e) {
+            // the purchase was rejected the same way when it was first recorded
+          }
+        }
+        break;
+      }
+      case PAYMENT_FINALIZED: {
+        String transactionId = in.readUTF();
+        boolean accepted = in.readBoolean();
+        LocalDateTime time = readTime(in);
+        String cardNumber = in.readUTF();
+        Payment.restoreFinalize(transactionId, accepted, time, cardNumber);
+        break;
+      }
+      case FARE_CHANGE: {
+        Fares.valueOf(in.readUTF()).setFare(in.readDouble());
+        break;
+      }
+      case PAYMENT_CREATED: {
+        String transactionId = in.readUTF();
+        double value = in.readDouble();
+        String creditCardHolder = in.readUTF();
+        String cvv = in.readUTF();
+        String creditCardNumber = in.readUTF();
+        TransitUserAccount account = source.getAllTransitUserAccounts().get(in.readUTF());
+        Card card = source.getAllCards().get(in.readUTF());
+        Payment payment = null;
+        if (card != null) {
+          payment = new LoadValuePayment(value, creditCardHolder, cvv, creditCardNumber, card);
+        } else if (account != null) {
+          payment = new BuyCardPayment(creditCardHolder, cvv, creditCardNumber, account);
+        }
+        if (payment != null) {
+          payment.restoreTransactionId(transactionId);
+        }
+        break;
+      }
+      case ADMIN_PASSWORD: {
+        AdminUserAccount.getDefaultAdmin().restorePasswordHash(in.readUTF());
+        break;
+      }
+    }
+  }
+
+  private static LocalDateTime readTime(DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+  }
+
+  /**
+   * A single journal record being built before it is appended.
+   */
+  private static final class Record {
+    private final Journal journal;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    private final DataOutputStream data = new DataOutputStream(bytes);
+    private IOException failure;
+
+    private Record(Journal journal, RecordType type) {
+      this.journal = journal;
+      bytes.write(type.ordinal());
+    }
+
+    /**
+     * Returns a new record of the given type, or null if nothing should be recorded right now.
+     */
+    private static Record start(RecordType type) {
+      Journal journal = active;
+      if (journal == null || journal.replaying) {
+        return null;
+      }
+      return new Record(journal, type);
+    }
+
+    private Record string(String value) {
+      try {
+        data.writeUTF(value == null ? "" : value);
+      } catch (IOException e) {
+        failure = e;
+      }
+      return this;
+    }
+
+    private Record bool(boolean value) {
+      try {
+        data.writeBoolean(value);
+      } catch (IOException e) {
+        failure = e;
+      }
+      return this;
+    }
+
+    private Record integer(int value) {
+      try {
+        data.writeInt(value);
+      } catch (IOException e) {
+        failure = e;
+      }
+      return this;
+    }
+
+    private Record number(double value) {
+      try {
+        data.writeDouble(value);
+      } catch (IOException e) {
+        failure = e;
+      }
+      return this;
+    }
+
+    private Record date(LocalDate value) {
+      try {
+        data.writeLong(value.toEpochDay());
+      } catch (IOException e) {
+        failure = e;
+      }
+      return this;
+    }
+
+    private Record time(LocalDateTime value) {
+      try {
+        data.writeBoolean(value != null);
+        if (value != null) {
+          data.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+          data.writeInt(value.getNano());
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+      return this;
+    }
+
+    private void commit() {
+      try {
+        if (failure != null) {
+          throw failure;
+        }
+        journal.append(bytes.toByteArray());
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
@@ -0,0 +1,486 @@
+package TransitSystemClasses;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the data in a single file of records keyed by card number and email. Every checkpoint
+ * appends a record for each changed card and account and for each newly accepted payment, followed
+ * by a commit record with the rest of the data. A card or account is found through an index of
+ * its latest record, so it can be read or written on its own.
+ *
+ * <p>A commit record is only written once the records before it are on disk, and it carries a
+ * checksum, so records after the last complete commit are ignored. Once most of the file is taken
+ * by records that were replaced, the live records are copied to a new file which is atomically
+ * renamed into place.
+ *
+ * <p>Like the shards of a SnapshotStorage, the trips and transactions of a card are skipped at
+ * startup and paged in from its record when the card is first used.
+ */
+class KeyValueStorage implements StorageBackend {
+  private static final int MAGIC = 0x54534B56;
+  // The kinds of records
+  private static final byte CARD = 1;
+  private static final byte ACCOUNT = 2;
+  private static final byte ACCEPTED = 3;
+  private static final byte COMMIT = 4;
+  // Compact the file once it is this many times larger than its live records
+  private static final int COMPACT_RATIO = 2;
+  // Files smaller than this are never compacted
+  private static final long COMPACT_MIN_SIZE = 1 << 20;
+  // A record starts with its length and its kind
+  private static final int RECORD_HEADER = Integer.BYTES + 1;
+
+  // The path of the store
+  private final String filePath;
+  private FileChannel file;
+  // The end of the last commit, new records are appended here
+  private long end;
+  // The number of commits so far
+  private int sequence;
+  // The latest record of every card and every account
+  private final HashMap<String, Entry> cardRecords = new HashMap<>();
+  private final HashMap<String, Entry> accountRecords = new HashMap<>();
+  // The number of bytes taken by records that were not replaced
+  private long liveSize;
+  // The length of the last commit record, which is replaced by the next one
+  private int commitLength;
+
+  KeyValueStorage(String filePath) {
+    this.filePath = filePath;
+  }
+
+  @Override
+  public String getPath() {
+    return filePath;
+  }
+
+  /**
+   * Returns 1, the store only has one generation and every commit is a new sequence number in it.
+   */
+  @Override
+  public long getGeneration() {
+    return 1;
+  }
+
+  @Override
+  public int getSequence() {
+    return sequence;
+  }
+
+  @Override
+  public long nextGeneration() {
+    return 1;
+  }
+
+  @Override
+  public int nextSequence() {
+    return sequence + 1;
+  }
+
+  /**
+   * Reads the records of the store up to its last complete commit, and drops whatever follows.
+   */
+  @Override
+  public StoredData load() throws IOException {
+    Path path = Paths.get(filePath);
+    if (!Files.exists(path)) {
+      file = create(path);
+      end = Integer.BYTES;
+      return null;
+    }
+    file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+    file.read(magic, 0);
+    if (magic.position() < Integer.BYTES || magic.getInt(0) != MAGIC) {
+      throw new IOException(filePath + " is not a transit system store.");
+    }
+    StoredData data = new StoredData();
+    // The records read since the last commit
+    StoredData staged = new StoredData();
+    HashMap<String, Entry> stagedCards = new HashMap<>();
+    HashMap<String, Entry> stagedAccounts = new HashMap<>();
+    long stagedSize = 0;
+    long size = file.size();
+    end = Integer.BYTES;
+    long position = end;
+    while (position + RECORD_HEADER <= size) {
+      ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+      file.read(header, position);
+      int length = header.getInt(0);
+      byte kind = header.get(Integer.BYTES);
+      if (length < 1 || position + Integer.BYTES + length > size) {
+        break;
+      }
+      Entry entry = new Entry(position, Integer.BYTES + length);
+      position += entry.length;
+      if (kind == CARD) {
+        Card card = Card.decode(reader(entry, true));
+        staged.cards.put(card.getCardNumber(), card);
+        stagedCards.put(card.getCardNumber(), entry);
+      } else if (kind == ACCOUNT) {
+        TransitUserAccount account =
+                TransitUserAccount.decode(
+                        reader(entry, false),
+                        number -> staged.cards.getOrDefault(number, data.cards.get(number)));
+        String email = account.getAccountHolder().getEmail();
+        staged.accounts.put(email, account);
+        stagedAccounts.put(email, entry);
+      } else if (kind == ACCEPTED) {
+        staged.accepted.add((BuyCardPayment) Payment.decode(reader(entry, false)));
+        stagedSize += entry.length;
+      } else if (kind == COMMIT) {
+        BinaryCodec.Reader in = readCommit(entry);
+        if (in == null) {
+          break;
+        }
+        sequence = in.readVarInt();
+        readCommitted(in, staged);
+        data.apply(staged);
+        liveSize += stagedSize;
+        index(cardRecords, stagedCards);
+        index(accountRecords, stagedAccounts);
+        replaceCommit(entry);
+        staged.cards.clear();
+        staged.accounts.clear();
+        staged.accepted.clear();
+        stagedCards.clear();
+        stagedAccounts.clear();
+        stagedSize = 0;
+        end = position;
+      } else {
+        break;
+      }
+    }
+    // Drop a checkpoint that was cut off by a crash
+    file.truncate(end);
+    if (sequence == 0) {
+      return null;
+    }
+    // An account refers to its cards as they were when it was written, point it at the latest ones
+    for (TransitUserAccount account : data.accounts.values()) {
+      account
+              .getAccountHolder()
+              .getMyCards()
+              .replaceAll(x -> data.cards.getOrDefault(x.getCardNumber(), x));
+    }
+    data.relinkPayments();
+    return data;
+  }
+
+  /**
+   * Appends the changed cards and accounts and the new accepted payments, then commits them.
+   */
+  @Override
+  public void save(
+          StoredData data,
+          Set<String> changedCards,
+          Set<String> changedAccounts,
+          List<BuyCardPayment> newAccepted)
+          throws IOException {
+    long position = end;
+    HashMap<String, Entry> writtenCards = new HashMap<>();
+    HashMap<String, Entry> writtenAccounts = new HashMap<>();
+    data.expectWrites(changedCards.size() + changedAccounts.size());
+    for (String cardNumber : changedCards) {
+      Card card = data.cards.get(cardNumber);
+      if (card != null) {
+        Entry entry = append(file, position, CARD, out -> data.encode(card, out));
+        writtenCards.put(cardNumber, entry);
+        position += entry.length;
+      }
+    }
+    for (String email : changedAccounts) {
+      TransitUserAccount account = data.accounts.get(email);
+      if (account != null) {
+        Entry entry = append(file, position, ACCOUNT, out -> data.encode(account, out));
+        writtenAccounts.put(email, entry);
+        position += entry.length;
+      }
+    }
+    for (BuyCardPayment payment : newAccepted) {
+      Entry entry = append(file, position, ACCEPTED, payment::encode);
+      liveSize += entry.length;
+      position += entry.length;
+    }
+    // The commit must not reach the disk before the records it commits
+    file.force(false);
+    Entry commit = append(file, position, COMMIT, out -> writeCommitted(out, sequence + 1, data));
+    file.force(false);
+    sequence++;
+    end = commit.position + commit.length;
+    index(cardRecords, writtenCards);
+    index(accountRecords, writtenAccounts);
+    replaceCommit(commit);
+    // The cards that were written can be paged in from their new records
+    release(data, writtenCards);
+    if (end > COMPACT_MIN_SIZE && end > COMPACT_RATIO * liveSize) {
+      // The same commit, without the records it replaced
+      compact(data, sequence);
+    }
+  }
+
+  @Override
+  public void saveFull(StoredData data) throws IOException {
+    compact(data, sequence + 1);
+  }
+
+  /**
+   * Writes the live records to a new file, committed with the given number, and renames it over
+   * the store.
+   */
+  private void compact(StoredData data, int commitNumber) throws IOException {
+    Path path = Paths.get(filePath);
+    Path temp = Paths.get(filePath + ".tmp");
+    HashMap<String, Entry> cards = new HashMap<>();
+    HashMap<String, Entry> accounts = new HashMap<>();
+    long size;
+    Entry commit;
+    try (FileChannel compacted = create(temp)) {
+      long position = Integer.BYTES;
+      data.expectWrites(data.cards.size() + data.accounts.size());
+      for (Card card : data.cards.values()) {
+        Entry entry = append(compacted, position, CARD, out -> data.encode(card, out));
+        cards.put(card.getCardNumber(), entry);
+        position += entry.length;
+      }
+      for (Map.Entry<String, TransitUserAccount> account : data.accounts.entrySet()) {
+        Entry entry =
+                append(compacted, position, ACCOUNT, out -> data.encode(account.getValue(), out));
+        accounts.put(account.getKey(), entry);
+        position += entry.length;
+      }
+      for (BuyCardPayment payment : data.accepted) {
+        position += append(compacted, position, ACCEPTED, payment::encode).length;
+      }
+      compacted.force(false);
+      commit = append(compacted, position, COMMIT, out -> writeCommitted(out, commitNumber, data));
+      compacted.force(false);
+      size = commit.position + commit.length;
+    }
+    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    FileChannel previous = file;
+    file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    sequence = commitNumber;
+    end = size;
+    liveSize = end - Integer.BYTES;
+    commitLength = commit.length;
+    cardRecords.clear();
+    cardRecords.putAll(cards);
+    accountRecords.clear();
+    accountRecords.putAll(accounts);
+    release(data, cards);
+    if (previous != null) {
+      previous.close();
+    }
+  }
+
+  /**
+   * Lets the histories of the cards that were written be paged in from their new records.
+   */
+  private void release(StoredData data, Map<String, Entry> written) throws IOException {
+    for (Map.Entry<String, Entry> record : written.entrySet()) {
+      data.release(data.cards.get(record.getKey()), Card.decode(reader(record.getValue(), true)));
+    }
+  }
+
+  @Override
+  public Card findCard(String cardNumber) throws IOException {
+    Entry entry = cardRecords.get(cardNumber);
+    return entry == null ? null : Card.decode(reader(entry, false));
+  }
+
+  @Override
+  public TransitUserAccount findAccount(String email) throws IOException {
+    Entry entry = accountRecords.get(email);
+    if (entry == null) {
+      return null;
+    }
+    try {
+      return TransitUserAccount.decode(
+              reader(entry, false),
+              number -> {
+                try {
+                  return findCard(number);
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  @Override
+  public List<Path> listFiles() {
+    List<Path> files = new ArrayList<>();
+    if (Files.exists(Paths.get(filePath))) {
+      files.add(Paths.get(filePath));
+    }
+    return files;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (file != null) {
+      file.close();
+    }
+  }
+
+  /**
+   * Creates an empty store at path.
+   */
+  private static FileChannel create(Path path) throws IOException {
+    FileChannel channel =
+            FileChannel.open(
+                    path,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+    ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+    magic.putInt(0, MAGIC);
+    channel.write(magic, 0);
+    return channel;
+  }
+
+  /**
+   * Writes a record at the given position of channel and returns where it is. A commit record ends
+   * with the checksum of its content.
+   */
+  private static Entry append(
+          FileChannel channel, long position, byte kind, BinaryCodec.Content content)
+          throws IOException {
+    BinaryCodec.Writer out = new BinaryCodec.Writer();
+    content.writeTo(out);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream record = new DataOutputStream(bytes);
+    record.writeInt(0);
+    record.writeByte(kind);
+    out.writeTo(record);
+    if (kind == COMMIT) {
+      CRC32 crc = new CRC32();
+      crc.update(bytes.toByteArray(), RECORD_HEADER, bytes.size() - RECORD_HEADER);
+      record.writeInt((int) crc.getValue());
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+    buffer.putInt(0, buffer.limit() - Integer.BYTES);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+    return new Entry(position, buffer.limit());
+  }
+
+  /**
+   * Returns a Reader of the content of a record. The histories of cards are skipped if lazy, and
+   * paged in from the record later.
+   */
+  private BinaryCodec.Reader reader(Entry entry, boolean lazy) throws IOException {
+    long start = entry.position + RECORD_HEADER;
+    InputStream input =
+            new BufferedInputStream(
+                    Channels.newInputStream(file.position(start)),
+                    Math.min(entry.length, 8192));
+    return new BinaryCodec.Reader(input, lazy ? file::read : null, start);
+  }
+
+  /**
+   * Returns a Reader of the content of a commit record, or null if its checksum does not match.
+   */
+  private BinaryCodec.Reader readCommit(Entry entry) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(entry.length - RECORD_HEADER);
+    while (buffer.hasRemaining()) {
+      if (file.read(buffer, entry.position + RECORD_HEADER + buffer.position()) < 0) {
+        return null;
+      }
+    }
+    int contentLength = buffer.limit() - Integer.BYTES;
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), 0, contentLength);
+    if ((int) crc.getValue() != buffer.getInt(contentLength)) {
+      return null;
+    }
+    return new BinaryCodec.Reader(new ByteArrayInputStream(buffer.array(), 0, contentLength));
+  }
+
+  /**
+   * Writes everything but the cards, accounts and accepted payments to a commit record.
+   */
+  private static void writeCommitted(BinaryCodec.Writer out, int commit, StoredData data)
+          throws IOException {
+    out.writeVarInt(commit);
+    out.writeVarInt(data.fares.size());
+    for (Map.Entry<String, Double> fare : data.fares.entrySet()) {
+      out.writeWord(fare.getKey());
+      out.writeDouble(fare.getValue());
+    }
+    out.writeBoolean(data.admin != null);
+    if (data.admin != null) {
+      data.admin.encode(out);
+    }
+    out.writeVarInt(data.pending.size());
+    for (Payment payment : data.pending) {
+      payment.encode(out);
+    }
+  }
+
+  /**
+   * Reads what writeCommitted wrote after the commit number into data.
+   */
+  private static void readCommitted(BinaryCodec.Reader in, StoredData data) throws IOException {
+    data.fares = new HashMap<>();
+    int fareCount = in.readVarInt();
+    for (int i = 0; i < fareCount; i++) {
+      data.fares.put(in.readWord(), in.readDouble());
+    }
+    data.admin = in.readBoolean() ? AdminUserAccount.decode(in) : null;
+    data.pending = new ArrayList<>();
+    int pendingCount = in.readVarInt();
+    for (int i = 0; i < pendingCount; i++) {
+      data.pending.add(Payment.decode(in));
+    }
+  }
+
+  /**
+   * Points the index at the records that were just committed, and counts the records they replace
+   * as no longer live.
+   */
+  private void index(Map<String, Entry> records, Map<String, Entry> committed) {
+    for (Map.Entry<String, Entry> record : committed.entrySet()) {
+      Entry replaced = records.put(record.getKey(), record.getValue());
+      liveSize += record.getValue().length - (replaced == null ? 0 : replaced.length);
+    }
+  }
+
+  private void replaceCommit(Entry commit) {
+    liveSize += commit.length - commitLength;
+    commitLength = commit.length;
+  }
+
+  /**
+   * Where a record is in the file.
+   */
+  private static class Entry {
+    private final long position;
+    // The length of the whole record
+    private final int length;
+
+    private Entry(long position, int length) {
+      this.position = position;
+      this.length = length;
+    }
+  }
+}
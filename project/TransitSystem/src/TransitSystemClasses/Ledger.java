@@ -0,0 +1,135 @@
+package TransitSystemClasses;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.*;
+
+/**
+ * The amounts paid with a card by time. The amounts are kept in monthly partitions, so the amounts
+ * of a period can be found without looking at the others, and a whole month can be dropped at once
+ * when it expires.
+ */
+class Ledger extends AbstractMap<LocalDateTime, Double> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final TreeMap<YearMonth, TreeMap<LocalDateTime, Double>> months = new TreeMap<>();
+  private int size;
+
+  @Override
+  public Double put(LocalDateTime time, Double value) {
+    Double old = months.computeIfAbsent(YearMonth.from(time), x -> new TreeMap<>()).put(time, value);
+    if (old == null) {
+      size++;
+    }
+    return old;
+  }
+
+  @Override
+  public Double get(Object key) {
+    TreeMap<LocalDateTime, Double> month = monthOf(key);
+    return month == null ? null : month.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    TreeMap<LocalDateTime, Double> month = monthOf(key);
+    return month != null && month.containsKey(key);
+  }
+
+  private TreeMap<LocalDateTime, Double> monthOf(Object key) {
+    if (!(key instanceof LocalDateTime)) {
+      return null;
+    }
+    return months.get(YearMonth.from((LocalDateTime) key));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Set<Entry<LocalDateTime, Double>> entrySet() {
+    return new AbstractSet<Entry<LocalDateTime, Double>>() {
+      @Override
+      public Iterator<Entry<LocalDateTime, Double>> iterator() {
+        return new Entries();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Returns the sum of the amounts paid between the start and the end date (inclusive).
+   */
+  double sumBetween(LocalDate start, LocalDate end) {
+    double sum = 0;
+    for (TreeMap<LocalDateTime, Double> month :
+            months.subMap(YearMonth.from(start), true, YearMonth.from(end), true).values()) {
+      for (double value :
+              month.subMap(start.atStartOfDay(), end.plusDays(1).atStartOfDay()).values()) {
+        sum += value;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Drops the months before the given month. Returns the number of amounts dropped.
+   */
+  int dropBefore(YearMonth month) {
+    SortedMap<YearMonth, TreeMap<LocalDateTime, Double>> expired = months.headMap(month);
+    int dropped = 0;
+    for (TreeMap<LocalDateTime, Double> expiredMonth : expired.values()) {
+      dropped += expiredMonth.size();
+    }
+    expired.clear();
+    size -= dropped;
+    return dropped;
+  }
+
+  /**
+   * Iterates over the amounts in time order, month by month. A month emptied through the iterator
+   * is left in place until it expires.
+   */
+  private class Entries implements Iterator<Entry<LocalDateTime, Double>> {
+    private final Iterator<TreeMap<LocalDateTime, Double>> monthIterator =
+            months.values().iterator();
+    private Iterator<Entry<LocalDateTime, Double>> entryIterator = Collections.emptyIterator();
+    // The iterator that returned the last entry
+    private Iterator<Entry<LocalDateTime, Double>> last;
+
+    @Override
+    public boolean hasNext() {
+      while (!entryIterator.hasNext() && monthIterator.hasNext()) {
+        entryIterator = monthIterator.next().entrySet().iterator();
+      }
+      return entryIterator.hasNext();
+    }
+
+    @Override
+    public Entry<LocalDateTime, Double> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = entryIterator;
+      return entryIterator.next();
+    }
+
+    @Override
+    public void remove() {
+      if (last == null) {
+        throw new IllegalStateException();
+      }
+      last.remove();
+      last = null;
+      size--;
+    }
+  }
+}
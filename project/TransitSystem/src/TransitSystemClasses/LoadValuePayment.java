@@ -1,13 +1,22 @@
 package TransitSystemClasses;
 
-import java.util.logging.Level;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 
 /**
  * A payment for loading fund to a Card.
  */
 public class LoadValuePayment extends Payment {
-  // The Card to load value on.
-  private Card card;
+  private static final long serialVersionUID = -5726795527969644613L;
+  // Written with Java serialization with the card itself, as earlier versions did
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("card", Card.class)
+  };
+  // The Card to load value on, looked up again by cardNumber after loading.
+  private transient Card card;
+  private String cardNumber;
 
   /**
    * Creates a new loadValue payment of the give value with the given credit card information for
@@ -17,8 +26,31 @@ public class LoadValuePayment extends Payment {
           double value, String creditCardHolder, String cvv, String creditCardNumber, Card card) {
     super(value, creditCardHolder, cvv, creditCardNumber);
     this.card = card;
-    logger.log(
-            Level.INFO, "The following payment is created" + System.lineSeparator() + this.toString());
+    this.cardNumber = card.getCardNumber();
+    journalCreation(null, card.getCardNumber());
+    EventLog.message(
+            logger, "The following payment is created" + System.lineSeparator() + this.toString());
+  }
+
+  LoadValuePayment(BinaryCodec.Reader in) throws IOException {
+    super(in);
+    this.cardNumber = in.readText();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    card = (Card) in.readFields().get("card", null);
+    cardNumber = card.getCardNumber();
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("card", card);
+    out.writeFields();
+  }
+
+  @Override
+  void encodeDetails(BinaryCodec.Writer out) throws IOException {
+    out.writeText(cardNumber);
   }
 
   @Override
@@ -26,6 +58,16 @@ public class LoadValuePayment extends Payment {
     this.card.addBalance(getValue());
   }
 
+  @Override
+  String getCardNumber() {
+    return cardNumber;
+  }
+
+  @Override
+  void relink(StoredData data) {
+    this.card = data.cards.get(cardNumber);
+  }
+
   // No additional operation is needed when rejecting a payment
   @Override
   public void reject() {
@@ -35,6 +77,6 @@ public class LoadValuePayment extends Payment {
   public String toString() {
     return super.toString()
             + System.lineSeparator()
-            + String.format("The fund is loading to card %s", card.getCardNumber());
+            + String.format("The fund is loading to card %s", cardNumber);
   }
 }
@@ -0,0 +1,97 @@
+package TransitSystemClasses;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The transit passes of a card, in the order they start. The period around the last date checked
+ * in which the answer stays the same is remembered, either the days a pass is valid or the days
+ * until the next pass starts, so checking a pass on every fare is usually a comparison of dates.
+ * Passes that have expired are dropped all at once when the period has to be found again.
+ */
+class PassSchedule implements Iterable<TransitPass>, Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final ArrayList<TransitPass> passes = new ArrayList<>();
+  // The days from validFrom up to validUntil have a valid pass if covered, and none otherwise.
+  // validFrom is null if no period is known.
+  private transient LocalDate validFrom;
+  private transient LocalDate validUntil;
+  private transient boolean covered;
+
+  /**
+   * Adds a pass, after the passes that start before it or on the same day.
+   */
+  void add(TransitPass pass) {
+    int index = passes.size();
+    while (index > 0 && passes.get(index - 1).getStartTime().isAfter(pass.getStartTime())) {
+      index--;
+    }
+    passes.add(index, pass);
+    validFrom = null;
+  }
+
+  /**
+   * Returns whether a pass is valid on the given date.
+   */
+  boolean isValid(LocalDate date) {
+    if (validFrom == null || date.isBefore(validFrom) || !date.isBefore(validUntil)) {
+      findPeriod(date);
+    }
+    return covered;
+  }
+
+  /**
+   * Returns the passes valid on the given date, in the order they start.
+   */
+  List<TransitPass> validAt(LocalDate date) {
+    ArrayList<TransitPass> result = new ArrayList<>();
+    for (TransitPass pass : passes) {
+      if (pass.getStartTime().isAfter(date)) {
+        break;
+      }
+      if (pass.isValid(date)) {
+        result.add(pass);
+      }
+    }
+    return result;
+  }
+
+  int size() {
+    return passes.size();
+  }
+
+  @Override
+  public Iterator<TransitPass> iterator() {
+    return passes.iterator();
+  }
+
+  /**
+   * Finds the period around date in which the passes valid don't change, and drops the passes
+   * that expired before date.
+   */
+  private void findPeriod(LocalDate date) {
+    passes.removeIf(pass -> !pass.getEndTime().isAfter(date));
+    validFrom = date;
+    validUntil = LocalDate.MAX;
+    covered = false;
+    for (TransitPass pass : passes) {
+      if (pass.getStartTime().isAfter(date)) {
+        // The next pass to start ends the period without a pass
+        if (!covered) {
+          validUntil = pass.getStartTime();
+        }
+        break;
+      }
+      // Every pass left has started and not expired, the one lasting longest gives the period
+      if (!covered || pass.getEndTime().isAfter(validUntil)) {
+        validFrom = pass.getStartTime();
+        validUntil = pass.getEndTime();
+        covered = true;
+      }
+    }
+  }
+}
@@ -11,20 +11,14 @@ import java.util.logging.*;
  * A Payment via a credit card that needs to be confirmed by an AdminUser
  */
 public abstract class Payment implements Serializable {
+  private static final long serialVersionUID = 6107209451657731111L;
+
   static final Logger logger = Logger.getLogger(Payment.class.getName());
   private static ArrayList<Payment> pendingPayment;
 
   // Initialize logger to record activities of Payment creation, confirmation and rejection.
   static {
-    logger.setUseParentHandlers(false);
-    try {
-      Handler fileHandler = new FileHandler("PaymentLog.txt", true);
-      logger.addHandler(fileHandler);
-      SimpleFormatter formatter = new SimpleFormatter();
-      fileHandler.setFormatter(formatter);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    EventLog.open(logger, "PaymentLog.txt");
   }
 
   private String creditCardNumber;
@@ -53,6 +47,51 @@ public abstract class Payment implements Serializable {
     this.value = value;
   }
 
+  /**
+   * Reads the fields common to all payments written by encode.
+   */
+  Payment(BinaryCodec.Reader in) throws IOException {
+    this.transactionId = in.readText();
+    this.value = in.readDouble();
+    this.creditCardHolder = in.readText();
+    this.cvv = in.readText();
+    this.creditCardNumber = in.readText();
+    this.isPending = in.readBoolean();
+    this.isAccept = in.readBoolean();
+    this.time = in.readTime();
+  }
+
+  /**
+   * Writes this payment to out. The card or account it refers to is written by key only.
+   */
+  void encode(BinaryCodec.Writer out) throws IOException {
+    out.writeBoolean(this instanceof BuyCardPayment);
+    out.writeText(transactionId);
+    out.writeDouble(value);
+    out.writeText(creditCardHolder);
+    out.writeText(cvv);
+    out.writeText(creditCardNumber);
+    out.writeBoolean(isPending);
+    out.writeBoolean(isAccept);
+    out.writeTime(time);
+    encodeDetails(out);
+  }
+
+  /**
+   * Writes the fields specific to this kind of payment.
+   */
+  abstract void encodeDetails(BinaryCodec.Writer out) throws IOException;
+
+  /**
+   * Reads a payment written by encode. The payment must be relinked before it is used.
+   */
+  static Payment decode(BinaryCodec.Reader in) throws IOException {
+    if (in.readBoolean()) {
+      return new BuyCardPayment(in);
+    }
+    return new LoadValuePayment(in);
+  }
+
   /**
    * Confirms the Payment with the given transaction.
    */
@@ -82,13 +121,19 @@ public abstract class Payment implements Serializable {
    * Finalizes the confirm operation, including change the attribute of this payment properly.
    */
   private void confirmFinalize() {
-    confirm();
-    pendingPayment.remove(this);
-    isAccept = true;
-    isPending = false;
-    this.time = LocalDateTime.now();
-    logger.log(
-            Level.INFO,
+    Journal.begin();
+    try {
+      confirm();
+      pendingPayment.remove(this);
+      isAccept = true;
+      isPending = false;
+      this.time = LocalDateTime.now();
+      Journal.paymentFinalized(transactionId, true, time, getCardNumber());
+    } finally {
+      Journal.end();
+    }
+    EventLog.message(
+            logger,
             "The following payment is accepted." + System.lineSeparator() + this.toString());
   }
 
@@ -96,15 +141,92 @@ public abstract class Payment implements Serializable {
    * Finalizes the reject operation, including change the attribute of this payment properly.
    */
   private void rejectFinalize() {
-    reject();
-    pendingPayment.remove(this);
-    isAccept = false;
-    isPending = false;
-    logger.log(
-            Level.INFO,
+    Journal.begin();
+    try {
+      reject();
+      pendingPayment.remove(this);
+      isAccept = false;
+      isPending = false;
+      Journal.paymentFinalized(transactionId, false, null, getCardNumber());
+    } finally {
+      Journal.end();
+    }
+    EventLog.message(
+            logger,
             "The following payment is rejected." + System.lineSeparator() + this.toString());
   }
 
+  /**
+   * Marks the pending payment with transactionId as confirmed or rejected while the journal is
+   * replayed. The effects of the confirmation were journaled separately, so they are not repeated.
+   *
+   * @param transactionId the id of the payment
+   * @param accepted      whether the payment was confirmed
+   * @param time          the time of the confirmation
+   * @param cardNumber    the card the payment was for
+   */
+  static void restoreFinalize(
+          String transactionId, boolean accepted, LocalDateTime time, String cardNumber) {
+    Payment payment =
+            pendingPayment
+                    .stream()
+                    .filter(x -> x.transactionId.equals(transactionId))
+                    .findFirst()
+                    .orElse(null);
+    if (payment == null) {
+      return;
+    }
+    pendingPayment.remove(payment);
+    payment.isAccept = accepted;
+    payment.isPending = false;
+    if (accepted) {
+      payment.time = time;
+      payment.restoreConfirm(cardNumber);
+    }
+  }
+
+  String getTransactionId() {
+    return transactionId;
+  }
+
+  /**
+   * Gives this payment the id it had when it was first created, used when replaying the journal.
+   */
+  void restoreTransactionId(String transactionId) {
+    this.transactionId = transactionId;
+  }
+
+  /**
+   * Records the creation of this payment in the journal.
+   *
+   * @param email      the account buying a card, or null
+   * @param cardNumber the card being loaded, or null
+   */
+  void journalCreation(String email, String cardNumber) {
+    Journal.paymentCreated(
+            transactionId, value, creditCardHolder, cvv, creditCardNumber, email, cardNumber);
+  }
+
+  /**
+   * Returns the number of the card this payment is for, or null if it is not known yet.
+   */
+  abstract String getCardNumber();
+
+  /**
+   * Looks up the card or account this payment refers to in data. They are not saved along with the
+   * payment so that a payment can be saved without the objects it refers to.
+   */
+  void relink(StoredData data) {
+  }
+
+  /**
+   * Restores the bookkeeping of a confirmation without repeating its effect on cards or accounts.
+   *
+   * @param cardNumber the card the payment was for
+   */
+  void restoreConfirm(String cardNumber) {
+  }
+
   /**
    * The operation when this payment is confirmed.
    */
@@ -0,0 +1,290 @@
+package TransitSystemClasses;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the journey through a TransitGraph that arrives the earliest, riding the trips of a
+ * Timetable. The trips of a route in one direction make a pattern: the stations the route passes
+ * in that direction and the trips along them, sorted by the time they leave the first station.
+ * Trips of a pattern are assumed not to overtake each other, so the trips leaving any one station
+ * are sorted as well.
+ *
+ * <p>A query is answered in rounds, round k finding the earliest arrival at every station with k
+ * trips: it rides every pattern through a station reached in the round before, on the earliest
+ * trip that can be caught there. Everything is kept in flat arrays indexed by pattern, trip and
+ * station.
+ */
+class Raptor {
+  // The most trips a journey takes
+  static final int MAX_ROUNDS = 8;
+  private static final int NEVER = Integer.MAX_VALUE;
+
+  private final TransitGraph graph;
+  // The stations of pattern p are patternStations[patternOffsets[p]] to
+  // patternStations[patternOffsets[p + 1] - 1], in the order it passes them
+  private final int[] patternOffsets;
+  private final int[] patternStations;
+  private final int[] patternRoutes;
+  // The trips of pattern p are tripOffsets[p] to tripOffsets[p + 1] - 1, trip t is a trip of
+  // pattern tripPatterns[t] and leaves the i-th station of it at times[timeOffsets[t] + i]
+  private final int[] tripOffsets;
+  private final int[] tripPatterns;
+  private final int[] timeOffsets;
+  private final int[] times;
+  // The patterns through station s, and the index of s in each, are stopPatterns[stopOffsets[s]]
+  // and stopIndices[stopOffsets[s]] to the ones before stopOffsets[s + 1]
+  private final int[] stopOffsets;
+  private final int[] stopPatterns;
+  private final int[] stopIndices;
+
+  /**
+   * Builds the patterns of the routes of graph from the trips of timetable. Trips that don't leave
+   * every station of their route are left out.
+   */
+  Raptor(TransitGraph graph, Timetable timetable) {
+    this.graph = graph;
+    ArrayList<int[]> stations = new ArrayList<>();
+    ArrayList<Integer> routes = new ArrayList<>();
+    ArrayList<List<int[]>> trips = new ArrayList<>();
+    for (int route = 0; route < graph.routeCount(); route++) {
+      int first = graph.firstPosition(route);
+      int length = graph.endPosition(route) - first;
+      for (int direction = 0; direction < 2; direction++) {
+        ArrayList<int[]> patternTrips = new ArrayList<>();
+        for (int[] trip : timetable.getTrips(graph.routeName(route), direction == 0)) {
+          if (trip.length == length) {
+            patternTrips.add(trip);
+          }
+        }
+        if (patternTrips.isEmpty()) {
+          continue;
+        }
+        patternTrips.sort((a, b) -> Integer.compare(a[0], b[0]));
+        int[] patternStops = new int[length];
+        for (int i = 0; i < length; i++) {
+          int position = direction == 0 ? first + i : first + length - 1 - i;
+          patternStops[i] = graph.positionStation(position);
+        }
+        stations.add(patternStops);
+        routes.add(route);
+        trips.add(patternTrips);
+      }
+    }
+
+    int patterns = stations.size();
+    patternOffsets = new int[patterns + 1];
+    tripOffsets = new int[patterns + 1];
+    patternRoutes = new int[patterns];
+    for (int p = 0; p < patterns; p++) {
+      patternOffsets[p + 1] = patternOffsets[p] + stations.get(p).length;
+      tripOffsets[p + 1] = tripOffsets[p] + trips.get(p).size();
+      patternRoutes[p] = routes.get(p);
+    }
+    patternStations = new int[patternOffsets[patterns]];
+    timeOffsets = new int[tripOffsets[patterns]];
+    tripPatterns = new int[tripOffsets[patterns]];
+    int timeCount = 0;
+    for (int p = 0; p < patterns; p++) {
+      System.arraycopy(
+              stations.get(p), 0, patternStations, patternOffsets[p], stations.get(p).length);
+      timeCount += stations.get(p).length * trips.get(p).size();
+    }
+    times = new int[timeCount];
+    int filled = 0;
+    for (int p = 0; p < patterns; p++) {
+      for (int t = 0; t < trips.get(p).size(); t++) {
+        int[] trip = trips.get(p).get(t);
+        timeOffsets[tripOffsets[p] + t] = filled;
+        tripPatterns[tripOffsets[p] + t] = p;
+        System.arraycopy(trip, 0, times, filled, trip.length);
+        filled += trip.length;
+      }
+    }
+
+    // Count the stops at every station, then fill them in
+    stopOffsets = new int[graph.size() + 1];
+    for (int station : patternStations) {
+      stopOffsets[station + 1]++;
+    }
+    for (int station = 0; station < graph.size(); station++) {
+      stopOffsets[station + 1] += stopOffsets[station];
+    }
+    stopPatterns = new int[patternStations.length];
+    stopIndices = new int[patternStations.length];
+    int[] fill = Arrays.copyOf(stopOffsets, graph.size());
+    for (int p = 0; p < patterns; p++) {
+      for (int i = patternOffsets[p]; i < patternOffsets[p + 1]; i++) {
+        int station = patternStations[i];
+        stopPatterns[fill[station]] = p;
+        stopIndices[fill[station]++] = i - patternOffsets[p];
+      }
+    }
+  }
+
+  /**
+   * Returns the journey from the station from to the station to that arrives the earliest, leaving
+   * from no earlier than departure minutes after midnight, and of those the one with the fewest
+   * trips. Returns null if to can't be reached.
+   */
+  RoutePlan earliestArrival(int from, int to, int departure) {
+    int size = graph.size();
+    int patterns = patternRoutes.length;
+    // The earliest arrival at every station in any round
+    int[] best = new int[size];
+    Arrays.fill(best, NEVER);
+    best[from] = departure;
+    // For every round, the arrival at every station it improved, the trip it arrived on and the
+    // indices of the stations the trip was boarded and left at in its pattern
+    ArrayList<int[]> arrivals = new ArrayList<>();
+    ArrayList<int[]> rideTrips = new ArrayList<>();
+    ArrayList<int[]> boardIndices = new ArrayList<>();
+    ArrayList<int[]> alightIndices = new ArrayList<>();
+    int[] start = new int[size];
+    Arrays.fill(start, NEVER);
+    start[from] = departure;
+    arrivals.add(start);
+    boolean[] marked = new boolean[size];
+    marked[from] = true;
+    // The first index of every pattern at a station marked in the round before, -1 if none
+    int[] scanFrom = new int[patterns];
+    int bestRound = -1;
+    for (int round = 1; round <= MAX_ROUNDS; round++) {
+      Arrays.fill(scanFrom, -1);
+      boolean any = false;
+      for (int station = 0; station < size; station++) {
+        if (!marked[station]) {
+          continue;
+        }
+        marked[station] = false;
+        for (int i = stopOffsets[station]; i < stopOffsets[station + 1]; i++) {
+          int p = stopPatterns[i];
+          if (scanFrom[p] < 0 || stopIndices[i] < scanFrom[p]) {
+            scanFrom[p] = stopIndices[i];
+            any = true;
+          }
+        }
+      }
+      if (!any) {
+        break;
+      }
+      int[] previous = arrivals.get(round - 1);
+      int[] arrival = new int[size];
+      int[] rideTrip = new int[size];
+      int[] boardIndex = new int[size];
+      int[] alightIndex = new int[size];
+      Arrays.fill(arrival, NEVER);
+      for (int p = 0; p < patterns; p++) {
+        if (scanFrom[p] < 0) {
+          continue;
+        }
+        int trip = -1;
+        int boardedAt = -1;
+        int length = patternOffsets[p + 1] - patternOffsets[p];
+        for (int i = scanFrom[p]; i < length; i++) {
+          int station = patternStations[patternOffsets[p] + i];
+          if (trip >= 0) {
+            int time = times[timeOffsets[trip] + i];
+            // Only arrivals that beat the best arrival at the station and at to are kept
+            if (time < best[station] && time < best[to]) {
+              best[station] = time;
+              arrival[station] = time;
+              rideTrip[station] = trip;
+              boardIndex[station] = boardedAt;
+              alightIndex[station] = i;
+              marked[station] = true;
+            }
+          }
+          if (previous[station] != NEVER
+                  && (trip < 0 || previous[station] < times[timeOffsets[trip] + i])) {
+            int caught = earliestTrip(p, i, previous[station]);
+            if (caught >= 0 && (trip < 0 || caught < trip)) {
+              trip = caught;
+              boardedAt = i;
+            }
+          }
+        }
+      }
+      arrivals.add(arrival);
+      rideTrips.add(rideTrip);
+      boardIndices.add(boardIndex);
+      alightIndices.add(alightIndex);
+      if (arrival[to] != NEVER) {
+        bestRound = round;
+      }
+    }
+    if (bestRound < 0) {
+      return null;
+    }
+    return plan(to, bestRound, arrivals, rideTrips, boardIndices, alightIndices);
+  }
+
+  /**
+   * Returns the earliest trip of pattern p that leaves its i-th station no earlier than time, or
+   * -1 if there is none.
+   */
+  private int earliestTrip(int p, int i, int time) {
+    int low = tripOffsets[p];
+    int high = tripOffsets[p + 1];
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (times[timeOffsets[middle] + i] < time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low < tripOffsets[p + 1] ? low : -1;
+  }
+
+  /**
+   * Returns the journey arriving at station end in the given round, as found by the rounds.
+   */
+  private RoutePlan plan(
+          int end,
+          int round,
+          List<int[]> arrivals,
+          List<int[]> rideTrips,
+          List<int[]> boardIndices,
+          List<int[]> alightIndices) {
+    // Every stop of the journey, from the end to the start
+    ArrayList<Integer> stops = new ArrayList<>();
+    ArrayList<Integer> stopTrips = new ArrayList<>();
+    int station = end;
+    for (int r = round; r > 0; r--) {
+      int trip = rideTrips.get(r - 1)[station];
+      int p = tripPatterns[trip];
+      int board = boardIndices.get(r - 1)[station];
+      for (int i = alightIndices.get(r - 1)[station]; i >= board; i--) {
+        stops.add(patternOffsets[p] + i);
+        stopTrips.add(trip);
+      }
+      station = patternStations[patternOffsets[p] + board];
+    }
+
+    ArrayList<String> stations = new ArrayList<>();
+    ArrayList<String> routes = new ArrayList<>();
+    ArrayList<LocalTime> departures = new ArrayList<>();
+    station = patternStations[stops.get(stops.size() - 1)];
+    stations.add(graph.name(station));
+    // A transfer is two stops at the same station, so the station changes on a trip
+    for (int k = stops.size() - 2; k >= 0; k--) {
+      int stop = stops.get(k);
+      if (patternStations[stop] != station) {
+        int trip = stopTrips.get(k);
+        int p = tripPatterns[trip];
+        station = patternStations[stop];
+        stations.add(graph.name(station));
+        routes.add(graph.routeName(patternRoutes[p]));
+        departures.add(time(times[timeOffsets[trip] + stops.get(k + 1) - patternOffsets[p]]));
+      }
+    }
+    return new RoutePlan(stations, routes, departures, time(arrivals.get(round)[end]));
+  }
+
+  private static LocalTime time(int minutes) {
+    return LocalTime.of(minutes / 60 % 24, minutes % 60);
+  }
+}
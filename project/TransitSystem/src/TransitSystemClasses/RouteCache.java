@@ -0,0 +1,110 @@
+package TransitSystemClasses;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache that drops the least recently used entries once it is full. The entries are
+ * spread over segments by the hash of their keys, and every segment is locked on its own, so
+ * threads using different keys rarely wait for each other. Counts its hits, misses and evictions.
+ */
+class RouteCache<K, V> {
+  private static final int SEGMENTS = 16;
+
+  private final ArrayList<Segment> segments = new ArrayList<>(SEGMENTS);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates a cache that keeps about capacity entries.
+   */
+  RouteCache(int capacity) {
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments.add(new Segment(Math.max(1, capacity / SEGMENTS)));
+    }
+  }
+
+  /**
+   * Returns the value of key, or null if it is not in the cache.
+   */
+  V get(K key) {
+    Segment segment = segmentOf(key);
+    V value;
+    synchronized (segment) {
+      value = segment.get(key);
+    }
+    (value == null ? misses : hits).incrementAndGet();
+    return value;
+  }
+
+  void put(K key, V value) {
+    Segment segment = segmentOf(key);
+    synchronized (segment) {
+      segment.put(key, value);
+    }
+  }
+
+  /**
+   * Removes every entry, the counts are kept.
+   */
+  void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  long getEvictions() {
+    return evictions.get();
+  }
+
+  int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  private Segment segmentOf(K key) {
+    int hash = key.hashCode();
+    return segments.get((hash ^ (hash >>> 16)) & (SEGMENTS - 1));
+  }
+
+  /**
+   * The entries of one segment, in the order they were last used.
+   */
+  private class Segment extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    private Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      if (size() > capacity) {
+        evictions.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -2,69 +2,159 @@ package TransitSystemClasses;
 
 import TransitSystemExceptions.RouteNotFoundException;
 
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class RouteFinder {
 
-  private HashMap<String, Station> stations;
+  // Counts the changes to the subway and bus routes
+  private static final AtomicInteger routesVersion = new AtomicInteger();
+  // The graphs of the "Subway" and "All" networks, built on first use after the routes change and
+  // shared by all RouteFinders. They are never changed once built.
+  private static final AtomicReference<CachedGraph> subwayGraph = new AtomicReference<>();
+  private static final AtomicReference<CachedGraph> allGraph = new AtomicReference<>();
+  // The scheduled trips of the routes, null if there is no timetable
+  private static volatile Timetable timetable;
+  // The route file the contraction hierarchies of large networks are saved next to, null if they
+  // are not used
+  private static volatile String hierarchyFile;
+
+  // The shortest paths and subway distances found lately, by the network and the stations
+  private static final RouteCache<StationPair, RoutePlan> plans = new RouteCache<>(1024);
+  private static final RouteCache<StationPair, Integer> distances = new RouteCache<>(4096);
+
+  // The work arrays of the two sides of a search, reused by the searches on the same thread
+  private static final ThreadLocal<Side[]> SIDES =
+          ThreadLocal.withInitial(() -> new Side[] {new Side(), new Side()});
+
+  private String type;
+  private CachedGraph cached;
+  private TransitGraph graph;
 
   public RouteFinder(String type) {
-    this.stations = this.stationGenerator(type);
+    this.type = type;
+    this.cached = cachedGraph(type);
+    this.graph = cached.graph;
+  }
+
+  /**
+   * Notes that the subway or bus routes changed, the graphs are rebuilt and the cached paths found
+   * again when next used. Must be called after changing the maps returned by getSubwayRoutes or
+   * getBusRoutes in place.
+   */
+  public static void routesChanged() {
+    routesVersion.incrementAndGet();
+    // The cached paths are keyed by the version and can't be used anymore
+    plans.clear();
+    distances.clear();
+  }
+
+  /**
+   * Returns how many shortest paths and subway distances were found in the cache.
+   */
+  public static long getCacheHits() {
+    return plans.getHits() + distances.getHits();
+  }
+
+  /**
+   * Returns how many shortest paths and subway distances were not found in the cache.
+   */
+  public static long getCacheMisses() {
+    return plans.getMisses() + distances.getMisses();
+  }
+
+  /**
+   * Returns how many shortest paths and subway distances were dropped from the full cache.
+   */
+  public static long getCacheEvictions() {
+    return plans.getEvictions() + distances.getEvictions();
+  }
+
+  /**
+   * Sets the scheduled trips of the subway and bus routes used by findEarliestArrival.
+   *
+   * @param newTimetable the trips, or null if there is no timetable
+   */
+  public static void setTimetable(Timetable newTimetable) {
+    timetable = newTimetable;
+    routesChanged();
+  }
+
+  /**
+   * Speeds up the searches on large networks with contraction hierarchies, built when a network is
+   * first searched and saved next to the route file so they are only built again when the routes
+   * change.
+   *
+   * @param routeFile the path of the file the routes are read from
+   */
+  public static void setHierarchyFile(String routeFile) {
+    hierarchyFile = routeFile;
+    routesChanged();
+  }
+
+  /**
+   * Returns the index of the names of all stations and stops on the current routes.
+   */
+  public static StationIndex getStationIndex() {
+    return cachedGraph("All").stationIndex();
+  }
+
+  /**
+   * Returns whether there is a timetable to find the earliest arrivals with.
+   */
+  public static boolean hasTimetable() {
+    return timetable != null;
+  }
+
+  /**
+   * Returns the graph of the given type for the current routes, building it if the routes changed
+   * since it was last built.
+   */
+  private static CachedGraph cachedGraph(String type) {
+    AtomicReference<CachedGraph> cache =
+            type.equals("Subway") ? subwayGraph : type.equals("All") ? allGraph : null;
+    if (cache == null) {
+      return new CachedGraph(-1, type, graphGenerator(type));
+    }
+    // Read before the routes, so a graph built while they change is rebuilt on next use
+    int version = routesVersion.get();
+    CachedGraph graph = cache.get();
+    if (graph == null || graph.routesVersion != version) {
+      CachedGraph built = new CachedGraph(version, type, graphGenerator(type));
+      cache.compareAndSet(graph, built);
+      graph = built;
+    }
+    return graph;
   }
 
   /**
-   * Converts stations/stops in bus routes or subway routes to Station objects and puts in a
-   * HashMap. This is a helper function for getShortestPathLength.
+   * Builds the graph of the stations/stops in bus routes or subway routes.
    *
    * @param type the type of path to find, "Subway" represents a path only contains subway stations,
    *             "All" represents a path that contains all stops and stations
-   * @return A HashMap containing Stations
+   * @return the graph of the stations
    */
-  private HashMap<String, Station> stationGenerator(String type) {
+  private static TransitGraph graphGenerator(String type) {
     HashMap<String, String[]> allRoutes = new HashMap<>();
 
     // gets all routes needed to find a path
     if (type.equals("Subway")) {
-      SubwaySubTrip.getSubwayRoutes()
-              .keySet()
-              .forEach(x -> allRoutes.put(x, SubwaySubTrip.getSubwayRoutes().get(x)));
+      allRoutes.putAll(SubwaySubTrip.getSubwayRoutes());
     } else if (type.equals("All")) {
-      SubwaySubTrip.getSubwayRoutes()
-              .keySet()
-              .forEach(x -> allRoutes.put(x, SubwaySubTrip.getSubwayRoutes().get(x)));
-      BusSubTrip.getBusRoutes()
-              .keySet()
-              .forEach(x -> allRoutes.put(x, BusSubTrip.getBusRoutes().get(x)));
-    }
-
-    // constructs Stations
-    HashMap<String, Station> stations = new HashMap<>();
-    for (String route : allRoutes.keySet()) {
-      for (String newStation : allRoutes.get(route)) {
-        if (!stations.keySet().contains(newStation)) {
-          Station station = new Station(route, newStation);
-          stations.put(newStation, station);
-        } else {
-          Station station = stations.get(newStation);
-          station.addRoute(route);
-        }
-      }
+      allRoutes.putAll(SubwaySubTrip.getSubwayRoutes());
+      allRoutes.putAll(BusSubTrip.getBusRoutes());
     }
-    // set "next" for each Station in the HashMap
-    for (String routeName : allRoutes.keySet()) {
-      String[] originRoute = allRoutes.get(routeName);
-      for (int k = 0; k < originRoute.length; k++) {
-        Station station = stations.get(originRoute[k]);
-        if (k < originRoute.length - 1) {
-          station.addNext(stations.get(originRoute[k + 1]), routeName);
-        }
-        if (k > 0) {
-          station.addNext(stations.get(originRoute[k - 1]), routeName);
-        }
-      }
-    }
-    return stations;
+    return new TransitGraph(allRoutes);
   }
 
   /**
@@ -75,165 +165,158 @@ public class RouteFinder {
    * @param end   the name of the end station
    * @return the shortest length between start and end
    */
-  @SuppressWarnings("unchecked")
   public int getShortestPathLength(String start, String end) {
     if (start.equals(end)) {
       return 0;
     }
-    int len = 0;
-    boolean hasEnd = false;
-    HashMap<String, Station> toProcess = (HashMap<String, Station>) this.stations.clone();
-    ArrayList<String> toExpand = new ArrayList<>();
-    ArrayList<String> newlyAdded = new ArrayList<>();
-    toProcess.remove(start);
-    toExpand.add(start);
-
-    while (!toProcess.isEmpty() && !hasEnd) {
-      for (String s : toExpand) {
-        Station startPoint = stations.get(s);
-
-        // add adjacent stations of new startPoint
-        if (startPoint.getNext().size() != 0) {
-          for (Station nxt : startPoint.getNext().keySet()) {
-            if (toProcess.keySet().contains(nxt.getName())) {
-              newlyAdded.add(nxt.getName());
-              toProcess.remove(nxt.getName());
-              if (nxt.getName().equals(end)) {
-                hasEnd = true;
-              }
-            }
-          }
-        }
-      }
-      // update
-      toExpand = newlyAdded;
-      if (toExpand.isEmpty() && !hasEnd) {
-        return 12;
+    DistanceTable table = cached.distances();
+    if (table != null) {
+      int distance = table.distance(start, end);
+      return distance < 0 ? 12 : distance;
+    }
+    StationPair pair = pair(start, end);
+    Integer distance = pair == null ? null : distances.get(pair);
+    if (distance == null) {
+      int from = graph.id(start);
+      int to = graph.id(end);
+      RoutePlan plan = from < 0 || to < 0 ? null : shortestPath(from, to);
+      distance = plan == null ? 12 : plan.getLength();
+      if (pair != null) {
+        distances.put(pair, distance);
       }
-      newlyAdded = new ArrayList<>();
-      len++;
     }
-    return len;
+    return distance;
   }
 
-  // A helper function for getShortestPath, returns an ArrayList with the first item being the
-  // shortest path length and the second item being a HashMap that represents a tree that contains
-  // the shortest path between two stations
-  @SuppressWarnings("unchecked")
-  private ArrayList getTreePath(String start, String end) throws RouteNotFoundException {
-    ArrayList treePath = new ArrayList();
-    int len = 0;
-    boolean hasFound = false;
-    HashMap<String, Integer> Processed = new HashMap<>();
-    ArrayList<String> toExpand = new ArrayList<>();
-    ArrayList<String> newlyAdded = new ArrayList<>();
-    Processed.put(end, 0);
-    toExpand.add(end);
-
-    // Obtains a tree that is rooted at "end" and has "start" as its leaf
-    while (!hasFound && !(Processed.size() == stations.size())) {
-      for (String s : toExpand) {
-        Station endPoint = stations.get(s);
-
-        // Adds adjacent stations of new startPoint
-        if (endPoint.getNext().size() != 0) {
-          for (Station nxt : endPoint.getNext().keySet()) {
-            if (!Processed.keySet().contains(nxt.getName())) {
-              newlyAdded.add(nxt.getName());
-              Processed.put(nxt.getName(), len + 1);
-              if (nxt.getName().equals(start)) {
-                hasFound = true;
-              }
-            }
-          }
-        }
-      }
-      toExpand = newlyAdded;
-
-      // throws an exception if there is no path between start and end station
-      if (toExpand.isEmpty() && !hasFound) {
+  /**
+   * Returns a shortest path between start and end.
+   *
+   * @param start the start point of the path to find
+   * @param end   the end point of the path to find
+   * @return the stations on the path and the routes between them
+   * @throws RouteNotFoundException if there does not exist a path between start and end stations
+   */
+  public RoutePlan findRoute(String start, String end) throws RouteNotFoundException {
+    StationPair pair = pair(start, end);
+    RoutePlan plan = pair == null ? null : plans.get(pair);
+    if (plan == null) {
+      int from = graph.id(start);
+      int to = graph.id(end);
+      plan = from < 0 || to < 0 || from == to ? null : shortestPath(from, to);
+      if (plan == null) {
         throw new RouteNotFoundException(
                 String.format("There doesn't exist route between %s and %s!", start, end));
       }
-      newlyAdded = new ArrayList<>();
-      len++; // update length of the path
+      if (pair != null) {
+        plans.put(pair, plan);
+      }
     }
-    treePath.add(len);
-    treePath.add(Processed);
-    return treePath;
+    return plan;
   }
 
   /**
-   * Returns an array of the stations on the shortest path between start and end
+   * Returns the path between start and end with the lowest cost, where every stop costs 1 and
+   * every transfer costs transferPenalty.
    *
    * @param start the start point of the path to find
    * @param end   the end point of the path to find
-   * @return an array of Stations on the shortest path
-   * @throws RouteNotFoundException if there does not exist a path
+   * @param transferPenalty how many stops a transfer is worth avoiding
+   * @return the stations on the path and the routes between them
+   * @throws RouteNotFoundException if there does not exist a path between start and end stations
    */
-  @SuppressWarnings("unchecked")
-  private String[] getShortestPath(String start, String end) throws RouteNotFoundException {
-    int len = (int) getTreePath(start, end).get(0);
-    HashMap<String, Integer> tree = (HashMap<String, Integer>) getTreePath(start, end).get(1);
-    String[] path = new String[len + 1];
-    path[0] = start;
-    Station startPoint = stations.get(start);
-    for (int i = len - 1; i >= 0; i--) {
-      String station;
-      if (startPoint.getNext().size() != 0) {
-        for (Station nxt : startPoint.getNext().keySet()) {
-          station = nxt.getName();
-          if (tree.keySet().contains(station) && tree.get(station) == i) {
-            path[len - i] = station;
-            startPoint = stations.get(station);
-            break;
-          }
-        }
-      }
+  public RoutePlan findRoute(String start, String end, int transferPenalty)
+          throws RouteNotFoundException {
+    int from = graph.id(start);
+    int to = graph.id(end);
+    RoutePlan plan =
+            from < 0 || to < 0 || from == to
+                    ? null
+                    : new TransferPlanner(graph).cheapest(from, to, transferPenalty);
+    if (plan == null) {
+      throw new RouteNotFoundException(
+              String.format("There doesn't exist route between %s and %s!", start, end));
     }
-    return path;
+    return plan;
   }
 
   /**
-   * * A helper function for getRoutePlan that matches stationNames with routes
+   * Returns the paths between start and end that no other path beats on both the number of stops
+   * and the number of transfers, from the one with the fewest transfers to the one with the fewest
+   * stops. Only paths with at most TransferPlanner.MAX_TRANSFERS transfers are looked for, use
+   * findRoute for a shortest path with any number of transfers.
    *
-   * @param start the start point of the path to find
-   * @param end   the end point of the path to find
-   * @return an array that matches stations with routes, [i][0] is station, [i][1] is route
+   * @param start the start point of the paths to find
+   * @param end   the end point of the paths to find
+   * @return the paths, at least one
+   * @throws RouteNotFoundException if there does not exist a path between start and end stations
+   *                                with at most TransferPlanner.MAX_TRANSFERS transfers
    */
-  private String[][] getOptimalPath(String start, String end) throws RouteNotFoundException {
-    String[] path = getShortestPath(start, end);
-    int length = path.length;
-
-    // initialize target path
-    String[][] target = new String[path.length][2];
-    for (int i = 0; i < length; i++) {
-      target[i][0] = path[i];
+  public List<RoutePlan> findRouteOptions(String start, String end)
+          throws RouteNotFoundException {
+    int from = graph.id(start);
+    int to = graph.id(end);
+    List<RoutePlan> plans =
+            from < 0 || to < 0 || from == to
+                    ? Collections.emptyList()
+                    : new TransferPlanner(graph).paretoSet(from, to);
+    if (plans.isEmpty()) {
+      throw new RouteNotFoundException(
+              String.format("There doesn't exist route between %s and %s!", start, end));
     }
+    return plans;
+  }
 
-    Station startPoint = stations.get(path[0]);
-    for (Station nextStation : startPoint.getNext().keySet()) {
-      if (nextStation.getName().equals(target[1][0])) {
-        String route = startPoint.getNext().get(nextStation);
-        target[0][1] = route;
-        target[1][1] = route;
-        break;
-      }
+  /**
+   * Returns up to k of the shortest paths between start and end that don't pass a station twice,
+   * from the shortest.
+   *
+   * @param start the start point of the paths to find
+   * @param end   the end point of the paths to find
+   * @param k     the most paths to return
+   * @return the paths, at least one
+   * @throws RouteNotFoundException if there does not exist a path between start and end stations
+   */
+  public List<RoutePlan> findAlternativeRoutes(String start, String end, int k)
+          throws RouteNotFoundException {
+    int from = graph.id(start);
+    int to = graph.id(end);
+    List<RoutePlan> plans =
+            from < 0 || to < 0 || from == to || k < 1
+                    ? Collections.emptyList()
+                    : new AlternativePlanner(graph).shortest(from, to, k);
+    if (plans.isEmpty()) {
+      throw new RouteNotFoundException(
+              String.format("There doesn't exist route between %s and %s!", start, end));
     }
+    return plans;
+  }
 
-    for (int i = 2; i < length; i++) {
-      if (target[i][1] == null) {
-        Station prevStation = stations.get(target[i - 1][0]);
-        for (Station nextStation : prevStation.getNext().keySet()) {
-          if (nextStation.getName().equals(target[i][0])) {
-            String route = prevStation.getNext().get(nextStation);
-            target[i][1] = route;
-            break;
-          }
-        }
-      }
+  /**
+   * Returns the path between start and end that arrives the earliest on the scheduled trips,
+   * leaving start no earlier than departure, and of those the one with the fewest trips.
+   *
+   * @param start     the start point of the path to find
+   * @param end       the end point of the path to find
+   * @param departure the earliest time to leave start
+   * @return the stations on the path, the routes between them and when every route departs
+   * @throws RouteNotFoundException if there is no timetable or no scheduled trips from start reach
+   *                                end the same day
+   */
+  public RoutePlan findEarliestArrival(String start, String end, LocalTime departure)
+          throws RouteNotFoundException {
+    int from = graph.id(start);
+    int to = graph.id(end);
+    Raptor raptor = cached.raptor();
+    RoutePlan plan =
+            raptor == null || from < 0 || to < 0 || from == to
+                    ? null
+                    : raptor.earliestArrival(
+                            from, to, departure.getHour() * 60 + departure.getMinute());
+    if (plan == null) {
+      throw new RouteNotFoundException(
+              String.format("There doesn't exist route between %s and %s!", start, end));
     }
-    return target;
+    return plan;
   }
 
   /**
@@ -245,27 +328,280 @@ public class RouteFinder {
    * @throws RouteNotFoundException if there does not exist a path between start and end stations
    */
   public String getRoutePlan(String start, String end) throws RouteNotFoundException {
-    String[][] target = getOptimalPath(start, end);
-    StringBuilder result =
-            new StringBuilder(
-                    "Start at "
-                            + target[0][0]
-                            + System.lineSeparator()
-                            + "Take "
-                            + target[0][1]
-                            + System.lineSeparator()
-                            + target[0][0]);
-    for (int i = 0; i < target.length - 1; i++) {
-      if (!target[i][1].equals(target[i + 1][1])) {
-        result
-                .append(System.lineSeparator())
-                .append("Transfer to ")
-                .append(target[i + 1][1])
-                .append(System.lineSeparator())
-                .append(target[i][0]);
+    return findRoute(start, end).toString();
+  }
+
+  /**
+   * Returns the key of the paths from start to end in the cache, or null if the paths on this
+   * network are not cached.
+   */
+  private StationPair pair(String start, String end) {
+    if (cached.routesVersion < 0) {
+      return null;
+    }
+    return new StationPair(cached.routesVersion, type, start, end);
+  }
+
+  /**
+   * Returns a shortest path from the station from to the station to, or null if there is none.
+   */
+  private RoutePlan shortestPath(int from, int to) {
+    ContractionHierarchy hierarchy = cached.hierarchy();
+    return hierarchy == null ? search(graph, from, to) : hierarchy.search(from, to);
+  }
+
+  /**
+   * Runs a breadth-first search of graph from both from and to, one level at a time from the side
+   * with the smaller frontier, until the two searches meet. Returns null if there is no path.
+   */
+  private static RoutePlan search(TransitGraph graph, int from, int to) {
+    Side[] sides = SIDES.get();
+    Side forward = sides[0];
+    Side backward = sides[1];
+    forward.start(from, graph.size());
+    backward.start(to, graph.size());
+    int best = Integer.MAX_VALUE;
+    // The edge the searches meet on, from a station reached forward to one reached backward
+    int meetFrom = -1;
+    int meetTo = -1;
+    int meetRoute = -1;
+    while (forward.head < forward.tail && backward.head < backward.tail && meetRoute < 0) {
+      boolean isForward = forward.tail - forward.head <= backward.tail - backward.head;
+      Side side = isForward ? forward : backward;
+      Side other = isForward ? backward : forward;
+      int depth = side.distance[side.queue[side.head]];
+      // The whole level is expanded, the shortest meeting may be on any of its stations
+      while (side.head < side.tail && side.distance[side.queue[side.head]] == depth) {
+        int station = side.queue[side.head++];
+        for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+          int next = graph.target(edge);
+          if (other.reached(next) && depth + 1 + other.distance[next] < best) {
+            best = depth + 1 + other.distance[next];
+            meetFrom = isForward ? station : next;
+            meetTo = isForward ? next : station;
+            meetRoute = graph.route(edge);
+          }
+          if (!side.reached(next)) {
+            side.reach(next, station, graph.route(edge), depth + 1);
+          }
+        }
+      }
+    }
+    if (meetRoute < 0) {
+      return null;
+    }
+
+    ArrayList<String> stations = new ArrayList<>(best + 1);
+    ArrayList<String> routes = new ArrayList<>(best);
+    for (int station = meetFrom; station != from; station = forward.parent[station]) {
+      stations.add(graph.name(station));
+      routes.add(graph.routeName(forward.route[station]));
+    }
+    stations.add(graph.name(from));
+    Collections.reverse(stations);
+    Collections.reverse(routes);
+    routes.add(graph.routeName(meetRoute));
+    for (int station = meetTo; station != to; station = backward.parent[station]) {
+      stations.add(graph.name(station));
+      routes.add(graph.routeName(backward.route[station]));
+    }
+    stations.add(graph.name(to));
+    return new RoutePlan(stations, routes);
+  }
+
+  /**
+   * The start and end of the paths on a network as built from the routes of a given version.
+   */
+  private static class StationPair {
+    private final int routesVersion;
+    private final String type;
+    private final String start;
+    private final String end;
+
+    private StationPair(int routesVersion, String type, String start, String end) {
+      this.routesVersion = routesVersion;
+      this.type = type;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof StationPair)) {
+        return false;
+      }
+      StationPair other = (StationPair) o;
+      return routesVersion == other.routesVersion
+              && type.equals(other.type)
+              && start.equals(other.start)
+              && end.equals(other.end);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(routesVersion, type, start, end);
+    }
+  }
+
+  /**
+   * The graph of a network as built from the routes of a given version.
+   */
+  private static class CachedGraph {
+    private final int routesVersion;
+    private final String type;
+    private final TransitGraph graph;
+    // The timetable and the route file of the hierarchy when the graph was built
+    private final Timetable timetable;
+    private final String hierarchyFile;
+    // The distances between the stations and the patterns of the timetable, built on first use
+    private volatile DistanceTable distances;
+    private volatile Raptor raptor;
+    private volatile ContractionHierarchy hierarchy;
+    // Whether it was decided if this graph gets a hierarchy, set after hierarchy
+    private volatile boolean hierarchyDecided;
+    private volatile StationIndex stationIndex;
+
+    private CachedGraph(int routesVersion, String type, TransitGraph graph) {
+      this.routesVersion = routesVersion;
+      this.type = type;
+      this.graph = graph;
+      this.timetable = RouteFinder.timetable;
+      this.hierarchyFile = RouteFinder.hierarchyFile;
+    }
+
+    /**
+     * Returns the distances between the stations, or null if there are too many stations to keep
+     * all of them.
+     */
+    private DistanceTable distances() {
+      if (distances == null && graph.size() <= DistanceTable.MAX_STATIONS) {
+        synchronized (this) {
+          if (distances == null) {
+            distances = new DistanceTable(graph);
+          }
+        }
       }
-      result.append(" --> ").append(target[i + 1][0]);
+      return distances;
+    }
+
+    /**
+     * Returns the patterns of the timetable on this graph, or null if there is no timetable.
+     */
+    private Raptor raptor() {
+      if (raptor == null && timetable != null) {
+        synchronized (this) {
+          if (raptor == null) {
+            raptor = new Raptor(graph, timetable);
+          }
+        }
+      }
+      return raptor;
+    }
+
+    private StationIndex stationIndex() {
+      if (stationIndex == null) {
+        synchronized (this) {
+          if (stationIndex == null) {
+            stationIndex = new StationIndex(graph);
+          }
+        }
+      }
+      return stationIndex;
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph, reading it from next to the route file or
+     * building and saving it there, or null if hierarchies are not used for this graph.
+     */
+    private ContractionHierarchy hierarchy() {
+      if (!hierarchyDecided && hierarchyFile != null) {
+        synchronized (this) {
+          if (!hierarchyDecided) {
+            if (graph.size() >= ContractionHierarchy.MIN_STATIONS && searchesReachMany()) {
+              File file = new File(hierarchyFile + "." + type.toLowerCase() + ".ch");
+              ContractionHierarchy read = ContractionHierarchy.read(file, graph);
+              if (read == null) {
+                read = ContractionHierarchy.build(graph);
+                try {
+                  read.write(file);
+                } catch (IOException e) {
+                  e.printStackTrace();
+                }
+              }
+              hierarchy = read;
+            }
+            hierarchyDecided = true;
+          }
+        }
+      }
+      return hierarchy;
+    }
+
+    /**
+     * Returns whether the breadth-first searches between a sample of stations reach enough
+     * stations on average for a hierarchy to pay off. On networks where every station is a few
+     * stops from any other, the searches meet after a few stations and are faster than the
+     * hierarchy.
+     */
+    private boolean searchesReachMany() {
+      // The same graph is always sampled the same way
+      Random random = new Random(graph.size());
+      long reached = 0;
+      for (int i = 0; i < ContractionHierarchy.SAMPLES; i++) {
+        search(graph, random.nextInt(graph.size()), random.nextInt(graph.size()));
+        Side[] sides = SIDES.get();
+        reached += sides[0].tail + sides[1].tail;
+      }
+      return reached >= (long) ContractionHierarchy.SAMPLES * ContractionHierarchy.MIN_REACHED;
+    }
+  }
+
+  /**
+   * One side of a bidirectional search. A station is reached in the current search if its mark is
+   * the number of the search, so the arrays are only cleared when the numbers run out.
+   */
+  private static class Side {
+    private int search;
+    private int[] mark = new int[0];
+    // The number of stops from the station the side starts at
+    private int[] distance = new int[0];
+    // The station every station is reached from, and the route between them
+    private int[] parent = new int[0];
+    private int[] route = new int[0];
+    // The stations reached and not expanded yet are queue[head] to queue[tail - 1]
+    private int[] queue = new int[0];
+    private int head;
+    private int tail;
+
+    private void start(int station, int size) {
+      if (mark.length < size) {
+        mark = new int[size];
+        distance = new int[size];
+        parent = new int[size];
+        route = new int[size];
+        queue = new int[size];
+        search = 0;
+      }
+      if (search == Integer.MAX_VALUE) {
+        Arrays.fill(mark, 0);
+        search = 0;
+      }
+      search++;
+      head = 0;
+      tail = 0;
+      reach(station, station, -1, 0);
+    }
+
+    private boolean reached(int station) {
+      return mark[station] == search;
+    }
+
+    private void reach(int station, int from, int fromRoute, int stops) {
+      mark[station] = search;
+      parent[station] = from;
+      route[station] = fromRoute;
+      distance[station] = stops;
+      queue[tail++] = station;
     }
-    return result + System.lineSeparator();
   }
 }
@@ -0,0 +1,138 @@
+package TransitSystemClasses;
+
+import java.time.LocalTime;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A path through the transit network found by a RouteFinder: the stations on it in order, and the
+ * route taken from every station to the next. A plan found with the timetable also has the time
+ * every leg departs and the time the plan arrives.
+ */
+public class RoutePlan {
+  private final List<String> stations;
+  // routes.get(i) is the route from stations.get(i) to stations.get(i + 1)
+  private final List<String> routes;
+  // departures.get(i) is when the ride from stations.get(i) departs, empty without a timetable
+  private final List<LocalTime> departures;
+  private final LocalTime arrival;
+  // The directions along this path, made on first use
+  private volatile String directions;
+
+  RoutePlan(List<String> stations, List<String> routes) {
+    this(stations, routes, Collections.emptyList(), null);
+  }
+
+  RoutePlan(
+          List<String> stations,
+          List<String> routes,
+          List<LocalTime> departures,
+          LocalTime arrival) {
+    this.stations = Collections.unmodifiableList(stations);
+    this.routes = Collections.unmodifiableList(routes);
+    this.departures = Collections.unmodifiableList(departures);
+    this.arrival = arrival;
+  }
+
+  /**
+   * Returns the stations on this path, from the start to the end.
+   */
+  public List<String> getStations() {
+    return stations;
+  }
+
+  /**
+   * Returns the route taken from every station on this path to the next one.
+   */
+  public List<String> getRoutes() {
+    return routes;
+  }
+
+  /**
+   * Returns when the ride from every station on this path departs, or an empty list if this plan
+   * was not found with the timetable.
+   */
+  public List<LocalTime> getDepartures() {
+    return departures;
+  }
+
+  /**
+   * Returns when this plan arrives at its end, or null if it was not found with the timetable.
+   */
+  public LocalTime getArrival() {
+    return arrival;
+  }
+
+  /**
+   * Returns the number of stops from the start to the end of this path.
+   */
+  public int getLength() {
+    return routes.size();
+  }
+
+  /**
+   * Returns the number of times this path changes routes.
+   */
+  public int getTransfers() {
+    int transfers = 0;
+    for (int i = 1; i < routes.size(); i++) {
+      if (!routes.get(i).equals(routes.get(i - 1))) {
+        transfers++;
+      }
+    }
+    return transfers;
+  }
+
+  /**
+   * Returns directions along this path: the route to take at the start, every transfer and the
+   * stations passed on the way, with the departure and arrival times if this plan has them.
+   */
+  @Override
+  public String toString() {
+    if (directions == null) {
+      directions = directions();
+    }
+    return directions;
+  }
+
+  private String directions() {
+    StringBuilder result =
+            new StringBuilder(
+                    "Start at "
+                            + stations.get(0)
+                            + System.lineSeparator()
+                            + "Take "
+                            + routes.get(0)
+                            + at(0)
+                            + System.lineSeparator()
+                            + stations.get(0));
+    for (int i = 0; i < routes.size(); i++) {
+      if (i > 0 && !routes.get(i).equals(routes.get(i - 1))) {
+        result
+                .append(System.lineSeparator())
+                .append("Transfer to ")
+                .append(routes.get(i))
+                .append(at(i))
+                .append(System.lineSeparator())
+                .append(stations.get(i));
+      }
+      result.append(" --> ").append(stations.get(i + 1));
+    }
+    if (arrival != null) {
+      result
+              .append(System.lineSeparator())
+              .append("Arrive at ")
+              .append(stations.get(stations.size() - 1))
+              .append(" at ")
+              .append(arrival);
+    }
+    return result + System.lineSeparator();
+  }
+
+  /**
+   * Returns when the ride from the station with the given index departs, for the directions.
+   */
+  private String at(int i) {
+    return departures.isEmpty() ? "" : " at " + departures.get(i);
+  }
+}
@@ -0,0 +1,911 @@
+package TransitSystemClasses;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Stores the data as a chain of checkpoints: a full snapshot, followed by small delta files holding
+ * only the cards and accounts changed since the previous checkpoint. Every checkpoint is written to
+ * a temporary file and atomically renamed into place, and the previous snapshot is kept until the
+ * next one is complete, so a crash at any point leaves at least one consistent chain to recover
+ * from.
+ *
+ * <p>Deltas are segments of the chain. Once a few of them follow the snapshot, they are merged into
+ * one segment covering all their sequence numbers on a background thread, so the chain stays short
+ * without rewriting the snapshot. A full snapshot is only written once the chain grows to half the
+ * size of the snapshot.
+ *
+ * <p>Snapshots and deltas are written with the BinaryCodec. Snapshots written with Java
+ * serialization by earlier versions are still read: Card, LoadValuePayment and BuyCardPayment read
+ * the fields of the earlier versions into their current ones, and the next checkpoint writes the
+ * data with the BinaryCodec.
+ *
+ * <p>The cards and accounts of a snapshot are spread over shard files by the email of their owner,
+ * so that the shards can be written and read in parallel. The snapshot file itself holds the rest of
+ * the data and is renamed into place after all its shards are on disk.
+ *
+ * <p>Only the cards themselves are read from the shards at startup. The trips and transactions of a
+ * card are paged in from its shard when the card is first used, so the shards are kept open until
+ * the next snapshot replaces them.
+ *
+ * <p>Running with -Dtransit.compress=true writes the shards as ChunkedFiles, whose chunks are
+ * compressed in parallel. A card history is then paged in by inflating only the chunk it is in.
+ */
+class SnapshotStorage implements StorageBackend {
+  // Write a full snapshot instead of a delta once this many segments follow the last snapshot
+  private static final int MAX_DELTAS = 16;
+  // Merge the segments that follow the last snapshot once there are this many
+  private static final int MERGE_AT = 4;
+  // The number of shards the cards and accounts of a snapshot are spread over, one per processor
+  // unless set with the property transit.shards. Snapshots are read with the number they were
+  // written with.
+  private static final int SHARDS =
+          Math.max(
+                  1,
+                  Integer.getInteger("transit.shards", Runtime.getRuntime().availableProcessors()));
+  // Whether the shards are written as compressed chunks, they are read either way
+  private static final boolean COMPRESS = Boolean.getBoolean("transit.compress");
+  // The path of the snapshot file
+  private final String filePath;
+  // The generation of the latest snapshot, 0 if there has never been one
+  private long generation;
+  // The sequence number of the latest delta on top of the latest snapshot
+  private int deltaSequence;
+  // The segments that follow the latest snapshot, in order
+  private List<Segment> segments = new ArrayList<>();
+  // The size of the latest snapshot with its shards
+  private long snapshotBytes;
+  // The cards of the latest checkpoint, the accounts in the segments refer to them
+  private HashMap<String, Card> knownCards = new HashMap<>();
+  // Merges segments, created when first needed
+  private ExecutorService merger;
+  // Whether a merge has been submitted and has not finished yet
+  private boolean merging;
+  // The shards the card histories are paged in from
+  private List<FileChannel> shards = Collections.emptyList();
+
+  SnapshotStorage(String filePath) {
+    this.filePath = filePath;
+  }
+
+  @Override
+  public String getPath() {
+    return filePath;
+  }
+
+  @Override
+  public long getGeneration() {
+    return generation;
+  }
+
+  @Override
+  public synchronized int getSequence() {
+    return deltaSequence;
+  }
+
+  @Override
+  public synchronized long nextGeneration() {
+    return fullDue() ? generation + 1 : generation;
+  }
+
+  @Override
+  public synchronized int nextSequence() {
+    return fullDue() ? 0 : deltaSequence + 1;
+  }
+
+  /**
+   * Returns whether the next checkpoint is a full snapshot rather than a delta. It is once the
+   * chain is long, or once reading the chain costs more than half of reading the snapshot.
+   */
+  private synchronized boolean fullDue() {
+    long chainBytes = 0;
+    for (Segment segment : segments) {
+      chainBytes += segment.length;
+    }
+    return generation == 0 || segments.size() >= MAX_DELTAS || chainBytes > snapshotBytes / 2;
+  }
+
+  /**
+   * Reads the newest readable snapshot and applies the deltas that follow it. If only the previous
+   * snapshot can be read, the latest one and the deltas and shards after the previous one are moved
+   * aside, since the next snapshot would take their generation.
+   */
+  @Override
+  public StoredData load() throws IOException {
+    File file = new File(filePath);
+    File previous = new File(filePath + ".prev");
+    generation = 0;
+    deltaSequence = 0;
+    snapshotBytes = 0;
+    StoredData data = readFromFile(file);
+    if (data == null) {
+      data = readFromFile(previous);
+      if (data != null && file.exists()) {
+        List<Path> unreadable = new ArrayList<>();
+        unreadable.add(file.toPath());
+        long readGeneration = generation;
+        for (File chain : chainFiles(x -> x > readGeneration)) {
+          unreadable.add(chain.toPath());
+        }
+        Path aside = StorageBackend.moveAside(filePath, unreadable);
+        System.err.println(
+                "The latest snapshot could not be read, moved to " + aside + ". Using " + previous);
+      }
+    }
+    if (data == null) {
+      if (file.exists() || previous.exists()) {
+        throw new IOException("No readable snapshot was found.");
+      }
+      return null;
+    }
+    segments = new ArrayList<>();
+    // Where a merge finished but its segments were not deleted yet, the merged segment is read
+    TreeMap<Integer, List<Segment>> byStart = listSegments(generation);
+    int next = 1;
+    while (byStart.containsKey(next)) {
+      Segment applied = null;
+      for (Segment segment : byStart.get(next)) {
+        try {
+          data.apply(readCheckpoint(segment.file, data).data);
+          applied = segment;
+          break;
+        } catch (IOException | ClassCastException e) {
+          e.printStackTrace();
+        }
+      }
+      if (applied == null) {
+        // Later segments depend on this one, so the chain ends here.
+        break;
+      }
+      segments.add(applied);
+      next = applied.to + 1;
+    }
+    deltaSequence = next - 1;
+    for (List<Segment> starting : byStart.values()) {
+      for (Segment segment : starting) {
+        if (!segments.contains(segment) && segment.to <= deltaSequence) {
+          Files.deleteIfExists(segment.file.toPath());
+        }
+      }
+    }
+    knownCards = new HashMap<>(data.cards);
+    data.relinkPayments();
+    return data;
+  }
+
+  /**
+   * Returns the segments on top of the snapshot of the given generation by their first sequence
+   * number, the longest first.
+   */
+  private TreeMap<Integer, List<Segment>> listSegments(long snapshotGeneration) {
+    TreeMap<Integer, List<Segment>> byStart = new TreeMap<>();
+    File snapshot = new File(filePath).getAbsoluteFile();
+    String prefix = snapshot.getName() + ".delta." + snapshotGeneration + ".";
+    File[] files =
+            snapshot
+                    .getParentFile()
+                    .listFiles((dir, name) -> name.startsWith(prefix) && !name.endsWith(".tmp"));
+    if (files == null) {
+      return byStart;
+    }
+    for (File file : files) {
+      String[] range = file.getName().substring(prefix.length()).split("-");
+      try {
+        int from = Integer.parseInt(range[0]);
+        int to = range.length == 1 ? from : Integer.parseInt(range[1]);
+        byStart.computeIfAbsent(from, x -> new ArrayList<>()).add(new Segment(from, to, file));
+      } catch (NumberFormatException e) {
+        e.printStackTrace();
+      }
+    }
+    byStart.values().forEach(x -> x.sort((a, b) -> Integer.compare(b.to, a.to)));
+    return byStart;
+  }
+
+  /**
+   * Reads a snapshot from file. Returns null if the snapshot could not be read.
+   */
+  private StoredData readFromFile(File file) {
+    if (!file.exists()) {
+      return null;
+    }
+    try {
+      if (BinaryCodec.isEncoded(file)) {
+        return readSnapshot(file.toPath());
+      }
+      return readSerialized(file);
+    } catch (IOException | ClassCastException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Reads a snapshot written with Java serialization by earlier versions, either by saveToFile,
+   * starting with the cards, or by the first checkpoints, starting with the generation. Returns
+   * null if the snapshot could not be read.
+   */
+  @SuppressWarnings("unchecked")
+  private StoredData readSerialized(File file) {
+    StoredData data = new StoredData();
+    try (ObjectInput input =
+                 new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      // Deserialize to the ArrayLists or HashMaps. Snapshots written before checkpoints had
+      // generations start directly with the cards.
+      Object first = input.readObject();
+      if (first instanceof Long) {
+        generation = (Long) first;
+        data.cards = (HashMap<String, Card>) input.readObject();
+      } else {
+        generation = 0;
+        data.cards = (HashMap<String, Card>) first;
+      }
+      data.accounts = (HashMap<String, TransitUserAccount>) input.readObject();
+      snapshotBytes = file.length();
+      data.admin = (AdminUserAccount) input.readObject();
+      data.accepted = (ArrayList<BuyCardPayment>) input.readObject();
+      data.pending = (ArrayList<Payment>) input.readObject();
+      data.fares = (HashMap<String, Double>) input.readObject();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      e.printStackTrace();
+      return null;
+    }
+    return data;
+  }
+
+  /**
+   * Writes a delta of the changed cards and accounts unless a full snapshot is due.
+   */
+  @Override
+  public void save(
+          StoredData data,
+          Set<String> changedCards,
+          Set<String> changedAccounts,
+          List<BuyCardPayment> newAccepted)
+          throws IOException {
+    if (fullDue()) {
+      saveFull(data);
+    } else {
+      writeDelta(data, changedCards, changedAccounts, newAccepted);
+    }
+  }
+
+  /**
+   * Writes the next generation of the snapshot. The current snapshot is kept as the previous one
+   * until the new snapshot is completely on disk.
+   */
+  @Override
+  public void saveFull(StoredData data) throws IOException {
+    long next = generation + 1;
+    Path target = Paths.get(filePath);
+    Path temp = Paths.get(filePath + ".tmp");
+    writeSnapshotTo(temp, next, data);
+    if (Files.exists(target)) {
+      Files.move(target, Paths.get(filePath + ".prev"), StandardCopyOption.ATOMIC_MOVE);
+    }
+    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    // Deltas and shards older than the previous snapshot can no longer be part of a chain
+    deleteChainsBefore(generation);
+    synchronized (this) {
+      generation = next;
+      deltaSequence = 0;
+      segments = new ArrayList<>();
+    }
+    pageFrom(target, data);
+  }
+
+  /**
+   * Writes a standalone snapshot of data to path, for example as a backup. The card histories keep
+   * being paged in from where they are.
+   */
+  static void export(String path, StoredData data) throws IOException {
+    new SnapshotStorage(path).writeSnapshotTo(Paths.get(path), 1, data);
+  }
+
+  /**
+   * Lets the card histories be paged out and paged in from the snapshot that was just written. The
+   * histories in it are current unless the cards changed while it was written in the background.
+   */
+  private void pageFrom(Path path, StoredData data) {
+    List<FileChannel> previous = shards;
+    try {
+      for (Card stored : readSnapshot(path).cards.values()) {
+        Card card = data.cards.get(stored.getCardNumber());
+        if (card != null) {
+          data.release(card, stored);
+        }
+      }
+    } catch (IOException | ClassCastException e) {
+      // The histories simply stay in memory
+      e.printStackTrace();
+      return;
+    }
+    previous.forEach(SnapshotStorage::closeQuietly);
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (merger != null) {
+        merger.shutdown();
+      }
+    }
+    shards.forEach(SnapshotStorage::closeQuietly);
+    shards = Collections.emptyList();
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Writes a snapshot to path. The shards are written in parallel first, then the snapshot file.
+   *
+   * @param path the path of the snapshot file
+   * @param snapshotGeneration the generation of the snapshot
+   * @param data the data to write
+   */
+  private void writeSnapshotTo(Path path, long snapshotGeneration, StoredData data)
+          throws IOException {
+    ArrayList<ArrayList<Card>> cards = new ArrayList<>();
+    ArrayList<ArrayList<TransitUserAccount>> accounts = new ArrayList<>();
+    for (int i = 0; i < SHARDS; i++) {
+      cards.add(new ArrayList<>());
+      accounts.add(new ArrayList<>());
+    }
+    for (Card card : data.cards.values()) {
+      cards.get(shardOf(card.getCardHolderEmail(), SHARDS)).add(card);
+    }
+    for (Map.Entry<String, TransitUserAccount> account : data.accounts.entrySet()) {
+      accounts.get(shardOf(account.getKey(), SHARDS)).add(account.getValue());
+    }
+    data.expectWrites(data.cards.size() + data.accounts.size());
+    inParallel(
+            SHARDS,
+            shard -> {
+              Path shardPath = shardFile(snapshotGeneration, shard);
+              writeShard(shardPath, data, cards.get(shard), accounts.get(shard));
+              return null;
+            });
+    writeCheckpoint(
+            path,
+            snapshotGeneration,
+            data,
+            Collections.emptyList(),
+            Collections.emptyList(),
+            data.accepted,
+            SHARDS);
+  }
+
+  /**
+   * Writes the cards and accounts of a shard and syncs the shard file to disk. The accounts only
+   * refer to cards in the same shard, since the cards are in the shard of their owner. The shard is
+   * compressed if COMPRESS is set.
+   */
+  private static void writeShard(
+          Path path, StoredData data, List<Card> cards, List<TransitUserAccount> accounts)
+          throws IOException {
+    BinaryCodec.Writer out = new BinaryCodec.Writer();
+    out.writeVarInt(cards.size());
+    for (Card card : cards) {
+      data.encode(card, out);
+    }
+    out.writeVarInt(accounts.size());
+    for (TransitUserAccount account : accounts) {
+      data.encode(account, out);
+    }
+    if (COMPRESS) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      out.writeTo(content);
+      ChunkedFile.write(path, content.toByteArray());
+      return;
+    }
+    try (FileOutputStream file = new FileOutputStream(path.toFile())) {
+      out.writeTo(new BufferedOutputStream(file));
+      file.getFD().sync();
+    }
+  }
+
+  /**
+   * Reads a snapshot and its shards. The shards are read in parallel, skipping the histories of the
+   * cards, and stay open for paging.
+   */
+  private StoredData readSnapshot(Path path) throws IOException {
+    Checkpoint checkpoint = readCheckpoint(path.toFile(), null);
+    ArrayList<FileChannel> channels = new ArrayList<>();
+    try {
+      for (int i = 0; i < checkpoint.shards; i++) {
+        channels.add(
+                FileChannel.open(shardFile(checkpoint.generation, i), StandardOpenOption.READ));
+      }
+      List<StoredData> read =
+              inParallel(
+                      channels.size(),
+                      shard -> {
+                        FileChannel channel = channels.get(shard);
+                        // The channel stays open for paging, only the stream over it is dropped
+                        ChunkedFile chunked = ChunkedFile.open(channel);
+                        if (chunked == null) {
+                          InputStream input =
+                                  new BufferedInputStream(Channels.newInputStream(channel.position(0)));
+                          return readShard(new BinaryCodec.Reader(input, channel::read));
+                        }
+                        InputStream input = new BufferedInputStream(chunked.stream());
+                        return readShard(new BinaryCodec.Reader(input, chunked));
+                      });
+      for (StoredData shard : read) {
+        checkpoint.data.cards.putAll(shard.cards);
+        checkpoint.data.accounts.putAll(shard.accounts);
+      }
+    } catch (IOException | RuntimeException e) {
+      channels.forEach(SnapshotStorage::closeQuietly);
+      throw e;
+    }
+    long bytes = Files.size(path);
+    for (FileChannel channel : channels) {
+      bytes += channel.size();
+    }
+    shards = channels;
+    generation = checkpoint.generation;
+    snapshotBytes = bytes;
+    return checkpoint.data;
+  }
+
+  /**
+   * Reads the cards and accounts of a shard. The histories of the cards are skipped if in can read
+   * them later.
+   */
+  private static StoredData readShard(BinaryCodec.Reader in) throws IOException {
+    StoredData shard = new StoredData();
+    int cardCount = in.readVarInt();
+    for (int i = 0; i < cardCount; i++) {
+      Card card = Card.decode(in);
+      shard.cards.put(card.getCardNumber(), card);
+    }
+    int accountCount = in.readVarInt();
+    for (int i = 0; i < accountCount; i++) {
+      TransitUserAccount account = TransitUserAccount.decode(in, shard.cards::get);
+      shard.accounts.put(account.getAccountHolder().getEmail(), account);
+    }
+    return shard;
+  }
+
+  /**
+   * Returns the shard of the cards and the account of the owner with the given email.
+   */
+  private static int shardOf(String email, int shardCount) {
+    return Math.floorMod(email.hashCode(), shardCount);
+  }
+
+  private Path shardFile(long snapshotGeneration, int shard) {
+    return Paths.get(filePath + ".shard." + snapshotGeneration + "." + shard);
+  }
+
+  /**
+   * Runs task for every shard on the common fork join pool and returns the results in shard order.
+   */
+  private static <T> List<T> inParallel(int shardCount, ShardTask<T> task) throws IOException {
+    try {
+      return IntStream.range(0, shardCount)
+              .parallel()
+              .mapToObj(
+                      shard -> {
+                        try {
+                          return task.run(shard);
+                        } catch (IOException e) {
+                          throw new UncheckedIOException(e);
+                        }
+                      })
+              .collect(Collectors.toList());
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private interface ShardTask<T> {
+    T run(int shard) throws IOException;
+  }
+
+  /**
+   * Writes the cards and accounts changed since the last checkpoint to the next delta file, then
+   * merges the segments of the chain if there are enough of them.
+   */
+  private void writeDelta(
+          StoredData data,
+          Set<String> changedCards,
+          Set<String> changedAccounts,
+          List<BuyCardPayment> newAccepted)
+          throws IOException {
+    int next = deltaSequence + 1;
+    Path target = deltaFile(generation, next).toPath();
+    Path temp = Paths.get(target + ".tmp");
+    ArrayList<Card> cards = new ArrayList<>();
+    for (String cardNumber : changedCards) {
+      if (data.cards.containsKey(cardNumber)) {
+        cards.add(data.cards.get(cardNumber));
+      }
+    }
+    ArrayList<TransitUserAccount> accounts = new ArrayList<>();
+    for (String email : changedAccounts) {
+      if (data.accounts.containsKey(email)) {
+        accounts.add(data.accounts.get(email));
+      }
+    }
+    data.expectWrites(cards.size() + accounts.size());
+    writeCheckpoint(temp, generation, data, cards, accounts, newAccepted, 0);
+    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    synchronized (this) {
+      segments.add(new Segment(next, next, target.toFile()));
+      deltaSequence = next;
+      knownCards = data.cards;
+      if (!merging && segments.size() >= MERGE_AT) {
+        merging = true;
+        List<Segment> chain = new ArrayList<>(segments);
+        long chainGeneration = generation;
+        HashMap<String, Card> known = knownCards;
+        merger().execute(() -> merge(chainGeneration, chain, known));
+      }
+    }
+  }
+
+  private ExecutorService merger() {
+    if (merger == null) {
+      merger =
+              Executors.newSingleThreadExecutor(
+                      task -> {
+                        Thread thread = new Thread(task, "delta-merger");
+                        thread.setDaemon(true);
+                        return thread;
+                      });
+    }
+    return merger;
+  }
+
+  /**
+   * Merges the segments of a chain into one segment covering all of their sequence numbers, and
+   * puts it in their place unless a full snapshot was written meanwhile.
+   *
+   * @param chainGeneration the generation of the snapshot the chain is on top of
+   * @param chain the segments to merge, from the first after the snapshot
+   * @param cards the cards the accounts in the segments may refer to
+   */
+  private void merge(long chainGeneration, List<Segment> chain, HashMap<String, Card> cards) {
+    try {
+      StoredData base = new StoredData();
+      base.cards = cards;
+      StoredData merged = new StoredData();
+      for (Segment segment : chain) {
+        merged.apply(readCheckpoint(segment.file, base).data);
+      }
+      int from = chain.get(0).from;
+      int to = chain.get(chain.size() - 1).to;
+      Path target = segmentFile(chainGeneration, from, to).toPath();
+      Path temp = Paths.get(target + ".tmp");
+      writeCheckpoint(
+              temp,
+              chainGeneration,
+              merged,
+              merged.cards.values(),
+              merged.accounts.values(),
+              merged.accepted,
+              0);
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+      synchronized (this) {
+        if (generation != chainGeneration
+                || segments.size() < chain.size()
+                || !segments.subList(0, chain.size()).equals(chain)) {
+          Files.deleteIfExists(target);
+          return;
+        }
+        segments.subList(0, chain.size()).clear();
+        segments.add(0, new Segment(from, to, target.toFile()));
+      }
+      for (Segment segment : chain) {
+        Files.deleteIfExists(segment.file.toPath());
+      }
+    } catch (IOException | RuntimeException e) {
+      // The segments simply stay as they are
+      e.printStackTrace();
+    } finally {
+      synchronized (this) {
+        merging = false;
+      }
+    }
+  }
+
+  /**
+   * Writes a snapshot or a delta. A snapshot holds every accepted payment and the number of shards
+   * its cards and accounts are in, a delta holds the cards, accounts and accepted payments changed
+   * since the previous checkpoint. Both hold all the pending payments, the admin and the fares, and
+   * the file is synced to disk before this returns.
+   */
+  private static void writeCheckpoint(
+          Path path,
+          long snapshotGeneration,
+          StoredData data,
+          Collection<Card> cards,
+          Collection<TransitUserAccount> accounts,
+          List<BuyCardPayment> accepted,
+          int shardCount)
+          throws IOException {
+    BinaryCodec.Writer out = new BinaryCodec.Writer();
+    out.writeVarLong(snapshotGeneration);
+    out.writeVarInt(data.fares.size());
+    for (Map.Entry<String, Double> fare : data.fares.entrySet()) {
+      out.writeWord(fare.getKey());
+      out.writeDouble(fare.getValue());
+    }
+    out.writeBoolean(data.admin != null);
+    if (data.admin != null) {
+      data.admin.encode(out);
+    }
+    // Cards come before the accounts that refer to them
+    out.writeVarInt(cards.size());
+    for (Card card : cards) {
+      data.encode(card, out);
+    }
+    out.writeVarInt(accounts.size());
+    for (TransitUserAccount account : accounts) {
+      data.encode(account, out);
+    }
+    out.writeVarInt(accepted.size());
+    for (BuyCardPayment payment : accepted) {
+      payment.encode(out);
+    }
+    out.writeVarInt(data.pending.size());
+    for (Payment payment : data.pending) {
+      payment.encode(out);
+    }
+    out.writeVarInt(shardCount);
+    try (FileOutputStream file = new FileOutputStream(path.toFile())) {
+      out.writeTo(new BufferedOutputStream(file));
+      file.getFD().sync();
+    }
+  }
+
+  /**
+   * Reads a snapshot or a delta file written by writeCheckpoint, without the shards. Accounts refer
+   * to the cards read along with them, or else to the cards in base.
+   *
+   * @param file the snapshot or delta file
+   * @param base the data a delta applies to, null for a snapshot
+   */
+  private static Checkpoint readCheckpoint(File file, StoredData base) throws IOException {
+    try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+      BinaryCodec.Reader in = new BinaryCodec.Reader(input);
+      Checkpoint checkpoint = new Checkpoint();
+      StoredData data = checkpoint.data;
+      checkpoint.generation = in.readVarLong();
+      int fareCount = in.readVarInt();
+      for (int i = 0; i < fareCount; i++) {
+        data.fares.put(in.readWord(), in.readDouble());
+      }
+      if (in.readBoolean()) {
+        data.admin = AdminUserAccount.decode(in);
+      }
+      int cardCount = in.readVarInt();
+      for (int i = 0; i < cardCount; i++) {
+        Card card = Card.decode(in);
+        data.cards.put(card.getCardNumber(), card);
+      }
+      int accountCount = in.readVarInt();
+      for (int i = 0; i < accountCount; i++) {
+        TransitUserAccount account =
+                TransitUserAccount.decode(
+                        in,
+                        number ->
+                                data.cards.containsKey(number) || base == null
+                                        ? data.cards.get(number)
+                                        : base.cards.get(number));
+        data.accounts.put(account.getAccountHolder().getEmail(), account);
+      }
+      int acceptedCount = in.readVarInt();
+      for (int i = 0; i < acceptedCount; i++) {
+        data.accepted.add((BuyCardPayment) Payment.decode(in));
+      }
+      int pendingCount = in.readVarInt();
+      for (int i = 0; i < pendingCount; i++) {
+        data.pending.add(Payment.decode(in));
+      }
+      checkpoint.shards = in.readVarInt();
+      return checkpoint;
+    }
+  }
+
+  /**
+   * Looks the card up in the deltas from the newest, then in the shards of the snapshot. Slow,
+   * this storage is meant to be loaded as a whole.
+   */
+  @Override
+  public Card findCard(String cardNumber) throws IOException {
+    List<Segment> chain = chain();
+    for (int i = chain.size() - 1; i >= 0; i--) {
+      Card card = readCheckpoint(chain.get(i).file, null).data.cards.get(cardNumber);
+      if (card != null) {
+        return card;
+      }
+    }
+    for (int shard = 0; shard < shards.size(); shard++) {
+      Card card = readShard(generation, shard).cards.get(cardNumber);
+      if (card != null) {
+        return card;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Looks the account up in the deltas from the newest, then in its shard of the snapshot. Slow,
+   * this storage is meant to be loaded as a whole.
+   */
+  @Override
+  public TransitUserAccount findAccount(String email) throws IOException {
+    List<Segment> chain = chain();
+    for (int i = chain.size() - 1; i >= 0; i--) {
+      TransitUserAccount account =
+              readCheckpoint(chain.get(i).file, null).data.accounts.get(email);
+      if (account != null) {
+        return account;
+      }
+    }
+    if (shards.isEmpty()) {
+      return null;
+    }
+    return readShard(generation, shardOf(email, shards.size())).accounts.get(email);
+  }
+
+  /**
+   * Reads a shard of the snapshot of the given generation with the histories of its cards.
+   */
+  private StoredData readShard(long snapshotGeneration, int shard) throws IOException {
+    try (FileChannel channel =
+                 FileChannel.open(shardFile(snapshotGeneration, shard), StandardOpenOption.READ)) {
+      ChunkedFile chunked = ChunkedFile.open(channel);
+      InputStream input = chunked == null ? Channels.newInputStream(channel) : chunked.stream();
+      return readShard(new BinaryCodec.Reader(new BufferedInputStream(input)));
+    }
+  }
+
+  private synchronized List<Segment> chain() {
+    return new ArrayList<>(segments);
+  }
+
+  /**
+   * Returns the file of the delta with the given sequence number on top of the snapshot of the
+   * given generation.
+   */
+  private File deltaFile(long snapshotGeneration, int sequence) {
+    return segmentFile(snapshotGeneration, sequence, sequence);
+  }
+
+  /**
+   * Returns the file of the segment covering the sequence numbers from to to on top of the snapshot
+   * of the given generation. A segment of a single delta is named by its sequence number alone.
+   */
+  private File segmentFile(long snapshotGeneration, int from, int to) {
+    String range = from == to ? String.valueOf(from) : from + "-" + to;
+    return new File(filePath + ".delta." + snapshotGeneration + "." + range);
+  }
+
+  /**
+   * Deletes the deltas and shards of snapshots older than the given generation.
+   */
+  private void deleteChainsBefore(long snapshotGeneration) {
+    for (File file : chainFiles(x -> x < snapshotGeneration)) {
+      try {
+        Files.deleteIfExists(file.toPath());
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Returns the deltas and shards of the snapshots whose generation matches generations.
+   */
+  private List<File> chainFiles(LongPredicate generations) {
+    File snapshot = new File(filePath).getAbsoluteFile();
+    String deltaPrefix = snapshot.getName() + ".delta.";
+    String shardPrefix = snapshot.getName() + ".shard.";
+    File[] files =
+            snapshot
+                    .getParentFile()
+                    .listFiles(
+                            (dir, name) -> name.startsWith(deltaPrefix) || name.startsWith(shardPrefix));
+    List<File> result = new ArrayList<>();
+    if (files == null) {
+      return result;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      int start = name.startsWith(deltaPrefix) ? deltaPrefix.length() : shardPrefix.length();
+      String[] parts = name.substring(start).split("\\.");
+      try {
+        if (generations.test(Long.parseLong(parts[0]))) {
+          result.add(file);
+        }
+      } catch (NumberFormatException e) {
+        e.printStackTrace();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the snapshot, the previous snapshot and all deltas and shards.
+   */
+  @Override
+  public List<Path> listFiles() {
+    List<Path> files = new ArrayList<>();
+    for (String name : new String[] {filePath, filePath + ".prev"}) {
+      if (Files.exists(Paths.get(name))) {
+        files.add(Paths.get(name));
+      }
+    }
+    for (File file : chainFiles(x -> true)) {
+      files.add(file.toPath());
+    }
+    return files;
+  }
+
+  /**
+   * A delta file, or a file merged from consecutive delta files, in the chain after a snapshot.
+   */
+  private static class Segment {
+    private final int from;
+    private final int to;
+    private final File file;
+    private final long length;
+
+    private Segment(int from, int to, File file) {
+      this.from = from;
+      this.to = to;
+      this.file = file;
+      this.length = file.length();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Segment && ((Segment) other).file.equals(file);
+    }
+
+    @Override
+    public int hashCode() {
+      return file.hashCode();
+    }
+  }
+
+  /**
+   * The contents of a snapshot or a delta file.
+   */
+  private static class Checkpoint {
+    private long generation;
+    private final StoredData data = new StoredData();
+    private int shards;
+  }
+}
@@ -0,0 +1,200 @@
+package TransitSystemClasses;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An index of the station names of a network for searching them as they are typed. Names are
+ * kept in a trie from every word they contain, so a search matches the start of any word, and a
+ * search with a few letters wrong, missing or extra still finds the name, so "Islington" finds
+ * "Lslington" and "Downsview Park" finds "Downsview Parl". An index is never changed once built.
+ */
+public class StationIndex {
+  private final Node root = new Node();
+  // The routes through every station, by the name of the station
+  private final HashMap<String, List<String>> routes = new HashMap<>();
+
+  /**
+   * Builds the index of the stations of graph.
+   */
+  StationIndex(TransitGraph graph) {
+    for (int station = 0; station < graph.size(); station++) {
+      String name = graph.name(station);
+      ArrayList<String> stationRoutes = new ArrayList<>();
+      int last = graph.endStationPosition(station);
+      for (int i = graph.firstStationPosition(station); i < last; i++) {
+        String route = graph.routeName(graph.positionRoute(graph.stationPosition(i)));
+        if (!stationRoutes.contains(route)) {
+          stationRoutes.add(route);
+        }
+      }
+      Collections.sort(stationRoutes);
+      routes.put(name, Collections.unmodifiableList(stationRoutes));
+      String normalized = normalize(name);
+      int word = 0;
+      for (int start = 0; start < normalized.length(); start++) {
+        if (start == 0 || normalized.charAt(start - 1) == ' ') {
+          add(normalized.substring(start), new Entry(name, word++));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the stations whose name or a word in it starts with query, or nearly does, the closest
+   * and then the ones whose name starts with it first.
+   *
+   * @param query the start of the name to search, as typed
+   * @param limit the most stations to return
+   * @return the names of the stations found, at most limit
+   */
+  public List<String> search(String query, int limit) {
+    String normalized = normalize(query);
+    ArrayList<String> result = new ArrayList<>();
+    if (normalized.isEmpty()) {
+      return result;
+    }
+    // Short queries must match exactly, there are too many names a letter away from them
+    int maxEdits = normalized.length() <= 3 ? 0 : normalized.length() <= 6 ? 1 : 2;
+    int[] row = new int[normalized.length() + 1];
+    for (int i = 0; i < row.length; i++) {
+      row[i] = i;
+    }
+    HashMap<String, Integer> found = new HashMap<>();
+    search(root, normalized, row, Integer.MAX_VALUE, maxEdits, found);
+    result.addAll(found.keySet());
+    // The best ranked first, then by name
+    result.sort(
+            (a, b) -> {
+              int compare = Integer.compare(found.get(a), found.get(b));
+              return compare != 0 ? compare : a.compareTo(b);
+            });
+    return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+  }
+
+  /**
+   * Returns the routes through a station, sorted by name, or an empty list if it is not indexed.
+   */
+  public List<String> getRoutes(String station) {
+    List<String> stationRoutes = routes.get(station);
+    return stationRoutes == null ? Collections.emptyList() : stationRoutes;
+  }
+
+  /**
+   * Finds the names under node that nearly start with query. row holds the edits between the text
+   * of node and every prefix of query, and best the fewest edits between query and any text on
+   * the way to node.
+   */
+  private void search(
+          Node node,
+          String query,
+          int[] row,
+          int best,
+          int maxEdits,
+          Map<String, Integer> found) {
+    best = Math.min(best, row[query.length()]);
+    if (best == 0) {
+      // Every name below here starts with the query, no text can be closer
+      collect(node, found);
+      return;
+    }
+    if (best <= maxEdits) {
+      for (Entry entry : node.entries) {
+        found.merge(entry.station, rank(best, entry), Math::min);
+      }
+    }
+    int fewest = Integer.MAX_VALUE;
+    for (int edits : row) {
+      fewest = Math.min(fewest, edits);
+    }
+    // Below here no text is closer to the query, only the names already matching are left
+    if (fewest > maxEdits && best > maxEdits) {
+      return;
+    }
+    for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+      char letter = child.getKey();
+      int[] next = new int[row.length];
+      next[0] = row[0] + 1;
+      for (int i = 1; i < row.length; i++) {
+        int substitution = row[i - 1] + (query.charAt(i - 1) == letter ? 0 : 1);
+        next[i] = Math.min(substitution, Math.min(row[i], next[i - 1]) + 1);
+      }
+      search(child.getValue(), query, next, best, maxEdits, found);
+    }
+  }
+
+  /**
+   * Finds all names under node, which start with the query.
+   */
+  private static void collect(Node node, Map<String, Integer> found) {
+    for (Entry entry : node.entries) {
+      found.merge(entry.station, rank(0, entry), Math::min);
+    }
+    for (Node child : node.children.values()) {
+      collect(child, found);
+    }
+  }
+
+  /**
+   * Returns the rank of a name found with the given edits, counting them twice so a name the
+   * query starts at the first word of comes before the names with as many edits it starts at a
+   * later word of.
+   */
+  private static int rank(int edits, Entry entry) {
+    return 2 * edits + (entry.word == 0 ? 0 : 1);
+  }
+
+  private void add(String text, Entry entry) {
+    Node node = root;
+    for (int i = 0; i < text.length(); i++) {
+      node = node.children.computeIfAbsent(text.charAt(i), letter -> new Node());
+    }
+    node.entries.add(entry);
+  }
+
+  /**
+   * Returns a name in lower case, with only its letters, digits and single spaces between words.
+   */
+  static String normalize(String name) {
+    StringBuilder result = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = Character.toLowerCase(name.charAt(i));
+      if (Character.isLetterOrDigit(c)) {
+        result.append(c);
+      } else if (Character.isWhitespace(c) || c == '-') {
+        if (result.length() > 0 && result.charAt(result.length() - 1) != ' ') {
+          result.append(' ');
+        }
+      }
+    }
+    int length = result.length();
+    return length > 0 && result.charAt(length - 1) == ' '
+            ? result.substring(0, length - 1)
+            : result.toString();
+  }
+
+  /**
+   * A node of the trie, the text on the way to it is a word and the rest of a station name.
+   */
+  private static class Node {
+    private final TreeMap<Character, Node> children = new TreeMap<>();
+    private final ArrayList<Entry> entries = new ArrayList<>(1);
+  }
+
+  /**
+   * A station whose name, from the word with the given index on, is the text of a node.
+   */
+  private static class Entry {
+    private final String station;
+    private final int word;
+
+    private Entry(String station, int word) {
+      this.station = station;
+      this.word = word;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package TransitSystemClasses;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Where the data of the transit system is persisted. DataSource keeps the data in memory and
+ * records every mutation in its journal; a StorageBackend saves checkpoints of the data, after which
+ * the journal starts over.
+ *
+ * <p>A checkpoint is identified by a generation and a sequence number, which the journal records so
+ * that it is only replayed on top of the checkpoint it follows.
+ */
+interface StorageBackend extends Closeable {
+
+  /**
+   * Returns the path of the data, the journal and other files are named after it.
+   */
+  String getPath();
+
+  /**
+   * Loads the data of the latest checkpoint. Returns null if nothing has been saved yet.
+   *
+   * @throws IOException if there is saved data but it can't be read
+   */
+  StoredData load() throws IOException;
+
+  /**
+   * Saves a checkpoint of data. The cards and accounts are written through data.encode, and the
+   * histories of the cards that were written are released through data.release.
+   *
+   * @param data all data of the transit system
+   * @param changedCards the numbers of the cards changed since the last checkpoint
+   * @param changedAccounts the emails of the accounts changed since the last checkpoint
+   * @param newAccepted the accepted payments added since the last checkpoint
+   */
+  void save(
+          StoredData data,
+          Set<String> changedCards,
+          Set<String> changedAccounts,
+          List<BuyCardPayment> newAccepted)
+          throws IOException;
+
+  /**
+   * Saves a checkpoint of data that does not depend on any earlier checkpoint.
+   */
+  void saveFull(StoredData data) throws IOException;
+
+  /**
+   * Returns the generation of the latest checkpoint.
+   */
+  long getGeneration();
+
+  /**
+   * Returns the sequence number of the latest checkpoint within its generation.
+   */
+  int getSequence();
+
+  /**
+   * Returns the generation of the checkpoint the next call to save will write.
+   */
+  long nextGeneration();
+
+  /**
+   * Returns the sequence number of the checkpoint the next call to save will write.
+   */
+  int nextSequence();
+
+  /**
+   * Returns the card with the given number as of the latest checkpoint, or null if there is none.
+   * The card is not registered in the system.
+   */
+  Card findCard(String cardNumber) throws IOException;
+
+  /**
+   * Returns the account with the given email as of the latest checkpoint, or null if there is none.
+   * The account and its cards are not registered in the system.
+   */
+  TransitUserAccount findAccount(String email) throws IOException;
+
+  /**
+   * Returns the files the data is stored in, not counting the journal.
+   */
+  List<Path> listFiles() throws IOException;
+
+  /**
+   * Moves files into a new directory named after path with .unreadable appended, or .unreadable.1
+   * and so on if that exists, so that data which could not be read is kept for manual recovery and
+   * no checkpoint is ever saved over it.
+   *
+   * @param path  the path of the data
+   * @param files the files to move
+   * @return the directory the files were moved to
+   */
+  static Path moveAside(String path, List<Path> files) throws IOException {
+    Path directory = Paths.get(path + ".unreadable");
+    for (int i = 1; Files.exists(directory); i++) {
+      directory = Paths.get(path + ".unreadable." + i);
+    }
+    Files.createDirectory(directory);
+    for (Path file : files) {
+      Files.move(file, directory.resolve(file.getFileName()));
+    }
+    return directory;
+  }
+}
@@ -0,0 +1,204 @@
+package TransitSystemClasses;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The data of the transit system as it is loaded from and saved to a StorageBackend. When it is
+ * loaded, none of the objects in it are registered in the system yet.
+ *
+ * <p>A StorageBackend writes the cards and accounts through encode. When the data is a capture
+ * being saved in the background, the cards and accounts in it are still the live ones, and a card
+ * or an account is copied just before it is first changed, so that what is written is the data as
+ * it was when it was captured.
+ */
+class StoredData {
+  HashMap<String, Card> cards = new HashMap<>();
+  HashMap<String, TransitUserAccount> accounts = new HashMap<>();
+  AdminUserAccount admin;
+  ArrayList<BuyCardPayment> accepted = new ArrayList<>();
+  ArrayList<Payment> pending = new ArrayList<>();
+  HashMap<String, Double> fares = new HashMap<>();
+
+  // Whether changes to the cards and accounts are preserved, see capture
+  private boolean captured;
+  // The cards and accounts changed since the capture, and copies of them from before the change
+  private final Set<String> changedCards = ConcurrentHashMap.newKeySet();
+  private final Set<String> changedAccounts = ConcurrentHashMap.newKeySet();
+  private final ConcurrentHashMap<String, Card> cardCopies = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, TransitUserAccount> accountCopies =
+          new ConcurrentHashMap<>();
+  // Told how many of the cards and accounts have been written, may be null
+  private DataSource.SaveProgress progress;
+  private int total;
+  private final AtomicInteger written = new AtomicInteger();
+  private int reported = -1;
+
+  /**
+   * Returns a capture of the given data. The maps and lists are copied and so are the pending
+   * payments and the admin, which are few; the cards and accounts are copied by preserve when they
+   * are about to change. Must be called while no mutation is running.
+   */
+  static StoredData capture(
+          HashMap<String, Card> cards,
+          HashMap<String, TransitUserAccount> accounts,
+          AdminUserAccount admin,
+          ArrayList<BuyCardPayment> accepted,
+          ArrayList<Payment> pending,
+          HashMap<String, Double> fares,
+          DataSource.SaveProgress progress) {
+    StoredData data = new StoredData();
+    data.captured = true;
+    data.progress = progress;
+    data.cards = new HashMap<>(cards);
+    data.accounts = new HashMap<>(accounts);
+    data.accepted = new ArrayList<>(accepted);
+    data.fares = fares;
+    data.admin = admin == null ? null : copy(admin::encode, AdminUserAccount::decode);
+    for (Payment payment : pending) {
+      Payment copy = copy(payment::encode, Payment::decode);
+      copy.relink(data);
+      data.pending.add(copy);
+    }
+    return data;
+  }
+
+  /**
+   * Keeps the card with cardNumber and the account with email as they were when this data was
+   * captured, either may be null. Called before they are changed.
+   */
+  void preserve(String cardNumber, String email) {
+    if (!captured) {
+      return;
+    }
+    Card card = cardNumber == null ? null : cards.get(cardNumber);
+    if (card != null) {
+      synchronized (card) {
+        if (changedCards.add(cardNumber)) {
+          cardCopies.put(cardNumber, copy(card::encode, Card::decode));
+          // release skips this card, so its history must not be paged in from the old snapshot
+          card.pinHistory();
+        }
+      }
+    }
+    TransitUserAccount account = email == null ? null : accounts.get(email);
+    if (account != null) {
+      synchronized (account) {
+        if (changedAccounts.add(email)) {
+          accountCopies.put(
+                  email, copy(account::encode, in -> TransitUserAccount.decode(in, cards::get)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Tells the progress listener how many cards and accounts are about to be written.
+   */
+  void expectWrites(int count) {
+    total = count;
+    written.set(0);
+  }
+
+  /**
+   * Writes the card as it was when this data was captured.
+   */
+  void encode(Card card, BinaryCodec.Writer out) throws IOException {
+    synchronized (card) {
+      cardCopies.getOrDefault(card.getCardNumber(), card).encode(out);
+    }
+    wrote();
+  }
+
+  /**
+   * Writes the account as it was when this data was captured.
+   */
+  void encode(TransitUserAccount account, BinaryCodec.Writer out) throws IOException {
+    String email = account.getAccountHolder().getEmail();
+    synchronized (account) {
+      accountCopies.getOrDefault(email, account).encode(out);
+    }
+    wrote();
+  }
+
+  /**
+   * Lets the history of card be paged in from stored, unless card changed after it was written.
+   */
+  void release(Card card, Card stored) {
+    synchronized (card) {
+      if (!changedCards.contains(card.getCardNumber())) {
+        card.releaseHistory(stored);
+      }
+    }
+  }
+
+  private void wrote() {
+    if (progress == null) {
+      return;
+    }
+    int count = written.incrementAndGet();
+    // Only whole percents are reported
+    int percent = total == 0 ? 100 : (int) (100L * Math.min(count, total) / total);
+    synchronized (this) {
+      if (percent > reported) {
+        reported = percent;
+        progress.update(Math.min(count, total), total);
+      }
+    }
+  }
+
+  /**
+   * Applies changes on top of this data. The cards and accounts in changes replace the ones in this
+   * data, the accepted payments in changes are added to the accepted payments in this data, and
+   * everything else in changes replaces what is in this data.
+   *
+   * @param changes the cards, accounts and accepted payments changed since this data was saved
+   */
+  void apply(StoredData changes) {
+    for (Card card : changes.cards.values()) {
+      cards.put(card.getCardNumber(), card);
+      TransitUserAccount owner = accounts.get(card.getCardHolderEmail());
+      if (owner != null) {
+        ArrayList<Card> myCards = owner.getAccountHolder().getMyCards();
+        myCards.replaceAll(x -> x.getCardNumber().equals(card.getCardNumber()) ? card : x);
+      }
+    }
+    accounts.putAll(changes.accounts);
+    admin = changes.admin;
+    accepted.addAll(changes.accepted);
+    pending = changes.pending;
+    fares = changes.fares;
+  }
+
+  /**
+   * Points the payments at the cards and accounts in this data.
+   */
+  void relinkPayments() {
+    pending.forEach(x -> x.relink(this));
+    accepted.forEach(x -> x.relink(this));
+  }
+
+  /**
+   * Returns a copy of what content writes, read back with decoder.
+   */
+  private static <T> T copy(BinaryCodec.Content content, BinaryCodec.Decoder<T> decoder) {
+    try {
+      BinaryCodec.Writer out = new BinaryCodec.Writer();
+      content.writeTo(out);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      out.writeTo(bytes);
+      return decoder.readFrom(
+              new BinaryCodec.Reader(new ByteArrayInputStream(bytes.toByteArray())));
+    } catch (IOException e) {
+      // Nothing is read from or written to a file
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -4,10 +4,12 @@ import TransitSystemExceptions.ExitNotSameRouteException;
 import TransitSystemExceptions.TripEnRouteException;
 import TransitSystemExceptions.TripNotEnRouteException;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 
 abstract class SubTrip implements Serializable {
+  private static final long serialVersionUID = -4195851258026588789L;
 
   // number of stations / stops reached
   int numOfStops = 0;
@@ -23,6 +25,8 @@ abstract class SubTrip implements Serializable {
   private boolean enRoute = true;
   // the route of the starting station / stop of this SubTrip
   private String routeName;
+  // the Trip this SubTrip is part of, told when the fare or the stops of this SubTrip change
+  private transient Trip trip;
 
   SubTrip(LocalDateTime timeStart, String startPoint, String routeName) {
     this.timeStart = timeStart;
@@ -55,7 +59,46 @@ abstract class SubTrip implements Serializable {
       throw new TripNotEnRouteException("Exit without entry!");
     }
     endTrip(timeEnd, endPoint, route);
+    int stopsBefore = numOfStops;
     this.setNumOfStops();
+    if (trip != null) {
+      trip.stopsChanged(this, numOfStops - stopsBefore);
+    }
+  }
+
+  /**
+   * Writes this SubTrip, without the SubTrips connected to it, to out.
+   */
+  void encode(BinaryCodec.Writer out) throws IOException {
+    out.writeBoolean(this instanceof SubwaySubTrip);
+    out.writeTime(timeStart);
+    out.writeWord(startPoint);
+    out.writeWord(routeName);
+    out.writeBoolean(enRoute);
+    out.writeTime(timeEnd);
+    out.writeWord(endPoint);
+    out.writeDouble(fare);
+    out.writeVarInt(numOfStops);
+  }
+
+  /**
+   * Reads a SubTrip written by encode.
+   */
+  static SubTrip decode(BinaryCodec.Reader in) throws IOException {
+    boolean subway = in.readBoolean();
+    LocalDateTime timeStart = in.readTime();
+    String startPoint = in.readWord();
+    String routeName = in.readWord();
+    SubTrip subTrip =
+            subway
+                    ? new SubwaySubTrip(timeStart, startPoint, routeName)
+                    : new BusSubTrip(timeStart, startPoint, routeName);
+    subTrip.enRoute = in.readBoolean();
+    subTrip.timeEnd = in.readTime();
+    subTrip.endPoint = in.readWord();
+    subTrip.fare = in.readDouble();
+    subTrip.numOfStops = in.readVarInt();
+    return subTrip;
   }
 
   /**
@@ -123,14 +166,28 @@ abstract class SubTrip implements Serializable {
     this.connection = connection;
   }
 
+  /**
+   * Connects the next SubTrip while a trip is being decoded.
+   */
+  void restoreConnection(SubTrip connection) {
+    this.connection = connection;
+  }
+
   double getFare() {
     return fare;
   }
 
   void setFare(double fare) {
+    if (trip != null) {
+      trip.fareChanged(fare - this.fare);
+    }
     this.fare = fare;
   }
 
+  void setTrip(Trip trip) {
+    this.trip = trip;
+  }
+
   boolean isEnRoute() {
     return enRoute;
   }
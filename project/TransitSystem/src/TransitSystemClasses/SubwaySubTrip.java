@@ -7,8 +7,8 @@ import java.time.LocalDateTime;
 import java.util.HashMap;
 
 public class SubwaySubTrip extends SubTrip {
+  private static final long serialVersionUID = 271886484599244020L;
 
-  private static final float FARE_PER_STATION = (float) Fares.subwayFare.getFare();
   private static HashMap<String, String[]> subwayRoutes = new HashMap<>();
 
   SubwaySubTrip(LocalDateTime timeStart, String startPoint, String route) {
@@ -21,6 +21,36 @@ public class SubwaySubTrip extends SubTrip {
 
   public static void setSubwayRoutes(HashMap<String, String[]> subwayRoutes) {
     SubwaySubTrip.subwayRoutes = subwayRoutes;
+    RouteFinder.routesChanged();
+  }
+
+  /**
+   * Adds the subway route name with the given stations, replacing the route with that name if there
+   * is one. Routes are changed between checkpoints, which save them to Stations.txt.
+   */
+  public static void putSubwayRoute(String name, String[] stations) {
+    Journal.begin();
+    try {
+      subwayRoutes.put(name, stations);
+    } finally {
+      Journal.end();
+    }
+    RouteFinder.routesChanged();
+  }
+
+  /**
+   * Removes the subway route name and returns its stations, or null if there is no such route.
+   */
+  public static String[] removeSubwayRoute(String name) {
+    String[] stations;
+    Journal.begin();
+    try {
+      stations = subwayRoutes.remove(name);
+    } finally {
+      Journal.end();
+    }
+    RouteFinder.routesChanged();
+    return stations;
   }
 
   /**
@@ -36,7 +66,7 @@ public class SubwaySubTrip extends SubTrip {
     }
     RouteFinder routeFinder = new RouteFinder("Subway");
     int pathLength = routeFinder.getShortestPathLength(getStartPoint(), getEndPoint());
-    return FARE_PER_STATION * pathLength;
+    return FarePolicy.current().baseFare(this, pathLength);
   }
 
   @Override
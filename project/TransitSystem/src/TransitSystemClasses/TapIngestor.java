@@ -0,0 +1,265 @@
+package TransitSystemClasses;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Applies taps to cards on several worker threads. Every card belongs to one worker, chosen by the
+ * hash of its number, so the taps of a card are applied one at a time in the order they were
+ * submitted and no card is ever changed by two threads at once. Taps of different cards are
+ * applied in parallel.
+ *
+ * <p>Every worker has a bounded queue, submitting a tap waits while the queue of its worker is
+ * full so that taps can't arrive faster than they are applied. A worker takes all the taps waiting
+ * in its queue at once, up to a batch, and calls the callback of every tap once it is applied, in
+ * the order the taps of a card were submitted.
+ *
+ * <p>Closing an ingestor waits for the taps submitted before to be applied, taps submitted after
+ * are refused. Workers ignore interrupts, they only stop once the ingestor is closed.
+ *
+ * <p>A worker changes the cards of its taps without any lock of its own. While an ingestor is
+ * running, the cards given to it must only be changed through it: they must not be tapped,
+ * loaded, suspended or given passes by other threads, which would race with the worker.
+ */
+public class TapIngestor implements AutoCloseable {
+  // Tells a worker to stop once the taps before it are applied
+  private static final Tap STOP = new Tap(null, null, null, null, false, null);
+
+  private final ArrayList<ArrayBlockingQueue<Tap>> queues = new ArrayList<>();
+  private final ArrayList<Thread> workers = new ArrayList<>();
+  private final int batchSize;
+  // Taps are submitted holding the read lock and the ingestor is closed holding the write lock, so
+  // no tap is put in a queue after its STOP
+  private final ReentrantReadWriteLock state = new ReentrantReadWriteLock();
+  private boolean closed;
+
+  /**
+   * Starts an ingestor with the given number of worker threads.
+   *
+   * @param workerCount the number of worker threads
+   * @param capacity    the most taps waiting for each worker
+   * @param batchSize   the most taps a worker takes from its queue at once
+   */
+  public TapIngestor(int workerCount, int capacity, int batchSize) {
+    if (workerCount < 1 || capacity < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("An ingestor needs at least one worker, tap and batch");
+    }
+    this.batchSize = batchSize;
+    for (int i = 0; i < workerCount; i++) {
+      ArrayBlockingQueue<Tap> queue = new ArrayBlockingQueue<>(capacity);
+      Thread worker = new Thread(() -> work(queue), "tap-worker-" + i);
+      worker.setDaemon(true);
+      queues.add(queue);
+      workers.add(worker);
+      worker.start();
+    }
+  }
+
+  /**
+   * Submits a tap of card, waiting while the worker of the card has too many taps to apply.
+   *
+   * @param card     the card tapped
+   * @param time     the time of tapping
+   * @param station  the station / stop of tapping
+   * @param route    the route of the station / stop
+   * @param in       whether the card taps in or out
+   * @param callback called with the tap once it is applied, on the thread of the worker
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public void submit(
+          Card card,
+          LocalDateTime time,
+          String station,
+          String route,
+          boolean in,
+          Consumer<Tap> callback)
+          throws InterruptedException {
+    state.readLock().lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("The ingestor is closed");
+      }
+      queueOf(card).put(new Tap(card, time, station, route, in, callback));
+    } finally {
+      state.readLock().unlock();
+    }
+  }
+
+  /**
+   * Submits a tap of card unless the worker of the card has too many taps to apply.
+   *
+   * @return whether the tap was submitted
+   * @see #submit
+   */
+  public boolean trySubmit(
+          Card card,
+          LocalDateTime time,
+          String station,
+          String route,
+          boolean in,
+          Consumer<Tap> callback) {
+    state.readLock().lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("The ingestor is closed");
+      }
+      return queueOf(card).offer(new Tap(card, time, station, route, in, callback));
+    } finally {
+      state.readLock().unlock();
+    }
+  }
+
+  /**
+   * Stops accepting taps, and waits for the taps submitted to be applied and the workers to stop.
+   * Waits for submits that are waiting on a full queue first. An interrupt does not stop the wait,
+   * the thread is interrupted again once the workers stopped.
+   */
+  @Override
+  public void close() {
+    boolean stop;
+    state.writeLock().lock();
+    try {
+      stop = !closed;
+      closed = true;
+    } finally {
+      state.writeLock().unlock();
+    }
+    boolean interrupted = false;
+    if (stop) {
+      for (ArrayBlockingQueue<Tap> queue : queues) {
+        while (true) {
+          try {
+            queue.put(STOP);
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+    }
+    for (Thread worker : workers) {
+      while (worker.isAlive()) {
+        try {
+          worker.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private ArrayBlockingQueue<Tap> queueOf(Card card) {
+    int hash = card.getCardNumber().hashCode();
+    return queues.get(Math.floorMod(hash ^ (hash >>> 16), queues.size()));
+  }
+
+  /**
+   * Applies the taps of queue until it is told to stop.
+   */
+  private void work(ArrayBlockingQueue<Tap> queue) {
+    ArrayList<Tap> batch = new ArrayList<>(batchSize);
+    while (true) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        // Only STOP stops a worker, the taps in its queue would never be applied otherwise
+        continue;
+      }
+      queue.drainTo(batch, batchSize - 1);
+      for (Tap tap : batch) {
+        if (tap == STOP) {
+          return;
+        }
+        tap.apply();
+      }
+      batch.clear();
+    }
+  }
+
+  /**
+   * A tap submitted to an ingestor, and once it is applied the fare charged or the exception it
+   * raised.
+   */
+  public static class Tap {
+    private final Card card;
+    private final LocalDateTime time;
+    private final String station;
+    private final String route;
+    private final boolean in;
+    private final Consumer<Tap> callback;
+    private double fare;
+    private Exception error;
+
+    private Tap(
+            Card card,
+            LocalDateTime time,
+            String station,
+            String route,
+            boolean in,
+            Consumer<Tap> callback) {
+      this.card = card;
+      this.time = time;
+      this.station = station;
+      this.route = route;
+      this.in = in;
+      this.callback = callback;
+    }
+
+    private void apply() {
+      try {
+        // Fines are charged by the tap too and are part of the fare
+        fare = card.tapCard(time, station, route, in);
+      } catch (Exception e) {
+        error = e;
+      }
+      if (callback != null) {
+        try {
+          callback.accept(this);
+        } catch (RuntimeException e) {
+          // A failing callback must not stop the worker
+          e.printStackTrace();
+        }
+      }
+    }
+
+    public Card getCard() {
+      return card;
+    }
+
+    public LocalDateTime getTime() {
+      return time;
+    }
+
+    public String getStation() {
+      return station;
+    }
+
+    public String getRoute() {
+      return route;
+    }
+
+    public boolean isIn() {
+      return in;
+    }
+
+    /**
+     * Returns the amount charged to the card by this tap, 0 if it was not charged.
+     */
+    public double getFare() {
+      return fare;
+    }
+
+    /**
+     * Returns the exception the tap raised, or null if it was applied.
+     */
+    public Exception getError() {
+      return error;
+    }
+  }
+}
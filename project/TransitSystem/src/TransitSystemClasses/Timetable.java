@@ -0,0 +1,106 @@
+package TransitSystemClasses;
+
+import TransitSystemExceptions.FileReadException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * The scheduled trips of the subway and bus routes. Every trip runs a route from its first station
+ * to its last (forward) or from its last station to its first (backward), and has the time it
+ * leaves every station on the way, in minutes after midnight. A Timetable is never changed once
+ * read.
+ */
+public class Timetable {
+  // The trips of every route in each direction by the name of the route
+  private final HashMap<String, List<int[]>> forward = new HashMap<>();
+  private final HashMap<String, List<int[]>> backward = new HashMap<>();
+
+  private Timetable() {}
+
+  /**
+   * Reads a timetable from filePath. Every line is one trip, the name of its route, its direction
+   * and the time it leaves every station, for example "Line 1(Forward): 06:00 - 06:03 - 06:05;".
+   * Times after midnight of trips that start the day before are written as 24:10 and so on.
+   *
+   * @param filePath the path of the file that stores the timetable
+   * @return the trips in the file
+   * @throws FileReadException if the file can't be read or a line is not a trip
+   */
+  public static Timetable read(String filePath) throws FileReadException {
+    Timetable timetable = new Timetable();
+    Scanner content;
+    try {
+      content = new Scanner(new File(filePath));
+    } catch (IOException e) {
+      throw new FileReadException("Timetable file missing.");
+    }
+    while (content.hasNextLine()) {
+      String thisLine = content.nextLine();
+      if (thisLine.trim().isEmpty()) {
+        continue;
+      }
+      int nameEnd = thisLine.indexOf("(");
+      int columnIndex = thisLine.indexOf(":");
+      int lineEnd = thisLine.indexOf(";");
+      if (nameEnd < 0 || columnIndex < nameEnd || lineEnd < columnIndex) {
+        throw new FileReadException(String.format("%s: Not a trip!", thisLine));
+      }
+      String routeName = thisLine.substring(0, nameEnd);
+      // -1 is to get rid of the bracket.
+      String direction = thisLine.substring(nameEnd + 1, columnIndex - 1);
+      String[] timeArray = thisLine.substring(columnIndex + 1, lineEnd).split("-");
+      int[] times = new int[timeArray.length];
+      for (int i = 0; i < timeArray.length; i++) {
+        times[i] = minutes(timeArray[i].trim());
+        if (i > 0 && times[i] < times[i - 1]) {
+          throw new FileReadException(
+                  String.format("%s: Trip leaves a station before the one before it!", thisLine));
+        }
+      }
+      HashMap<String, List<int[]>> trips;
+      if (direction.equalsIgnoreCase("forward")) {
+        trips = timetable.forward;
+      } else if (direction.equalsIgnoreCase("backward")) {
+        trips = timetable.backward;
+      } else {
+        throw new FileReadException(
+                String.format("%s: Designated direction does not exist!", direction));
+      }
+      trips.computeIfAbsent(routeName, route -> new ArrayList<>()).add(times);
+    }
+    content.close();
+    return timetable;
+  }
+
+  /**
+   * Returns the minutes after midnight of a time written as hours:minutes.
+   */
+  private static int minutes(String time) throws FileReadException {
+    int colon = time.indexOf(":");
+    try {
+      int hours = Integer.parseInt(time.substring(0, Math.max(colon, 0)));
+      int minutes = Integer.parseInt(time.substring(colon + 1));
+      if (hours < 0 || minutes < 0 || minutes >= 60) {
+        throw new NumberFormatException();
+      }
+      return hours * 60 + minutes;
+    } catch (NumberFormatException e) {
+      throw new FileReadException(String.format("%s: Not a time!", time));
+    }
+  }
+
+  /**
+   * Returns the trips of a route in one direction, each the time it leaves every station of the
+   * route in the order it passes them.
+   */
+  List<int[]> getTrips(String route, boolean isForward) {
+    List<int[]> trips = (isForward ? forward : backward).get(route);
+    return trips == null ? Collections.emptyList() : trips;
+  }
+}
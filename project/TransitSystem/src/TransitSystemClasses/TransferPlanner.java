@@ -0,0 +1,281 @@
+package TransitSystemClasses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plans routes that weigh transfers as well as stops. A rider is at a position of a TransitGraph,
+ * a stop of a route, and either rides to the next or the previous stop of the route or transfers
+ * to another route at the same station.
+ */
+class TransferPlanner {
+  // The most transfers paretoSet looks for plans with
+  static final int MAX_TRANSFERS = 8;
+
+  private final TransitGraph graph;
+
+  TransferPlanner(TransitGraph graph) {
+    this.graph = graph;
+  }
+
+  /**
+   * Returns the plan from the station from to the station to with the lowest cost, where every stop
+   * costs 1 and every transfer costs transferPenalty. Returns null if there is no path.
+   */
+  RoutePlan cheapest(int from, int to, int transferPenalty) {
+    int count = graph.positionCount();
+    int[] cost = new int[count];
+    int[] parent = new int[count];
+    Arrays.fill(cost, Integer.MAX_VALUE);
+    IntHeap queue = new IntHeap(count);
+    for (int i = graph.firstStationPosition(from); i < graph.endStationPosition(from); i++) {
+      int position = graph.stationPosition(i);
+      cost[position] = 0;
+      parent[position] = -1;
+      queue.offer(position, 0);
+    }
+    while (!queue.isEmpty()) {
+      int position = queue.poll();
+      int station = graph.positionStation(position);
+      if (station == to) {
+        return plan(position, parent);
+      }
+      int route = graph.positionRoute(position);
+      // Riding to the next or previous stop costs a stop unless the route stays at the station
+      for (int next = position - 1; next <= position + 1; next += 2) {
+        if (next >= graph.firstPosition(route) && next < graph.endPosition(route)) {
+          int stops = graph.positionStation(next) == station ? 0 : 1;
+          relax(position, next, cost[position] + stops, cost, parent, queue);
+        }
+      }
+      // Changing to another route at the station is a transfer, the same route passing the
+      // station again is not
+      int last = graph.endStationPosition(station);
+      for (int i = graph.firstStationPosition(station); i < last; i++) {
+        int other = graph.stationPosition(i);
+        int penalty = graph.positionRoute(other) == route ? 0 : transferPenalty;
+        relax(position, other, cost[position] + penalty, cost, parent, queue);
+      }
+    }
+    return null;
+  }
+
+  private static void relax(
+          int from, int to, int newCost, int[] cost, int[] parent, IntHeap queue) {
+    if (newCost < cost[to]) {
+      cost[to] = newCost;
+      parent[to] = from;
+      queue.offer(to, newCost);
+    }
+  }
+
+  /**
+   * Returns the plans from the station from to the station to that no other plan beats on both
+   * stops and transfers, from the fewest transfers to the fewest stops. Found one round per number
+   * of transfers: a round rides every route boarded in it from where it was boarded, and boards the
+   * routes at the stations whose positions the round improved for the next round.
+   */
+  List<RoutePlan> paretoSet(int from, int to) {
+    int count = graph.positionCount();
+    ArrayList<RoutePlan> plans = new ArrayList<>();
+    // The fewest stops any round reached every position with
+    int[] best = new int[count];
+    Arrays.fill(best, Integer.MAX_VALUE);
+    // The cost of boarding every position in the current round, and where it is boarded from
+    int[] board = new int[count];
+    int[] boardFrom = new int[count];
+    // For every round, the position every position improved by the round was boarded at and the
+    // position of the previous round it was boarded from
+    ArrayList<int[]> rides = new ArrayList<>();
+    ArrayList<int[]> boardings = new ArrayList<>();
+    boolean[] boardedRoutes = new boolean[graph.routeCount()];
+    Arrays.fill(board, Integer.MAX_VALUE);
+    for (int i = graph.firstStationPosition(from); i < graph.endStationPosition(from); i++) {
+      int position = graph.stationPosition(i);
+      board[position] = 0;
+      boardFrom[position] = -1;
+      boardedRoutes[graph.positionRoute(position)] = true;
+    }
+    int fewestStops = Integer.MAX_VALUE;
+    for (int round = 0; round <= MAX_TRANSFERS; round++) {
+      int[] rideFrom = new int[count];
+      boolean[] improvedNow = new boolean[count];
+      boolean any = false;
+      for (int route = 0; route < graph.routeCount(); route++) {
+        if (boardedRoutes[route]) {
+          any |= ride(route, fewestStops, board, boardFrom, best, rideFrom, improvedNow);
+        }
+      }
+      if (!any) {
+        break;
+      }
+      rides.add(rideFrom);
+      boardings.add(boardFrom.clone());
+      int end = -1;
+      for (int i = graph.firstStationPosition(to); i < graph.endStationPosition(to); i++) {
+        int position = graph.stationPosition(i);
+        if (improvedNow[position] && best[position] < fewestStops) {
+          fewestStops = best[position];
+          end = position;
+        }
+      }
+      if (end >= 0) {
+        plans.add(planOfRounds(end, round, rides, boardings));
+      }
+
+      // Board the other routes at the stations of the improved positions
+      Arrays.fill(board, Integer.MAX_VALUE);
+      Arrays.fill(boardedRoutes, false);
+      for (int position = 0; position < count; position++) {
+        if (!improvedNow[position]) {
+          continue;
+        }
+        int station = graph.positionStation(position);
+        int last = graph.endStationPosition(station);
+        for (int i = graph.firstStationPosition(station); i < last; i++) {
+          int other = graph.stationPosition(i);
+          if (graph.positionRoute(other) != graph.positionRoute(position)
+                  && best[position] < board[other]) {
+            board[other] = best[position];
+            boardFrom[other] = position;
+            boardedRoutes[graph.positionRoute(other)] = true;
+          }
+        }
+      }
+    }
+    return plans;
+  }
+
+  /**
+   * Rides a route in both directions from the positions boarded on it, lowering best and noting
+   * the boarding position of every position lowered. Where the route passes a station more than
+   * once, it is boarded again at the other passes without a transfer, noted in boardFrom as
+   * sameRoute of the position it is boarded from. Positions are only lowered below bound, the
+   * fewest stops the end is already reached with. Returns whether any position was lowered.
+   */
+  private boolean ride(
+          int route,
+          int bound,
+          int[] board,
+          int[] boardFrom,
+          int[] best,
+          int[] rideFrom,
+          boolean[] improved) {
+    boolean any = false;
+    int first = graph.firstPosition(route);
+    int end = graph.endPosition(route);
+    boolean boarded = true;
+    while (boarded) {
+      for (int direction = 0; direction < 2; direction++) {
+        int stops = Integer.MAX_VALUE;
+        int boardedAt = -1;
+        int previous = -1;
+        for (int k = 0; k < end - first; k++) {
+          int position = direction == 0 ? first + k : end - 1 - k;
+          if (stops != Integer.MAX_VALUE
+                  && graph.positionStation(position) != graph.positionStation(previous)) {
+            stops++;
+          }
+          previous = position;
+          if (board[position] < stops) {
+            stops = board[position];
+            boardedAt = position;
+          }
+          if (stops < best[position] && stops < bound) {
+            best[position] = stops;
+            rideFrom[position] = boardedAt;
+            improved[position] = true;
+            any = true;
+          }
+        }
+      }
+      boarded = false;
+      for (int position = first; position < end; position++) {
+        if (!improved[position]) {
+          continue;
+        }
+        int station = graph.positionStation(position);
+        int last = graph.endStationPosition(station);
+        for (int i = graph.firstStationPosition(station); i < last; i++) {
+          int other = graph.stationPosition(i);
+          if (other != position
+                  && graph.positionRoute(other) == route
+                  && best[position] < board[other]) {
+            board[other] = best[position];
+            boardFrom[other] = sameRoute(position);
+            boarded = true;
+          }
+        }
+      }
+    }
+    return any;
+  }
+
+  /**
+   * Marks a position a route is boarded from as a position on the same route, see ride.
+   */
+  private static int sameRoute(int position) {
+    return -2 - position;
+  }
+
+  /**
+   * Returns the plan ending at position end as found by the rounds up to round.
+   */
+  private RoutePlan planOfRounds(
+          int end, int round, List<int[]> rides, List<int[]> boardings) {
+    ArrayList<Integer> path = new ArrayList<>();
+    int position = end;
+    int r = round;
+    while (true) {
+      int boardedAt = rides.get(r)[position];
+      int step = boardedAt > position ? 1 : -1;
+      for (int p = position; p != boardedAt; p += step) {
+        path.add(p);
+      }
+      path.add(boardedAt);
+      int from = boardings.get(r)[boardedAt];
+      if (from == -1) {
+        break;
+      }
+      if (from < -1) {
+        position = sameRoute(from);
+      } else {
+        position = from;
+        r--;
+      }
+    }
+    return plan(path);
+  }
+
+  /**
+   * Returns the plan ending at position as found by cheapest.
+   */
+  private RoutePlan plan(int position, int[] parent) {
+    ArrayList<Integer> path = new ArrayList<>();
+    for (int p = position; p >= 0; p = parent[p]) {
+      path.add(p);
+    }
+    return plan(path);
+  }
+
+  /**
+   * Returns the plan through the given positions, from the last to the first. Consecutive
+   * positions are either next to each other on a route or at the same station.
+   */
+  private RoutePlan plan(List<Integer> path) {
+    ArrayList<String> stations = new ArrayList<>();
+    ArrayList<String> routes = new ArrayList<>();
+    int station = graph.positionStation(path.get(path.size() - 1));
+    stations.add(graph.name(station));
+    for (int i = path.size() - 2; i >= 0; i--) {
+      int position = path.get(i);
+      if (graph.positionStation(position) != station) {
+        station = graph.positionStation(position);
+        stations.add(graph.name(station));
+        routes.add(graph.routeName(graph.positionRoute(position)));
+      }
+    }
+    return new RoutePlan(stations, routes);
+  }
+}
@@ -0,0 +1,242 @@
+package TransitSystemClasses;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The stations of a network and the connections between them, built from routes. Every station
+ * and every route gets a dense int ID, and the connections are kept in compressed sparse row form:
+ * the connections of the station with ID s are the edges from offsets[s] to offsets[s + 1], and
+ * edge e leads to the station targets[e] along the route routes[e]. Searches over the graph use
+ * arrays indexed by station ID instead of maps.
+ *
+ * <p>Two neighbouring stations are connected once, by the last route that has them next to each
+ * other. The routes themselves are kept as well: every stop of every route is a position, the
+ * positions of a route are numbered consecutively in the order of its stops, and the positions at
+ * every station are kept in compressed sparse row form like the connections. A TransitGraph is
+ * never changed once built.
+ */
+class TransitGraph {
+  // The ID of every station, only used to look up the stations a search starts and ends at
+  private final HashMap<String, Integer> ids = new HashMap<>();
+  private final String[] names;
+  private final String[] routeNames;
+  private final int[] offsets;
+  private final int[] targets;
+  private final int[] routes;
+  // The positions of the route with ID r are routeOffsets[r] to routeOffsets[r + 1] - 1
+  private final int[] routeOffsets;
+  // The station and the route of every position
+  private final int[] positionStations;
+  private final int[] positionRoutes;
+  // The positions at the station with ID s are stationPositions[positionOffsets[s]] to
+  // stationPositions[positionOffsets[s + 1] - 1]
+  private final int[] positionOffsets;
+  private final int[] stationPositions;
+
+  /**
+   * Builds the graph of the stations on the given routes.
+   *
+   * @param allRoutes the stations of every route by the name of the route, in order
+   */
+  TransitGraph(Map<String, String[]> allRoutes) {
+    routeNames = allRoutes.keySet().toArray(new String[0]);
+    ArrayList<String> stationNames = new ArrayList<>();
+    int[][] stops = new int[routeNames.length][];
+    for (int route = 0; route < routeNames.length; route++) {
+      String[] stations = allRoutes.get(routeNames[route]);
+      stops[route] = new int[stations.length];
+      for (int k = 0; k < stations.length; k++) {
+        Integer id = ids.get(stations[k]);
+        if (id == null) {
+          id = stationNames.size();
+          ids.put(stations[k], id);
+          stationNames.add(stations[k]);
+        }
+        stops[route][k] = id;
+      }
+    }
+    names = stationNames.toArray(new String[0]);
+
+    // Count the edges of every station, then fill them in
+    int[] start = new int[names.length + 1];
+    for (int[] route : stops) {
+      for (int k = 0; k < route.length - 1; k++) {
+        if (route[k] != route[k + 1]) {
+          start[route[k] + 1]++;
+          start[route[k + 1] + 1]++;
+        }
+      }
+    }
+    for (int station = 0; station < names.length; station++) {
+      start[station + 1] += start[station];
+    }
+    int[] edgeTargets = new int[start[names.length]];
+    int[] edgeRoutes = new int[edgeTargets.length];
+    int[] fill = Arrays.copyOf(start, names.length);
+    for (int route = 0; route < stops.length; route++) {
+      int[] stations = stops[route];
+      for (int k = 0; k < stations.length - 1; k++) {
+        int from = stations[k];
+        int to = stations[k + 1];
+        if (from != to) {
+          edgeTargets[fill[from]] = to;
+          edgeRoutes[fill[from]++] = route;
+          edgeTargets[fill[to]] = from;
+          edgeRoutes[fill[to]++] = route;
+        }
+      }
+    }
+
+    // Keep the last edge between every two stations
+    offsets = new int[names.length + 1];
+    int[] keptTargets = new int[edgeTargets.length];
+    int[] keptRoutes = new int[edgeTargets.length];
+    int[] seenFrom = new int[names.length];
+    Arrays.fill(seenFrom, -1);
+    int kept = 0;
+    for (int station = 0; station < names.length; station++) {
+      offsets[station] = kept;
+      for (int edge = start[station + 1] - 1; edge >= start[station]; edge--) {
+        if (seenFrom[edgeTargets[edge]] != station) {
+          seenFrom[edgeTargets[edge]] = station;
+          keptTargets[kept] = edgeTargets[edge];
+          keptRoutes[kept++] = edgeRoutes[edge];
+        }
+      }
+    }
+    offsets[names.length] = kept;
+    targets = Arrays.copyOf(keptTargets, kept);
+    routes = Arrays.copyOf(keptRoutes, kept);
+
+    routeOffsets = new int[routeNames.length + 1];
+    for (int route = 0; route < stops.length; route++) {
+      routeOffsets[route + 1] = routeOffsets[route] + stops[route].length;
+    }
+    positionStations = new int[routeOffsets[stops.length]];
+    positionRoutes = new int[positionStations.length];
+    positionOffsets = new int[names.length + 1];
+    for (int route = 0; route < stops.length; route++) {
+      for (int k = 0; k < stops[route].length; k++) {
+        positionStations[routeOffsets[route] + k] = stops[route][k];
+        positionRoutes[routeOffsets[route] + k] = route;
+        positionOffsets[stops[route][k] + 1]++;
+      }
+    }
+    for (int station = 0; station < names.length; station++) {
+      positionOffsets[station + 1] += positionOffsets[station];
+    }
+    stationPositions = new int[positionStations.length];
+    fill = Arrays.copyOf(positionOffsets, names.length);
+    for (int position = 0; position < positionStations.length; position++) {
+      stationPositions[fill[positionStations[position]]++] = position;
+    }
+  }
+
+  /**
+   * Returns the number of stations.
+   */
+  int size() {
+    return names.length;
+  }
+
+  /**
+   * Returns the ID of the station with the given name, or -1 if it is not in this graph.
+   */
+  int id(String name) {
+    Integer id = ids.get(name);
+    return id == null ? -1 : id;
+  }
+
+  String name(int station) {
+    return names[station];
+  }
+
+  /**
+   * Returns the first edge of a station.
+   */
+  int firstEdge(int station) {
+    return offsets[station];
+  }
+
+  /**
+   * Returns the edge after the last edge of a station.
+   */
+  int endEdge(int station) {
+    return offsets[station + 1];
+  }
+
+  /**
+   * Returns the station an edge leads to.
+   */
+  int target(int edge) {
+    return targets[edge];
+  }
+
+  /**
+   * Returns the ID of the route an edge is on.
+   */
+  int route(int edge) {
+    return routes[edge];
+  }
+
+  String routeName(int route) {
+    return routeNames[route];
+  }
+
+  int routeCount() {
+    return routeNames.length;
+  }
+
+  /**
+   * Returns the first position of a route.
+   */
+  int firstPosition(int route) {
+    return routeOffsets[route];
+  }
+
+  /**
+   * Returns the position after the last position of a route.
+   */
+  int endPosition(int route) {
+    return routeOffsets[route + 1];
+  }
+
+  /**
+   * Returns the number of positions on all routes.
+   */
+  int positionCount() {
+    return positionStations.length;
+  }
+
+  int positionStation(int position) {
+    return positionStations[position];
+  }
+
+  int positionRoute(int position) {
+    return positionRoutes[position];
+  }
+
+  /**
+   * Returns the index of the first position at a station in the positions at stations.
+   */
+  int firstStationPosition(int station) {
+    return positionOffsets[station];
+  }
+
+  /**
+   * Returns the index after the last position at a station in the positions at stations.
+   */
+  int endStationPosition(int station) {
+    return positionOffsets[station + 1];
+  }
+
+  /**
+   * Returns the position at a station with the given index, see firstStationPosition.
+   */
+  int stationPosition(int index) {
+    return stationPositions[index];
+  }
+}
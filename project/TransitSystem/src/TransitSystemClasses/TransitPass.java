@@ -1,5 +1,6 @@
 package TransitSystemClasses;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.time.LocalDate;
 
@@ -7,6 +8,8 @@ import java.time.LocalDate;
  * A Transit Pass that can be loaded onto a Card
  */
 class TransitPass implements Serializable {
+  private static final long serialVersionUID = 3512931697784945229L;
+
   private LocalDate startTime;
   private LocalDate endTime;
   private double price;
@@ -40,6 +43,20 @@ class TransitPass implements Serializable {
     return new TransitPass(startTime, endTime, type, price);
   }
 
+  void encode(BinaryCodec.Writer out) throws IOException {
+    out.writeDate(startTime);
+    out.writeVarInt(getDuration());
+    out.writeDouble(price);
+    out.writeWord(type);
+  }
+
+  static TransitPass decode(BinaryCodec.Reader in) throws IOException {
+    LocalDate startTime = in.readDate();
+    LocalDate endTime = startTime.plusDays(in.readVarInt());
+    double price = in.readDouble();
+    return new TransitPass(startTime, endTime, in.readWord(), price);
+  }
+
   /**
    * Returns whether this transit pass is valid at given date.
    *
@@ -58,6 +75,24 @@ class TransitPass implements Serializable {
             startTime.until(endTime).getDays(), startTime.toString(), (endTime.minusDays(1)).toString());
   }
 
+  LocalDate getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Returns the first day this transit pass is no longer valid.
+   */
+  LocalDate getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * Returns the number of days this transit pass lasts.
+   */
+  int getDuration() {
+    return (int) startTime.until(endTime, java.time.temporal.ChronoUnit.DAYS);
+  }
+
   double getPrice() {
     return price;
   }
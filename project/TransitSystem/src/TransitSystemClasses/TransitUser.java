@@ -1,13 +1,16 @@
 package TransitSystemClasses;
 
 import TransitSystemExceptions.CardNotFoundException;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.function.Function;
 
 /**
  * A TransitUser that contains personal information about this User.
  */
 public class TransitUser extends User implements Serializable {
+  private static final long serialVersionUID = 6343800789632335161L;
 
   // *** Instance variables ***
   private final ArrayList<Card> myCards; // A Stack of all this User's Card's. The
@@ -25,6 +28,36 @@ public class TransitUser extends User implements Serializable {
     this.myCards = new ArrayList<>();
   }
 
+  /**
+   * Reads a TransitUser written by encode.
+   *
+   * @param in    the reader positioned at the user
+   * @param cards finds the Card with the given card number
+   */
+  TransitUser(BinaryCodec.Reader in, Function<String, Card> cards) throws IOException {
+    super(in);
+    int count = in.readVarInt();
+    this.myCards = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Card card = cards.apply(in.readText());
+      if (card != null) {
+        myCards.add(card);
+      }
+    }
+  }
+
+  /**
+   * Writes this TransitUser to out, Cards are written by card number only.
+   */
+  @Override
+  void encode(BinaryCodec.Writer out) throws IOException {
+    super.encode(out);
+    out.writeVarInt(myCards.size());
+    for (Card card : myCards) {
+      out.writeText(card.getCardNumber());
+    }
+  }
+
   /**
    * Returns a list of Card's that this TransitUser owns.
    *
@@ -54,6 +87,7 @@ public class TransitUser extends User implements Serializable {
     if (!myCards.contains(card)) {
       throw new CardNotFoundException("This card has already been removed.");
     } else {
+      Journal.cardRemoved(getEmail(), card.getCardNumber());
       myCards.remove(card);
     }
   }
@@ -18,31 +18,23 @@ import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.logging.FileHandler;
-import java.util.logging.Handler;
-import java.util.logging.Level;
+import java.util.function.Function;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 import javax.naming.InvalidNameException;
 
 /** A TransitUserAccount for a User. */
 public class TransitUserAccount implements Serializable {
+  private static final long serialVersionUID = 783704514297009977L;
 
   private static final Logger logger = Logger.getLogger(TransitUserAccount.class.getName());
   private static HashMap<String, TransitUserAccount> allTransitUserAccount;
   private TransitUser accountHolder; // The User (owner) of this Account.
+  // The modification version of the last change to this account, see Journal.touch
+  private transient long version;
 
   // Initialize the logger to log the information of operations by TransitUsers.
   static {
-    logger.setUseParentHandlers(false);
-    try {
-      Handler fileHandler = new FileHandler("TransitUserAccountLog.txt", true);
-      logger.addHandler(fileHandler);
-      SimpleFormatter formatter = new SimpleFormatter();
-      fileHandler.setFormatter(formatter);
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    EventLog.open(logger, "TransitUserAccountLog.txt");
   }
 
   /**
@@ -52,9 +44,30 @@ public class TransitUserAccount implements Serializable {
    */
   public TransitUserAccount(TransitUser accountHolder) {
     this.accountHolder = accountHolder;
+    this.version = Journal.nextVersion();
     allTransitUserAccount.put(accountHolder.getEmail(), this);
   }
 
+  private TransitUserAccount(BinaryCodec.Reader in, Function<String, Card> cards)
+      throws IOException {
+    this.accountHolder = new TransitUser(in, cards);
+  }
+
+  /**
+   * Reads an account written by encode without registering it in the system.
+   *
+   * @param in the reader positioned at the account
+   * @param cards finds the Card with the given card number
+   */
+  static TransitUserAccount decode(BinaryCodec.Reader in, Function<String, Card> cards)
+      throws IOException {
+    return new TransitUserAccount(in, cards);
+  }
+
+  void encode(BinaryCodec.Writer out) throws IOException {
+    accountHolder.encode(out);
+  }
+
   /**
    * handle the login request of a TransitUserAccount
    *
@@ -67,15 +80,15 @@ public class TransitUserAccount implements Serializable {
       throws LoginFailException {
     TransitUserAccount account = allTransitUserAccount.get(email);
     if (account == null) {
-      logger.log(Level.INFO, String.format("Login in fail: %s: account doesn't exist", email));
+      EventLog.message(logger, String.format("Login in fail: %s: account doesn't exist", email));
       throw new LoginFailException(String.format("%s: account doesn't exist", email));
     }
     if (account.getAccountHolder().verifyLogin(plainPassword)) {
-      logger.log(Level.INFO, String.format("Transit User %s Login in.", email));
+      EventLog.message(logger, String.format("Transit User %s Login in.", email));
       return account;
     }
-    logger.log(
-        Level.INFO, String.format("Transit User %s Login fail because of wrong password.", email));
+    EventLog.message(
+        logger, String.format("Transit User %s Login fail because of wrong password.", email));
     throw new LoginFailException("Either password or account email is incorrect");
   }
 
@@ -95,9 +108,15 @@ public class TransitUserAccount implements Serializable {
       throw new UserExistException(
           String.format("%s has already registered in this system", email));
     }
-    logger.log(Level.INFO, String.format("%s registers in the system", email));
-    TransitUser user = new TransitUser(firstName, lastName, email, plainPassword);
-    new TransitUserAccount(user);
+    EventLog.message(logger, String.format("%s registers in the system", email));
+    Journal.begin();
+    try {
+      TransitUser user = new TransitUser(firstName, lastName, email, plainPassword);
+      Journal.accountCreated(email, firstName, lastName, user.getPasswordHash());
+      new TransitUserAccount(user);
+    } finally {
+      Journal.end();
+    }
   }
 
   /**
@@ -109,12 +128,18 @@ public class TransitUserAccount implements Serializable {
   public void changeName(String firstName, String lastName) throws InvalidNameException {
     String fullName = firstName + " " + lastName;
     if (isValidName(fullName)) {
-      logger.log(
-          Level.INFO,
+      EventLog.message(
+          logger,
           String.format(
               "%s change name from %s to %s",
               accountHolder.getEmail(), accountHolder.getName(), firstName + " " + lastName));
-      accountHolder.setName(firstName, lastName);
+      Journal.begin();
+      try {
+        Journal.accountRenamed(accountHolder.getEmail(), firstName, lastName);
+        accountHolder.setName(firstName, lastName);
+      } finally {
+        Journal.end();
+      }
     } else {
       throw new InvalidNameException("This is not a valid name.");
     }
@@ -171,9 +196,14 @@ public class TransitUserAccount implements Serializable {
       throws IncorrectOwnerException, InvalidLoadAmountException {
     checkValidHolder(card);
     if (value == 10 | value == 20 | value == 50 | value == 100) {
-      new LoadValuePayment(value, creditCardHolder, cvv, creditCardNumber, card);
-      logger.log(
-          Level.INFO,
+      Journal.begin();
+      try {
+        new LoadValuePayment(value, creditCardHolder, cvv, creditCardNumber, card);
+      } finally {
+        Journal.end();
+      }
+      EventLog.message(
+          logger,
           String.format(
               "%s start a request a load value request of loading $%s to %s",
               accountHolder.getEmail(), value, card.getCardNumber()));
@@ -187,8 +217,8 @@ public class TransitUserAccount implements Serializable {
   public void deactivateCard(Card card) throws IncorrectOwnerException {
     checkValidHolder(card);
     card.setActivated(false);
-    logger.log(
-        Level.INFO,
+    EventLog.message(
+        logger,
         String.format("%s deactivate card %s", accountHolder.getEmail(), card.getCardNumber()));
   }
 
@@ -201,8 +231,8 @@ public class TransitUserAccount implements Serializable {
   public void activateCard(Card card) throws IncorrectOwnerException {
     checkValidHolder(card);
     card.setActivated(true);
-    logger.log(
-        Level.INFO,
+    EventLog.message(
+        logger,
         String.format("%s activate card %s", accountHolder.getEmail(), card.getCardNumber()));
   }
 
@@ -255,10 +285,15 @@ public class TransitUserAccount implements Serializable {
       throw new SingleCardException("This is your only card, you can't remove it");
     }
     checkValidHolder(card);
-    transfer.addBalance(card.getBalance());
-    accountHolder.removeCard(card);
-    logger.log(
-        Level.INFO,
+    Journal.begin();
+    try {
+      transfer.addBalance(card.getBalance());
+      accountHolder.removeCard(card);
+    } finally {
+      Journal.end();
+    }
+    EventLog.message(
+        logger,
         String.format(
             "%s removes card %s and transfer balance/debt to card %s",
             accountHolder.getEmail(), card.getCardNumber(), transfer.getCardNumber()));
@@ -270,10 +305,17 @@ public class TransitUserAccount implements Serializable {
    * @return the card number of the new Card.
    */
   String finalizePurchaseCard() {
-    Card card = makeCard(accountHolder.getEmail());
-    accountHolder.addCard(card);
-    logger.log(
-        Level.INFO,
+    Card card;
+    Journal.begin();
+    try {
+      card = makeCard(accountHolder.getEmail());
+      Journal.cardCreated(accountHolder.getEmail(), card.getCardNumber());
+      accountHolder.addCard(card);
+    } finally {
+      Journal.end();
+    }
+    EventLog.message(
+        logger,
         String.format("%s buy a new card %s", accountHolder.getEmail(), card.getCardNumber()));
     return card.getCardNumber();
   }
@@ -286,10 +328,15 @@ public class TransitUserAccount implements Serializable {
    * @param creditCardNumber the card number of the credit card.
    */
   public void purchaseCard(String creditCardHolder, String cvv, String creditCardNumber) {
-    logger.log(
-        Level.INFO,
+    EventLog.message(
+        logger,
         String.format("%s start a request of buying a new card", accountHolder.getEmail()));
-    new BuyCardPayment(creditCardHolder, cvv, creditCardNumber, this);
+    Journal.begin();
+    try {
+      new BuyCardPayment(creditCardHolder, cvv, creditCardNumber, this);
+    } finally {
+      Journal.end();
+    }
   }
 
   /**
@@ -312,8 +359,8 @@ public class TransitUserAccount implements Serializable {
     }
     TransitPass transitPass = TransitPass.makeTransitPass(startTime, duration);
     card.addTransitPass(purchaseTime, transitPass);
-    logger.log(
-        Level.INFO,
+    EventLog.message(
+        logger,
         String.format(
             "%s buy a new transit pass: %s", accountHolder.getEmail(), transitPass.getType()));
   }
@@ -323,24 +370,14 @@ public class TransitUserAccount implements Serializable {
    * string if there is not any.
    */
   public String passInfo(LocalDateTime time) {
-    ArrayList<Card> cards = new ArrayList<>();
+    StringBuilder result = new StringBuilder();
     for (Card card : accountHolder.getMyCards()) {
       if (card.hasValidPass(time)) {
-        cards.add(card);
-      }
-    }
-    StringBuilder result = new StringBuilder();
-    for (Card card : cards) {
-      ArrayList<TransitPass> passes = new ArrayList<>();
-      for (TransitPass pass : card.getTransitPasses()) {
-        if (pass.isValid(time.toLocalDate())) {
-          passes.add(pass);
+        for (TransitPass pass : card.getValidPasses(time.toLocalDate())) {
+          result.append(pass.toString());
+          result.append(System.lineSeparator());
         }
       }
-      for (TransitPass pass : passes) {
-        result.append(pass.toString());
-        result.append(System.lineSeparator());
-      }
     }
     return result.toString();
   }
@@ -350,22 +387,27 @@ public class TransitUserAccount implements Serializable {
     LocalDate end =
         LocalDate.of(
             endDate.getYear(), endDate.getMonth(), endDate.getMonth().length(endDate.isLeapYear()));
-    Map<LocalDateTime, Double> fareTransactions = card.getTransactions();
-    Map<LocalDateTime, Double> passTransactions = card.getPassTransactions();
     StringBuilder result = new StringBuilder();
-    for (LocalDateTime time : fareTransactions.keySet()) {
-      if ((time.toLocalDate().isAfter(start)
-          || time.toLocalDate().equals(start)) && (time.toLocalDate().isBefore(end)
-          || time.toLocalDate().equals(end))) {
-        result.append(String.format("%s: %.2f %n", time, fareTransactions.get(time)));
+    Journal.begin();
+    try {
+      Map<LocalDateTime, Double> fareTransactions = card.getTransactions();
+      Map<LocalDateTime, Double> passTransactions = card.getPassTransactions();
+      for (LocalDateTime time : fareTransactions.keySet()) {
+        if ((time.toLocalDate().isAfter(start)
+            || time.toLocalDate().equals(start)) && (time.toLocalDate().isBefore(end)
+            || time.toLocalDate().equals(end))) {
+          result.append(String.format("%s: %.2f %n", time, fareTransactions.get(time)));
+        }
       }
-    }
-    for (LocalDateTime time : passTransactions.keySet()) {
-      if ((time.toLocalDate().isAfter(start)
-          || time.toLocalDate().equals(start)) && (time.toLocalDate().isBefore(end)
-          || time.toLocalDate().equals(end))) {
-        result.append(String.format("%s: %.2f %n", time, passTransactions.get(time)));
+      for (LocalDateTime time : passTransactions.keySet()) {
+        if ((time.toLocalDate().isAfter(start)
+            || time.toLocalDate().equals(start)) && (time.toLocalDate().isBefore(end)
+            || time.toLocalDate().equals(end))) {
+          result.append(String.format("%s: %.2f %n", time, passTransactions.get(time)));
+        }
       }
+    } finally {
+      Journal.end();
     }
     return result.toString();
   }
@@ -375,6 +417,25 @@ public class TransitUserAccount implements Serializable {
     return accountHolder.getMyCards().stream().anyMatch(x -> x.hasValidPass(time));
   }
 
+  /**
+   * Records that the account with email is about to change, at the given modification version.
+   */
+  static void markChanged(String email, long version) {
+    TransitUserAccount account =
+        allTransitUserAccount == null ? null : allTransitUserAccount.get(email);
+    if (account != null) {
+      account.version = version;
+    }
+  }
+
+  /**
+   * Returns the modification version of the last change to this account, 0 if it did not change
+   * since it was loaded.
+   */
+  long getVersion() {
+    return version;
+  }
+
   public static void setAllTransitUserAccount(
       HashMap<String, TransitUserAccount> allTransitUserAccount) {
     TransitUserAccount.allTransitUserAccount = allTransitUserAccount;
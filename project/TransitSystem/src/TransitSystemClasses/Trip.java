@@ -3,18 +3,28 @@ package TransitSystemClasses;
 import TransitSystemExceptions.TripCanNotContinueException;
 import TransitSystemExceptions.TripEnRouteException;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 
 class Trip implements Comparable<Trip>, Serializable {
+  private static final long serialVersionUID = -4706422337756871757L;
+
   // The first SubTrip
   private SubTrip start;
   // The last SubTrip
   private SubTrip end;
+  // The totals of the sub trips, kept up to date as sub trips are appended and their fares and
+  // stops are set, so they don't have to be added up again
+  private transient double totalFare;
+  private transient int busStops;
+  private transient int subwayStations;
 
   Trip(SubTrip start) {
     this.start = this.end = start;
+    add(start);
   }
 
   /**
@@ -59,6 +69,73 @@ class Trip implements Comparable<Trip>, Serializable {
     }
     this.end.setConnection(connection);
     this.end = this.end.getConnection();
+    add(connection);
+  }
+
+  /**
+   * Adds a SubTrip that was just connected to this trip to the totals.
+   */
+  private void add(SubTrip subTrip) {
+    subTrip.setTrip(this);
+    fareChanged(subTrip.getFare());
+    stopsChanged(subTrip, subTrip.getNumOfStops());
+  }
+
+  /**
+   * Called by a SubTrip of this trip when its fare changes by the given amount.
+   */
+  void fareChanged(double change) {
+    totalFare += change;
+  }
+
+  /**
+   * Called by a SubTrip of this trip when its number of stops changes by the given amount.
+   */
+  void stopsChanged(SubTrip subTrip, int change) {
+    if (subTrip instanceof BusSubTrip) {
+      busStops += change;
+    } else if (subTrip instanceof SubwaySubTrip) {
+      subwayStations += change;
+    }
+  }
+
+  /**
+   * Counts the totals of a trip written by Java serialization, which doesn't write them.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    for (SubTrip cur = start; cur != null; cur = cur.getConnection()) {
+      add(cur);
+    }
+  }
+
+  /**
+   * Writes the sub trips of this trip to out.
+   */
+  void encode(BinaryCodec.Writer out) throws IOException {
+    int count = 0;
+    for (SubTrip cur = start; cur != null; cur = cur.getConnection()) {
+      count++;
+    }
+    out.writeVarInt(count);
+    for (SubTrip cur = start; cur != null; cur = cur.getConnection()) {
+      cur.encode(out);
+    }
+  }
+
+  /**
+   * Reads a trip written by encode.
+   */
+  static Trip decode(BinaryCodec.Reader in) throws IOException {
+    int count = in.readVarInt();
+    Trip trip = new Trip(SubTrip.decode(in));
+    for (int i = 1; i < count; i++) {
+      SubTrip next = SubTrip.decode(in);
+      trip.end.restoreConnection(next);
+      trip.end = next;
+      trip.add(next);
+    }
+    return trip;
   }
 
   /**
@@ -84,43 +161,21 @@ class Trip implements Comparable<Trip>, Serializable {
    * Returns the total amount of fare of this trip.
    */
   float getCurrentTotalFare() {
-    SubTrip curNode = start;
-    float sum = 0;
-    while (curNode != null) {
-      sum += curNode.getFare();
-      curNode = curNode.getConnection();
-    }
-    return sum;
+    return (float) totalFare;
   }
 
   /**
    * Returns the total number of bus stops reached during this trip.
    */
   int totalBusStop() {
-    SubTrip cur = this.start;
-    int result = 0;
-    while (cur != null) {
-      if (cur instanceof BusSubTrip) {
-        result += cur.getNumOfStops();
-      }
-      cur = cur.getConnection();
-    }
-    return result;
+    return busStops;
   }
 
   /**
    * Returns the total number of subway stations reached during this trip.
    */
   int totalSubwayStation() {
-    SubTrip cur = this.start;
-    int result = 0;
-    while (cur != null) {
-      if (cur instanceof SubwaySubTrip) {
-        result += cur.getNumOfStops();
-      }
-      cur = cur.getConnection();
-    }
-    return result;
+    return subwayStations;
   }
 
   /**
@@ -1,5 +1,6 @@
 package TransitSystemClasses;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -8,6 +9,7 @@ import java.security.NoSuchAlgorithmException;
  * A TransitSystemClasses.User that has private information.
  */
 class User implements Serializable {
+  private static final long serialVersionUID = 1972580301006615543L;
 
   // the first name of this user.
   private String firstName;
@@ -32,6 +34,23 @@ class User implements Serializable {
     this.password = this.getSHA256(plainPassword);
   }
 
+  /**
+   * Reads a User written by encode.
+   */
+  User(BinaryCodec.Reader in) throws IOException {
+    this.firstName = in.readText();
+    this.lastName = in.readText();
+    this.email = in.readText();
+    this.password = in.readText();
+  }
+
+  void encode(BinaryCodec.Writer out) throws IOException {
+    out.writeText(firstName);
+    out.writeText(lastName);
+    out.writeText(email);
+    out.writeText(password);
+  }
+
   /**
    * Returns whether the plainPassword is the correct password of this user.
    *
@@ -74,6 +93,14 @@ class User implements Serializable {
     return firstName + " " + lastName;
   }
 
+  String getFirstName() {
+    return firstName;
+  }
+
+  String getLastName() {
+    return lastName;
+  }
+
   String getEmail() {
     return email;
   }
@@ -89,4 +116,15 @@ class User implements Serializable {
   }
 
   void setPassword(String password) { this.password = getSHA256(password); }
+
+  String getPasswordHash() {
+    return password;
+  }
+
+  /**
+   * Sets the SHA256 value of this user's password directly, used when replaying the journal.
+   */
+  void restorePasswordHash(String password) {
+    this.password = password;
+  }
 }